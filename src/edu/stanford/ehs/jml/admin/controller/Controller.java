@@ -145,4 +145,105 @@ public class Controller extends ControllerTemplate {
 
         return (viewOutput);
     }
+
+    /**
+     * Retrieve the server statistics
+     *
+     * @param viewName The view to be used for rendering the output from the model function
+     * @param parameters Parameter
+     * @param accountId
+     * @param sessionId
+     *
+     * @return Formatted output from the getStatistics function
+     *
+     * @see edu.stanford.ehs.jml.admin.model.Admin#getStatistics
+     */
+    public static String getStatistics(String viewName, Hashtable parameters, String accountId, String sessionId) {
+        String viewOutput = null;
+
+        // -----------------------------------------------
+        // Security
+        // -----------------------------------------------
+        if (!SecurityManager.isAuthorized(parameters, accountId, sessionId,
+                                          CoreConstants.ADMIN_CMND_GET_STATISTICS)) {
+            viewOutput =
+                    sendErrorToView(VIEW_PACKAGE + viewName, "Authorized login required for accessing the " + CoreConstants.ADMIN_CMND_GET_STATISTICS +
+                                    " function", log);
+        } else {
+            AuthResponse authResponse = SecurityManager.touch(sessionId, accountId);
+
+            if (!authResponse.isSuccess()) {
+                viewOutput =
+                        sendErrorToView(VIEW_PACKAGE + viewName, "Error in accessing the " + CoreConstants.ADMIN_CMND_GET_STATISTICS +
+                                        " function: " + authResponse.getMessage(), log);
+            } else {
+
+                // -----------------------------------------------
+                // Call the model
+                // -----------------------------------------------
+                Hashtable statistics = Admin.getStatistics();
+
+                // -----------------------------------------------
+                // Call the view
+                // -----------------------------------------------
+                viewOutput =
+                        callViewMethod(VIEW_PACKAGE + viewName, "getStatistics", new Object[] { (Object)statistics },
+                                       log);
+            }
+        }
+
+        return (viewOutput);
+    }
+
+    /**
+     * Invalidate cached stored procedure signatures for the account
+     *
+     * @param viewName The view to be used for rendering the output from the model function
+     * @param parameters Parameters, optionally including the name of the procedure or package in proc
+     * @param accountId
+     * @param sessionId
+     *
+     * @return Formatted output from the invalidateProcedureCache function
+     *
+     * @see edu.stanford.ehs.jml.admin.model.Admin#invalidateProcedureCache
+     */
+    public static String invalidateProcedureCache(String viewName, Hashtable parameters, String accountId,
+                                                  String sessionId) {
+        String viewOutput = null;
+
+        // -----------------------------------------------
+        // Security
+        // -----------------------------------------------
+        if (!SecurityManager.isAuthorized(parameters, accountId, sessionId,
+                                          CoreConstants.ADMIN_CMND_INVALIDATE_PROCEDURE_CACHE)) {
+            viewOutput =
+                    sendErrorToView(VIEW_PACKAGE + viewName, "Authorized login required for accessing the " + CoreConstants.ADMIN_CMND_INVALIDATE_PROCEDURE_CACHE +
+                                    " function", log);
+        } else {
+            AuthResponse authResponse = SecurityManager.touch(sessionId, accountId);
+
+            if (!authResponse.isSuccess()) {
+                viewOutput =
+                        sendErrorToView(VIEW_PACKAGE + viewName, "Error in accessing the " + CoreConstants.ADMIN_CMND_INVALIDATE_PROCEDURE_CACHE +
+                                        " function: " + authResponse.getMessage(), log);
+            } else {
+
+                // -----------------------------------------------
+                // Call the model
+                // -----------------------------------------------
+                String storedProcedureName =
+                    (String)parameters.get(edu.stanford.ehs.jml.database.model.Constants.DATABASE_ATTR_STORED_PROCEDURE_NAME);
+                int removed = Admin.invalidateProcedureCache(accountId, storedProcedureName);
+
+                // -----------------------------------------------
+                // Call the view
+                // -----------------------------------------------
+                viewOutput =
+                        callViewMethod(VIEW_PACKAGE + viewName, "invalidateProcedureCache",
+                                       new Object[] { new Integer(removed) }, log);
+            }
+        }
+
+        return (viewOutput);
+    }
 }
@@ -24,8 +24,16 @@
 
 package edu.stanford.ehs.jml.admin.model;
 
+import edu.stanford.ehs.jml.core.controller.ActionRegistry;
+import edu.stanford.ehs.jml.core.controller.ControllerFactory;
+import edu.stanford.ehs.jml.core.model.MemoryTelemetry;
+import edu.stanford.ehs.jml.database.model.ResultCache;
+import edu.stanford.ehs.jml.database.model.SingleFlight;
+import edu.stanford.ehs.jml.security.model.Account;
 import edu.stanford.ehs.jml.security.model.SecurityManager;
+import edu.stanford.ehs.jml.util.KeyedValue;
 
+import java.util.Enumeration;
 import java.util.Hashtable;
 
 import org.apache.logging.log4j.LogManager;
@@ -55,4 +63,53 @@ public class Admin {
         SecurityManager.logout(sessionId);
     }
 
+    /**
+     * Collect the runtime statistics of the server
+     *
+     * @return Hashtable of KeyedValue objects
+     */
+    public static Hashtable<String, KeyedValue> getStatistics() {
+        Hashtable<String, KeyedValue> statistics = new Hashtable<String, KeyedValue>();
+
+        statistics.putAll(MemoryTelemetry.getStatistics());
+        statistics.putAll(ActionRegistry.getStatistics());
+        statistics.putAll(ControllerFactory.getStatistics());
+        statistics.putAll(ResultCache.getStatistics());
+        statistics.putAll(SingleFlight.getStatistics());
+
+        Enumeration accountNames = SecurityManager.getActiveAccountNames();
+        while (accountNames.hasMoreElements()) {
+            Account account = SecurityManager.getAccount((String)accountNames.nextElement());
+
+            if (account != null && account.getConnectionPool() != null) {
+                statistics.putAll(account.getConnectionPool().getStatistics());
+            }
+            if (account != null && account.getProcedureCache() != null) {
+                statistics.putAll(account.getProcedureCache().getStatistics());
+            }
+            if (account != null && account.getBulkhead() != null) {
+                statistics.putAll(account.getBulkhead().getStatistics());
+            }
+        }
+
+        return (statistics);
+    }
+
+    /**
+     * Drop cached stored procedure signatures of an account, e.g. after a package was recompiled
+     *
+     * @param accountId The account whose cache is invalidated
+     * @param storedProcedureName The procedure or package name, or null for all procedures
+     * @return The number of signatures removed
+     */
+    public static int invalidateProcedureCache(String accountId, String storedProcedureName) {
+        Account account = SecurityManager.getAccount(accountId);
+
+        if (account == null || account.getProcedureCache() == null) {
+            return (0);
+        }
+
+        return (account.getProcedureCache().invalidate(storedProcedureName));
+    }
+
 }
@@ -26,6 +26,8 @@ package edu.stanford.ehs.jml.admin.view;
 
 import edu.stanford.ehs.jml.core.view.HTMLTemplate;
 import edu.stanford.ehs.jml.security.model.Login;
+import edu.stanford.ehs.jml.util.KeyedValue;
+import edu.stanford.ehs.jml.util.XMLUtil;
 
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -94,4 +96,56 @@ public class HTML extends HTMLTemplate {
         return (outputView.toString());
     }
 
+    /**
+     * HTML format for the function getStatistics
+     *
+     * @param statistics Hashtable of KeyedValue statistics
+     * @return HTML formatted statistics
+     */
+    public static String getStatistics(Hashtable statistics) {
+        StringBuffer outputView = new StringBuffer();
+
+        addHeader(outputView);
+
+        Enumeration statisticsList = statistics.elements();
+
+        outputView.append("\n\t<table border=1><tr><td><b>Name</b></td><td><b>Value</b></td><td><b>Description</b></td></tr>");
+
+        while (statisticsList.hasMoreElements()) {
+            KeyedValue statistic = (KeyedValue)statisticsList.nextElement();
+
+            outputView.append("\n\t<tr>\n\t\t\t<td nowrap>");
+            outputView.append(statistic.getXmlTag());
+            outputView.append("</td>\n\t\t\t<td nowrap>");
+            outputView.append(XMLUtil.encode(String.valueOf(statistic.getValue())));
+            outputView.append("</td>\n\t\t\t<td nowrap>");
+            outputView.append(statistic.getDescription());
+            outputView.append("</td>\n\t\t</tr>");
+        }
+
+        outputView.append("\n\t</table>");
+        addFooter(outputView);
+
+        return (outputView.toString());
+    }
+
+    /**
+     * HTML formatting for the invalidateProcedureCache function
+     *
+     * @param removed The number of signatures removed from the cache
+     * @return Formatted HTML output
+     */
+    public static String invalidateProcedureCache(Integer removed) {
+        StringBuffer outputView = new StringBuffer();
+
+        addHeader(outputView);
+        outputView.append("\n\t\t<table border=1><tr><td>");
+        outputView.append(removed);
+        outputView.append(" cached procedure signature(s) invalidated</td></tr>");
+        outputView.append("\n\t</table>");
+        addFooter(outputView);
+
+        return (outputView.toString());
+    }
+
 }
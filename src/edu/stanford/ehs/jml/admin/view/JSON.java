@@ -24,16 +24,17 @@
 
 package edu.stanford.ehs.jml.admin.view;
 
-import edu.stanford.ehs.jml.core.view.XMLTemplate;
+import edu.stanford.ehs.jml.core.view.JSONTemplate;
 import edu.stanford.ehs.jml.security.model.Login;
+import edu.stanford.ehs.jml.util.KeyedValue;
 
 import java.util.Enumeration;
 import java.util.Hashtable;
 
 /**
- * XML view for admin functions
+ * JSON view for admin functions
  */
-public class JSON extends XMLTemplate {
+public class JSON extends JSONTemplate {
 
     /**
      * JSON format for the function getActiveUsers
@@ -94,4 +95,59 @@ public class JSON extends XMLTemplate {
         return (outputView.toString());
     }
 
+    /**
+     * JSON format for the function getStatistics
+     *
+     * @param statistics Hashtable of KeyedValue statistics
+     * @return JSON formatted statistics
+     */
+    public static String getStatistics(Hashtable statistics) {
+        StringBuffer outputView = new StringBuffer();
+
+        addHeader(outputView);
+
+        Enumeration statisticsList = statistics.elements();
+
+        outputView.append("\"statistics\" : {");
+
+        while (statisticsList.hasMoreElements()) {
+            KeyedValue statistic = (KeyedValue)statisticsList.nextElement();
+
+            outputView.append("\n\t\"");
+            outputView.append(statistic.getXmlTag());
+            outputView.append("\" : {\"value\" : \"");
+            outputView.append(statistic.getValue());
+            outputView.append("\", \"description\" : \"");
+            outputView.append(statistic.getDescription());
+            outputView.append("\"}");
+
+            if (statisticsList.hasMoreElements()) {
+                outputView.append(",");
+            }
+        }
+
+        outputView.append("}");
+        addFooter(outputView);
+
+        return (outputView.toString());
+    }
+
+    /**
+     * JSON formatting for the invalidateProcedureCache function
+     *
+     * @param removed The number of signatures removed from the cache
+     * @return Formatted JSON output
+     */
+    public static String invalidateProcedureCache(Integer removed) {
+        StringBuffer outputView = new StringBuffer();
+
+        addHeader(outputView);
+        outputView.append("\"invalidated\" : \"");
+        outputView.append(removed);
+        outputView.append("\"");
+        addFooter(outputView);
+
+        return (outputView.toString());
+    }
+
 }
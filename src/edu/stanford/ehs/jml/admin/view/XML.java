@@ -26,6 +26,8 @@ package edu.stanford.ehs.jml.admin.view;
 
 import edu.stanford.ehs.jml.core.view.XMLTemplate;
 import edu.stanford.ehs.jml.security.model.Login;
+import edu.stanford.ehs.jml.util.KeyedValue;
+import edu.stanford.ehs.jml.util.XMLUtil;
 
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -93,4 +95,57 @@ public class XML extends XMLTemplate {
         return (outputView.toString());
     }
 
+    /**
+     * XML format for the function getStatistics
+     *
+     * @param statistics Hashtable of KeyedValue statistics
+     * @return XML formatted statistics
+     */
+    public static String getStatistics(Hashtable statistics) {
+        StringBuffer outputView = new StringBuffer();
+
+        addHeader(outputView);
+
+        Enumeration statisticsList = statistics.elements();
+
+        outputView.append("\n<statistics>");
+
+        while (statisticsList.hasMoreElements()) {
+            KeyedValue statistic = (KeyedValue)statisticsList.nextElement();
+
+            outputView.append("\n\t<");
+            outputView.append(statistic.getXmlTag());
+            outputView.append(" description='");
+            outputView.append(XMLUtil.encode(statistic.getDescription()));
+            outputView.append("'>");
+            outputView.append(XMLUtil.encode(String.valueOf(statistic.getValue())));
+            outputView.append("</");
+            outputView.append(statistic.getXmlTag());
+            outputView.append(">");
+        }
+
+        outputView.append("\n</statistics>");
+        addFooter(outputView);
+
+        return (outputView.toString());
+    }
+
+    /**
+     * XML formatting for the invalidateProcedureCache function
+     *
+     * @param removed The number of signatures removed from the cache
+     * @return Formatted XML output
+     */
+    public static String invalidateProcedureCache(Integer removed) {
+        StringBuffer outputView = new StringBuffer();
+
+        addHeader(outputView);
+        outputView.append("\n<invalidated>");
+        outputView.append(removed);
+        outputView.append("</invalidated>");
+        addFooter(outputView);
+
+        return (outputView.toString());
+    }
+
 }
@@ -0,0 +1,138 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.core.controller;
+
+import edu.stanford.ehs.jml.util.KeyedValue;
+import edu.stanford.ehs.jml.util.LatencyHistogram;
+
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An action with its handler and the metadata the controller and adapters key off:
+ * <ul>
+ * <li>authenticated: the controller checks the login and CSRF token before calling the handler</li>
+ * <li>cacheable: the output may be served from the result cache</li>
+ * <li>streaming: the action may write to the HttpServletResponse itself</li>
+ * <li>timeout: seconds the adapters wait for the action; 0 waits until it completes</li>
+ * </ul>
+ * The definition also collects the call figures of the action for the getStatistics action.
+ */
+public class ActionDefinition {
+    private String name;
+    private ActionHandler handler;
+    private boolean authenticated;
+    private boolean cacheable;
+    private boolean streaming;
+    private int timeout;
+
+    private LatencyHistogram latency = new LatencyHistogram();
+    private AtomicLong errorCount = new AtomicLong();
+
+    /**
+     * @param name The action name, i.e. the value of the action request parameter
+     * @param handler The handler processing the action
+     * @param authenticated The action requires a logged in user
+     * @param cacheable The output may be served from the result cache
+     * @param streaming The action may write to the HttpServletResponse itself
+     * @param timeout Seconds the adapters wait for the action; 0 waits until it completes
+     */
+    public ActionDefinition(String name, ActionHandler handler, boolean authenticated, boolean cacheable,
+                            boolean streaming, int timeout) {
+        this.name = name;
+        this.handler = handler;
+        this.authenticated = authenticated;
+        this.cacheable = cacheable;
+        this.streaming = streaming;
+        this.timeout = timeout;
+    }
+
+    public String getName() {
+        return (name);
+    }
+
+    public ActionHandler getHandler() {
+        return (handler);
+    }
+
+    public boolean isAuthenticated() {
+        return (authenticated);
+    }
+
+    public boolean isCacheable() {
+        return (cacheable);
+    }
+
+    public boolean isStreaming() {
+        return (streaming);
+    }
+
+    public int getTimeout() {
+        return (timeout);
+    }
+
+    /**
+     * Record one call of the action.
+     *
+     * @param nanos The processing time in nanoseconds
+     * @param failed true if the handler threw an exception
+     */
+    public void recordCall(long nanos, boolean failed) {
+        latency.record(nanos);
+        if (failed) {
+            errorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the call figures of the action. Actions that have not been called are left out.
+     *
+     * @return Hashtable of KeyedValue objects
+     */
+    public Hashtable<String, KeyedValue> getStatistics() {
+        Hashtable<String, KeyedValue> statistics = new Hashtable<String, KeyedValue>();
+        String prefix = "action-" + name + "-";
+
+        if (latency.getCount() > 0) {
+            statistics.put(prefix + "calls",
+                           new KeyedValue(prefix + "calls", "Calls (" + name + ")", String.valueOf(latency.getCount())));
+            statistics.put(prefix + "errors",
+                           new KeyedValue(prefix + "errors", "Failed calls (" + name + ")",
+                                          String.valueOf(errorCount.get())));
+            statistics.put(prefix + "mean-us",
+                           new KeyedValue(prefix + "mean-us", "Mean processing time in us (" + name + ")",
+                                          String.valueOf(latency.getMeanMicros())));
+            statistics.put(prefix + "max-us",
+                           new KeyedValue(prefix + "max-us", "Max processing time in us (" + name + ")",
+                                          String.valueOf(latency.getMaxMicros())));
+            statistics.put(prefix + "histogram",
+                           new KeyedValue(prefix + "histogram", "Processing time distribution (" + name + ")",
+                                          latency.toString()));
+        }
+
+        return (statistics);
+    }
+}
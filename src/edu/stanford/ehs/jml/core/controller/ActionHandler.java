@@ -0,0 +1,51 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.core.controller;
+
+import java.util.Hashtable;
+
+/**
+ * Handler of one action. Handlers are registered with the ActionRegistry, either by the core for
+ * the built-in actions or through an &lt;action-handler&gt; element in the server configuration file.
+ * Configured handlers need a public constructor without arguments.
+ *
+ * @see ActionRegistry
+ */
+public interface ActionHandler {
+
+    /**
+     * Process the action and return the formatted output.
+     *
+     * @param viewName The view that should format the result
+     * @param parameters The request parameters
+     * @param accountId The account id
+     * @param sessionId The session id
+     * @return The formatted output
+     * @throws Exception
+     */
+    public String process(String viewName, Hashtable parameters, String accountId,
+                          String sessionId) throws Exception;
+}
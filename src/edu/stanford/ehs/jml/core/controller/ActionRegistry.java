@@ -0,0 +1,312 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.core.controller;
+
+import edu.stanford.ehs.jml.core.model.CoreConstants;
+import edu.stanford.ehs.jml.util.KeyedValue;
+
+import java.io.File;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Registry of the actions the controller can dispatch to. The built-in actions are registered when
+ * the class is loaded; further actions are added, or the metadata of existing actions changed, with
+ * &lt;action-handler&gt; elements in the server configuration file:
+ *
+ * <pre>
+ * &lt;action-handlers&gt;
+ *   &lt;action-handler name="getReport" class="org.example.ReportHandler" authenticated="true"
+ *                   cacheable="true" streaming="false" timeout="30"/&gt;
+ *   &lt;action-handler name="doStoredProcedure" timeout="150"/&gt;
+ * &lt;/action-handlers&gt;
+ * </pre>
+ *
+ * Attributes that are left out keep the value of the existing action, or default to false and 0
+ * for new actions.
+ *
+ * @see ActionDefinition
+ */
+public class ActionRegistry {
+    protected static Logger log = LogManager.getLogger(ActionRegistry.class.getName());
+
+    private static ConcurrentHashMap<String, ActionDefinition> actions =
+        new ConcurrentHashMap<String, ActionDefinition>();
+
+    static {
+        registerBuiltInActions();
+    }
+
+    /**
+     * Register an action, replacing an action with the same name.
+     *
+     * @param action The action definition
+     */
+    public static void register(ActionDefinition action) {
+        actions.put(action.getName(), action);
+        log.debug("Registered action " + action.getName());
+    }
+
+    /**
+     * Look up an action.
+     *
+     * @param name The action name
+     * @return The action definition, or null if there is no such action
+     */
+    public static ActionDefinition getAction(String name) {
+        if (name == null) {
+            return (null);
+        }
+
+        return (actions.get(name));
+    }
+
+    /**
+     * @param name The action name
+     * @return true if the action may write to the HttpServletResponse itself
+     */
+    public static boolean isStreaming(String name) {
+        ActionDefinition action = getAction(name);
+
+        return (action != null && action.isStreaming());
+    }
+
+    /**
+     * Get the number of seconds an adapter should wait for the action. Streaming actions are always
+     * waited for, since they may still be writing to the response.
+     *
+     * @param name The action name
+     * @return The timeout in seconds, or 0 to wait until the action completes
+     */
+    public static int getTimeout(String name) {
+        ActionDefinition action = getAction(name);
+
+        if (action == null || action.isStreaming()) {
+            return (0);
+        }
+
+        return (action.getTimeout());
+    }
+
+    /**
+     * Load the &lt;action-handler&gt; elements of the server configuration file.
+     *
+     * @param configFile Configuration file
+     */
+    public static void loadActionHandlers(String configFile) {
+        try {
+            DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+            DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
+            Document xmlDocument = docBuilder.parse(new File(configFile));
+
+            xmlDocument.getDocumentElement().normalize();
+
+            NodeList listOfActionHandlers = xmlDocument.getElementsByTagName("action-handler");
+            for (int i = 0; i < listOfActionHandlers.getLength(); i++) {
+                Element actionHandler = (Element)listOfActionHandlers.item(i);
+                String name = actionHandler.getAttribute("name").trim();
+
+                try {
+                    loadActionHandler(name, actionHandler);
+                } catch (Exception e) {
+                    log.error("Cannot register the action handler " + name + ": " + e.toString());
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error in parsing " + configFile + ": " + e.toString());
+        }
+    }
+
+    /**
+     * Get the call figures of all actions.
+     *
+     * @return Hashtable of KeyedValue objects
+     */
+    public static Hashtable<String, KeyedValue> getStatistics() {
+        Hashtable<String, KeyedValue> statistics = new Hashtable<String, KeyedValue>();
+        Iterator<ActionDefinition> definitions = actions.values().iterator();
+
+        while (definitions.hasNext()) {
+            statistics.putAll(definitions.next().getStatistics());
+        }
+
+        return (statistics);
+    }
+
+    private static void loadActionHandler(String name, Element actionHandler) throws Exception {
+        if (name.length() == 0) {
+            throw new Exception("The action name is missing");
+        }
+
+        ActionDefinition existing = actions.get(name);
+        String className = actionHandler.getAttribute("class").trim();
+        ActionHandler handler = null;
+
+        if (className.length() > 0) {
+            handler = (ActionHandler)Class.forName(className).newInstance();
+        } else if (existing != null) {
+            handler = existing.getHandler();
+        } else {
+            throw new Exception("The handler class is missing");
+        }
+
+        ActionDefinition action =
+            new ActionDefinition(name, handler, getFlag(actionHandler, "authenticated", existing != null && existing.isAuthenticated()),
+                                 getFlag(actionHandler, "cacheable", existing != null && existing.isCacheable()),
+                                 getFlag(actionHandler, "streaming", existing != null && existing.isStreaming()),
+                                 actionHandler.hasAttribute("timeout") ?
+                                 Integer.parseInt(actionHandler.getAttribute("timeout").trim()) :
+                                 (existing != null ? existing.getTimeout() : 0));
+
+        register(action);
+        log.info("Action " + name + " handled by " + handler.getClass().getName() + " (authenticated=" +
+                 action.isAuthenticated() + ", cacheable=" +
+                 action.isCacheable() + ", streaming=" + action.isStreaming() + ", timeout=" + action.getTimeout() +
+                 ")");
+    }
+
+    private static boolean getFlag(Element element, String attributeName, boolean defaultValue) {
+        if (!element.hasAttribute(attributeName)) {
+            return (defaultValue);
+        }
+
+        return ("true".equalsIgnoreCase(element.getAttribute(attributeName).trim()));
+    }
+
+    /**
+     * Register the actions of the JML modules
+     */
+    private static void registerBuiltInActions() {
+
+        // Database
+        register(new ActionDefinition(CoreConstants.DATABASE_CMND_STOREDPROCEDURE, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.database.controller.Controller.doStoredProcedure(viewName, parameters,
+                                                                                                      accountId, sessionId));
+                    }
+                }, true, true, true, 0));
+        register(new ActionDefinition(CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.database.controller.Controller.doUserStoredProcedure(viewName,
+                                                                                                          parameters,
+                                                                                                          accountId,
+                                                                                                          sessionId));
+                    }
+                }, true, true, true, 0));
+        register(new ActionDefinition(CoreConstants.DATABASE_CMND_BATCH, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.database.controller.Controller.doBatch(viewName, parameters,
+                                                                                            accountId, sessionId));
+                    }
+                }, true, false, false, 0));
+
+        // Security
+        register(new ActionDefinition(CoreConstants.SECURITY_CMND_LOGIN, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.security.controller.Controller.login(viewName, parameters, sessionId));
+                    }
+                }, false, false, false, 0));
+        register(new ActionDefinition(CoreConstants.SECURITY_CMND_SECURITY_LOGOUT, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.security.controller.Controller.logout(viewName, sessionId));
+                    }
+                }, false, false, false, 0));
+
+        // Email
+        register(new ActionDefinition(CoreConstants.EMAIL_CMND_EMAIL_EMAIL, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.messaging.email.controller.Controller.send(viewName, parameters,
+                                                                                                accountId, sessionId));
+                    }
+                }, true, false, false, 0));
+
+        // Runtime
+        register(new ActionDefinition(CoreConstants.RUNTIME_CMND_APPRESET, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.runtime.controller.Controller.resetSession(viewName, parameters,
+                                                                                                accountId, sessionId));
+                    }
+                }, true, false, false, 0));
+        register(new ActionDefinition(CoreConstants.RUNTIME_CMND_REQUESTINFO, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.runtime.controller.Controller.getRequestInfo(viewName, parameters,
+                                                                                                  accountId, sessionId));
+                    }
+                }, false, false, false, 0));
+        register(new ActionDefinition(CoreConstants.RUNTIME_CMND_SESSINFO, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.runtime.controller.Controller.getSessionInfo(viewName, parameters,
+                                                                                                  accountId, sessionId));
+                    }
+                }, true, false, false, 0));
+        register(new ActionDefinition(CoreConstants.RUNTIME_CMND_ECHO, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.runtime.controller.Controller.doEcho(viewName, parameters, accountId,
+                                                                                          sessionId));
+                    }
+                }, true, true, false, 0));
+
+        // Administration
+        register(new ActionDefinition(CoreConstants.ADMIN_CMND_GET_ACTIVE_USERS, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.admin.controller.Controller.getActiveUsers(viewName, parameters,
+                                                                                                accountId, sessionId));
+                    }
+                }, true, false, false, 0));
+        register(new ActionDefinition(CoreConstants.ADMIN_CMND_GET_STATISTICS, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.admin.controller.Controller.getStatistics(viewName, parameters,
+                                                                                               accountId, sessionId));
+                    }
+                }, true, false, false, 0));
+        register(new ActionDefinition(CoreConstants.ADMIN_CMND_INVALIDATE_PROCEDURE_CACHE, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.admin.controller.Controller.invalidateProcedureCache(viewName,
+                                                                                                          parameters,
+                                                                                                          accountId,
+                                                                                                          sessionId));
+                    }
+                }, true, false, false, 0));
+        register(new ActionDefinition(CoreConstants.ADMIN_CMND_LOGOUTUSER, new ActionHandler() {
+                    public String process(String viewName, Hashtable parameters, String accountId, String sessionId) {
+                        return (edu.stanford.ehs.jml.admin.controller.Controller.logout(viewName, parameters, accountId,
+                                                                                        sessionId));
+                    }
+                }, true, false, false, 0));
+    }
+}
@@ -24,6 +24,8 @@
 
 package edu.stanford.ehs.jml.core.controller;
 
+import edu.stanford.ehs.jml.core.model.CoreConstants;
+
 import java.io.IOException;
 
 import java.util.Hashtable;
@@ -59,6 +61,11 @@ public class Controller implements Callable {
      */
     public Integer call() throws java.io.IOException {
         try {
+            // Hand the response over to the actions that stream their output
+            if (httpResponse != null &&
+                ActionRegistry.isStreaming((String)parameters.get(CoreConstants.GENERAL_ATTR_ACTION))) {
+                parameters.put(CoreConstants.GENERAL_ATTR_HTTPRESPONSE, httpResponse);
+            }
             stringResponse = ControllerThread.process(parameters);
         } catch (Exception e) {
             throw new IOException("Error in processing call to ControllerThread: " + e.toString());
@@ -22,42 +22,171 @@
  * SOFTWARE.
  */
 
+
 package edu.stanford.ehs.jml.core.controller;
 
+import edu.stanford.ehs.jml.util.KeyedValue;
+import edu.stanford.ehs.jml.util.LatencyHistogram;
+
+import java.util.Hashtable;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * The ControllerFactory is the interface for the adapter to the multi-threaded JML controller environment.
+ *
+ * The controllers run on a bounded thread pool. New threads are started up to the maximum pool size
+ * before requests are queued, and requests are rejected once the queue is full as well, so a slow
+ * database makes requests fail fast instead of piling up threads.
+ *
+ * On JDK 21 and later the controllers can run on virtual threads instead, one per request. This
+ * does not lift the limit set by the pool sizes: the Oracle thin driver (ojdbc6) does its socket
+ * I/O inside synchronized blocks, which pins a virtual thread to its carrier for the whole database
+ * round trip. Before JDK 24 a pinned virtual thread blocks its carrier, and there are only as many
+ * carriers as processors, so unbounded virtual threads would stall every request behind a few slow
+ * queries. At most maxThreads controllers therefore run at the same time, further requests wait
+ * without holding a carrier, and requests beyond maxThreads + queueSize are rejected like on the
+ * thread pool.
  */
 public class ControllerFactory {
 
     protected static Logger log = LogManager.getLogger(ControllerFactory.class.getName());
-    
+
+    public static final int DEFAULT_MIN_THREADS = 5;
+    public static final int DEFAULT_MAX_THREADS = 20;
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
     private static boolean isInitialized = false;
 
-    // The thread pool
+    // The thread pool, or the virtual thread executor
     private static ExecutorService executorService = null;
+    private static boolean virtualThreads = false;
+
+    // Controllers submitted to the virtual thread executor and not yet completed, and their limits
+    private static AtomicInteger virtualThreadCount = new AtomicInteger();
+    private static Semaphore virtualThreadPermits = null;
+    private static int virtualThreadMax = 0;
+    private static int virtualThreadLimit = 0;
+    private static AtomicLong rejectedCount = new AtomicLong();
+    private static LatencyHistogram waitTime = new LatencyHistogram();
 
     /**
-     * Initialize the cached thread pool which reuses thread that have terminated or creates new threads, if needed.
+     * Initialize the thread pool with the default sizes.
+     *
+     * @see #initialize(int, int, int, boolean)
+     */
+    public static void initialize() {
+        initialize(DEFAULT_MIN_THREADS, DEFAULT_MAX_THREADS, DEFAULT_QUEUE_SIZE, false);
+    }
+
+    /**
+     * Initialize the bounded thread pool. Idle threads above the minimum are stopped after a minute.
      * This method is called from the main initialization class, Server
      *
+     * @param minThreads Threads kept when idle
+     * @param maxThreads Upper limit of threads
+     * @param queueSize Requests waiting for a thread when all threads are busy; further requests are rejected
+     * @param useVirtualThreads Run every controller on its own virtual thread instead; maxThreads then caps
+     *                          the running controllers and queueSize the waiting ones. Falls back to the
+     *                          thread pool if the JVM has no virtual threads.
      * @see edu.stanford.ehs.jml.core.model.Server
-     *
      */
-    public static void initialize() {
-        log.debug("Initializing cached tread pool");
-        executorService = Executors.newCachedThreadPool();
+    public static void initialize(int minThreads, int maxThreads, int queueSize, boolean useVirtualThreads) {
+        maxThreads = Math.max(maxThreads, 1);
+        queueSize = Math.max(queueSize, 0);
+
+        if (useVirtualThreads) {
+            ExecutorService virtualExecutor = newVirtualThreadExecutor();
+
+            if (virtualExecutor != null) {
+                log.debug("Initializing virtual thread executor: " + maxThreads + " running controllers, queue size " +
+                          queueSize);
+                virtualThreadPermits = new Semaphore(maxThreads);
+                virtualThreadMax = maxThreads;
+                virtualThreadLimit = maxThreads + queueSize;
+                executorService = virtualExecutor;
+                virtualThreads = true;
+                isInitialized = true;
+                return;
+            }
+        }
+
+        minThreads = Math.min(Math.max(minThreads, 0), maxThreads);
+
+        log.debug("Initializing bounded thread pool: " + minThreads + "-" + maxThreads + " threads, queue size " +
+                  queueSize);
+
+        // Without a queue a request is handed straight to an idle or new thread, or rejected
+        BlockingQueue<Runnable> queue =
+            (queueSize > 0 ? new ControllerQueue(queueSize) : new SynchronousQueue<Runnable>());
+        ControllerExecutor executor = new ControllerExecutor(minThreads, maxThreads, queue);
+        if (queue instanceof ControllerQueue) {
+            ((ControllerQueue)queue).executor = executor;
+        }
+        executor.prestartAllCoreThreads();
+        executorService = executor;
+        virtualThreads = false;
         isInitialized = true;
     }
-    
+
+    /**
+     * Create Executors.newVirtualThreadPerTaskExecutor() through reflection, so the JML still runs on
+     * JVMs without virtual threads.
+     *
+     * @return The executor, or null if virtual threads are not available
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return ((ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+        } catch (Exception e) {
+            log.warn("Virtual threads are not available on this JVM (" + e.toString() +
+                     "), falling back to the thread pool");
+        }
+        return (null);
+    }
+
+    /**
+     * Are the controllers running on virtual threads?
+     *
+     * @return True or false
+     */
+    public static boolean isVirtualThreads() {
+        return (virtualThreads);
+    }
+
+    /**
+     * Get the maximum number of controllers running at the same time
+     *
+     * @return The maximum pool size, or the cap of the virtual threads
+     */
+    public static int getMaxThreads() {
+        if (virtualThreads) {
+            return (virtualThreadMax);
+        } else if (executorService instanceof ThreadPoolExecutor) {
+            return (((ThreadPoolExecutor)executorService).getMaximumPoolSize());
+        }
+        return (DEFAULT_MAX_THREADS);
+    }
+
     /**
      * Is the ControllerFactory already initialized?
      *
@@ -70,20 +199,127 @@ public class ControllerFactory {
     /**
      * Submit a Controller task to the thread pool.
      * @param controller The CORE controller to be sumitted to the thread pool.
-     * @return Future object of the result
+     * @return Future object of the result, or null if the task was rejected because the pool is saturated
      */
-    public static Future submit(Callable<Controller> controller) {
-
-        FutureTask futureTask = new FutureTask((Callable<Controller>)controller);
+    public static Future submit(final Callable<Controller> controller) {
         Future futureResult = null;
         try {
-            futureResult = executorService.submit((Runnable)futureTask); // FutureTask to Runnable
+            if (virtualThreads) {
+                futureResult = submitVirtual(controller);
+            } else {
+                futureResult = executorService.submit(controller);
+            }
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            if (executorService instanceof ThreadPoolExecutor) {
+                ThreadPoolExecutor executor = (ThreadPoolExecutor)executorService;
+                log.warn("Request rejected: all " + executor.getMaximumPoolSize() + " threads are busy and " +
+                         executor.getQueue().size() + " requests are queued");
+            } else {
+                log.warn("Request rejected: " + e.toString());
+            }
         } catch (Exception e) {
             log.error("Error in submitting task: " + e.toString());
         }
         return (futureResult);
     }
 
+    /**
+     * Submit a Controller task to the virtual thread executor. The task waits for one of the maxThreads
+     * permits before it runs; a virtual thread waiting on the semaphore is not pinned.
+     *
+     * @param controller The CORE controller
+     * @return Future object of the result
+     * @throws RejectedExecutionException If maxThreads + queueSize controllers are running or waiting
+     */
+    private static Future submitVirtual(final Callable<Controller> controller) {
+        if (virtualThreadCount.incrementAndGet() > virtualThreadLimit) {
+            virtualThreadCount.decrementAndGet();
+            throw new RejectedExecutionException(virtualThreadLimit + " controllers are running or waiting");
+        }
+
+        final long submitted = System.nanoTime();
+
+        try {
+            return (executorService.submit(new Callable<Controller>() {
+                        public Controller call() throws Exception {
+                            try {
+                                virtualThreadPermits.acquire();
+                                try {
+                                    waitTime.record(System.nanoTime() - submitted);
+                                    return (controller.call());
+                                } finally {
+                                    virtualThreadPermits.release();
+                                }
+                            } finally {
+                                virtualThreadCount.decrementAndGet();
+                            }
+                        }
+                    }));
+        } catch (RejectedExecutionException e) {
+            virtualThreadCount.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the thread pool figures.
+     *
+     * @return Hashtable of KeyedValue objects
+     */
+    public static Hashtable<String, KeyedValue> getStatistics() {
+        Hashtable<String, KeyedValue> statistics = new Hashtable<String, KeyedValue>();
+        ExecutorService service = executorService;
+
+        statistics.put("threads-virtual",
+                       new KeyedValue("threads-virtual", "Controllers run on virtual threads",
+                                      String.valueOf(virtualThreads)));
+        if (virtualThreads) {
+            int submitted = virtualThreadCount.get();
+            int waiting = virtualThreadPermits.getQueueLength();
+
+            statistics.put("threads-active",
+                           new KeyedValue("threads-active", "Busy controller threads",
+                                          String.valueOf(Math.max(submitted - waiting, 0))));
+            statistics.put("threads-max",
+                           new KeyedValue("threads-max", "Maximum number of controller threads",
+                                          String.valueOf(virtualThreadMax)));
+            statistics.put("queue-depth",
+                           new KeyedValue("queue-depth", "Queued requests", String.valueOf(waiting)));
+        } else if (service instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor executor = (ThreadPoolExecutor)service;
+
+            statistics.put("threads-active",
+                           new KeyedValue("threads-active", "Busy controller threads",
+                                          String.valueOf(executor.getActiveCount())));
+            statistics.put("threads-pool",
+                           new KeyedValue("threads-pool", "Controller threads", String.valueOf(executor.getPoolSize())));
+            statistics.put("threads-largest",
+                           new KeyedValue("threads-largest", "Largest number of controller threads",
+                                          String.valueOf(executor.getLargestPoolSize())));
+            statistics.put("threads-max",
+                           new KeyedValue("threads-max", "Maximum number of controller threads",
+                                          String.valueOf(executor.getMaximumPoolSize())));
+            statistics.put("queue-depth",
+                           new KeyedValue("queue-depth", "Queued requests", String.valueOf(executor.getQueue().size())));
+            statistics.put("tasks-completed",
+                           new KeyedValue("tasks-completed", "Completed requests",
+                                          String.valueOf(executor.getCompletedTaskCount())));
+        }
+        statistics.put("tasks-rejected",
+                       new KeyedValue("tasks-rejected", "Rejected requests", String.valueOf(rejectedCount.get())));
+        statistics.put("task-wait-mean-us",
+                       new KeyedValue("task-wait-mean-us", "Mean wait for a thread in us",
+                                      String.valueOf(waitTime.getMeanMicros())));
+        statistics.put("task-wait-max-us",
+                       new KeyedValue("task-wait-max-us", "Max wait for a thread in us",
+                                      String.valueOf(waitTime.getMaxMicros())));
+        statistics.put("task-wait-histogram",
+                       new KeyedValue("task-wait-histogram", "Wait for a thread distribution", waitTime.toString()));
+
+        return (statistics);
+    }
+
     /**
      * Stop all active processes. This method is called from the main initialization class, Server
      *
@@ -91,10 +327,110 @@ public class ControllerFactory {
      *
      */
     public static void destroy() {
-        log.debug("Shutting down cached thread pool");
+        log.debug("Shutting down thread pool");
         executorService.shutdown();
-        log.debug("Cached thread pool shut-down completed");
+        log.debug("Thread pool shut-down completed");
     }
 
+    /**
+     * Thread pool measuring how long each task waited for a thread
+     */
+    private static class ControllerExecutor extends ThreadPoolExecutor {
+        // Tasks submitted and not yet completed, whether queued or running
+        AtomicInteger submittedCount = new AtomicInteger();
+
+        ControllerExecutor(int minThreads, int maxThreads, BlockingQueue<Runnable> queue) {
+            super(minThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, new ControllerThreadFactory(),
+                  new ControllerRejectionHandler());
+        }
+
+        public void execute(Runnable task) {
+            submittedCount.incrementAndGet();
+            try {
+                super.execute(task);
+            } catch (RejectedExecutionException e) {
+                submittedCount.decrementAndGet();
+                throw e;
+            }
+        }
+
+        protected void afterExecute(Runnable task, Throwable t) {
+            submittedCount.decrementAndGet();
+            super.afterExecute(task, t);
+        }
 
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            return (new TimedTask<T>(callable));
+        }
+
+        protected void beforeExecute(Thread thread, Runnable task) {
+            if (task instanceof TimedTask) {
+                waitTime.record(System.nanoTime() - ((TimedTask)task).submitted);
+            }
+            super.beforeExecute(thread, task);
+        }
+    }
+
+    /**
+     * Task remembering when it was submitted
+     */
+    private static class TimedTask<T> extends FutureTask<T> {
+        long submitted = System.nanoTime();
+
+        TimedTask(Callable<T> callable) {
+            super(callable);
+        }
+    }
+
+    /**
+     * Work queue that refuses tasks while all threads are busy and the pool can still grow, so the
+     * executor starts a new thread instead of queueing behind busy threads. The rejection handler
+     * queues the task if the pool is at its maximum and there is room left.
+     */
+    private static class ControllerQueue extends LinkedBlockingQueue<Runnable> {
+        ControllerExecutor executor = null;
+
+        ControllerQueue(int capacity) {
+            super(capacity);
+        }
+
+        public boolean offer(Runnable task) {
+            if (executor != null && executor.submittedCount.get() > executor.getPoolSize() &&
+                executor.getPoolSize() < executor.getMaximumPoolSize()) {
+                return (false);
+            }
+            return (super.offer(task));
+        }
+
+        boolean forceOffer(Runnable task) {
+            return (super.offer(task));
+        }
+    }
+
+    /**
+     * Queue the task if the pool could not take it because it is at its maximum, otherwise reject it.
+     * A pool without a queue rejects it right away.
+     */
+    private static class ControllerRejectionHandler implements RejectedExecutionHandler {
+
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown() || !(executor.getQueue() instanceof ControllerQueue) ||
+                !((ControllerQueue)executor.getQueue()).forceOffer(task)) {
+                throw new RejectedExecutionException("The controller thread pool is saturated");
+            }
+        }
+    }
+
+    /**
+     * Names the controller threads for thread dumps and logs
+     */
+    private static class ControllerThreadFactory implements ThreadFactory {
+        private AtomicInteger threadCounter = new AtomicInteger();
+
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "jml-controller-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return (thread);
+        }
+    }
 }
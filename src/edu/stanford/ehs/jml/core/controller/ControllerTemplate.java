@@ -26,7 +26,7 @@ package edu.stanford.ehs.jml.core.controller;
 
 import edu.stanford.ehs.jml.core.model.CoreConstants;
 
-import java.lang.reflect.Method;
+import java.io.Writer;
 
 import org.apache.logging.log4j.Logger;
 
@@ -51,7 +51,6 @@ public class ControllerTemplate {
         String viewOutput = null;
 
         try {
-            Class viewClass = getViewClass(viewClassName, log);
             Class[] argumentsClasses = null;
 
             if (arguments != null) {
@@ -61,14 +60,11 @@ public class ControllerTemplate {
 
                 for (int i = 0; i < numberOfArguments; i++) {
                     argumentsClasses[i] = arguments[i].getClass();
-                    log.debug("Argument " + i + " = " + argumentsClasses[i].getClass().toString());
                 }
             }
 
-            Method viewMethod = viewClass.getMethod(method, argumentsClasses);
-
-            viewOutput = (String)viewMethod.invoke((Object)viewClass, arguments);
-        } catch (Exception e) {
+            viewOutput = (String)ViewRegistry.invoke(viewClassName, method, argumentsClasses, arguments);
+        } catch (Throwable e) {
             log.error("Error in invoking the method " + method + " from " + viewClassName + ": " + e.toString() +
                       " ** Cause: " + e.getCause());
         }
@@ -76,6 +72,32 @@ public class ControllerTemplate {
         return (viewOutput);
     }
 
+    /**
+     * Get the streaming handler of a view. Views that can stream their output implement a static method
+     * taking the response Writer and returning the object that writes the formatted output to it.
+     *
+     * @param viewClassName The class name of the view to be called
+     * @param method The name of the method to be called, e.g. doStoredProcedureStream
+     * @param writer The response writer
+     * @param log The logger object
+     * @return The streaming handler, or null if the view does not support streaming
+     */
+    protected static Object getViewStreamHandler(String viewClassName, String method, Writer writer, Logger log) {
+        Object streamHandler = null;
+
+        try {
+            streamHandler =
+                ViewRegistry.invoke(viewClassName, method, new Class[] { Writer.class }, new Object[] { writer });
+        } catch (NoSuchMethodException e) {
+            log.debug("The view " + viewClassName + " does not support streaming");
+        } catch (Throwable e) {
+            log.error("Error in invoking the method " + method + " from " + viewClassName + ": " + e.toString() +
+                      " ** Cause: " + e.getCause());
+        }
+
+        return (streamHandler);
+    }
+
     /**
      * If an error occurs in the model classes, use this method to pass the error message to the view
      * class.
@@ -90,13 +112,12 @@ public class ControllerTemplate {
         String viewOutput = null;
 
         try {
-            Method viewMethod =
-                viewClass.getMethod(CoreConstants.GENERAL_CMND_ERRORMESSAGE, new Class[] { errorMessage.getClass() });
-
-            viewOutput = (String)viewMethod.invoke((Object)viewClass, new Object[] { errorMessage });
+            viewOutput =
+                    (String)ViewRegistry.invoke(viewClass.getName(), CoreConstants.GENERAL_CMND_ERRORMESSAGE, new Class[] { String.class },
+                                                new Object[] { errorMessage });
 
             log.info(errorMessage);
-        } catch (Exception e) {
+        } catch (Throwable e) {
             log.error("Error in invoking the method errorMessage from " + viewClass.getName() + ": " + e.toString());
         }
 
@@ -127,7 +148,7 @@ public class ControllerTemplate {
         Class viewClass = null;
 
         try {
-            viewClass = Class.forName(viewName);
+            viewClass = ViewRegistry.getViewClass(viewName);
         } catch (Exception e) {
             log.error("Cannot initialize the view class " + viewName + ": " + e.toString());
         }
@@ -25,6 +25,8 @@
 package edu.stanford.ehs.jml.core.controller;
 
 import edu.stanford.ehs.jml.core.model.CoreConstants;
+import edu.stanford.ehs.jml.core.model.MemoryTelemetry;
+import edu.stanford.ehs.jml.security.model.RequestContext;
 import edu.stanford.ehs.jml.security.model.SecurityManager;
 
 import java.util.Hashtable;
@@ -58,35 +60,25 @@ public class ControllerThread extends ControllerTemplate {
         // Get the view from the controllerInput since it is specific to the adapter
         String viewName = (String)controllerInput.get(CoreConstants.GENERAL_ATTR_VIEW);
 
-        // Get the session id
-        String sessionId = SecurityManager.getSessionId(controllerInput);
-        
+        // Resolve the session, its login and the account once; the account Id comes from the login table,
+        // or, from the HttpServletRequest if the user is logging in seamlessly
+        RequestContext requestContext = SecurityManager.createRequestContext(controllerInput);
+        String sessionId = requestContext.getSessionId();
+        String accountId = requestContext.getAccountId();
+
         // Add the session ID to the thread context so it can be included in the application log output
         ThreadContext.put("sessionId", sessionId);
 
-        // Get the account Id from the login table, or, from the HttpServletRequest
-        // if the user is logging in seamlessly
-        String accountId = edu.stanford.ehs.jml.security.model.SecurityManager.getAccountName(sessionId);
-        if (accountId == null) {
-            accountId = (String)controllerInput.get(CoreConstants.GENERAL_ATTR_ACCOUNT_ID);
-            log.debug("Retrieving account name from parameter: " + accountId);
-        }
         String viewOutput = null;
 
-        long rt_freeMemory_kb = 0;
-        long rt_totalMemory_kb = 0;
-        long rt_maxMemory_kb = 0;
-        double rt_freeMemory_perc = 0;
-
-        log.info("User: " + edu.stanford.ehs.jml.security.model.SecurityManager.getUserId(sessionId) + " Action: " +
-                 actionCommand + " Account: " + accountId);
+        log.info("User: " + requestContext.getUserId() + " Action: " + actionCommand + " Account: " + accountId);
 
         if (log.isDebugEnabled()) {
 
-            rt_freeMemory_kb = Runtime.getRuntime().freeMemory() / 1024;
-            rt_totalMemory_kb = Runtime.getRuntime().totalMemory() / 1024;
-            rt_maxMemory_kb = Runtime.getRuntime().maxMemory() / 1024;
-            rt_freeMemory_perc =
+            long rt_freeMemory_kb = Runtime.getRuntime().freeMemory() / 1024;
+            long rt_totalMemory_kb = Runtime.getRuntime().totalMemory() / 1024;
+            long rt_maxMemory_kb = Runtime.getRuntime().maxMemory() / 1024;
+            double rt_freeMemory_perc =
                     (double)((((double)(rt_freeMemory_kb)) / ((double)(rt_totalMemory_kb)) * 10000)) / 100;
 
             log.debug("Session: " + sessionId);
@@ -108,50 +100,33 @@ public class ControllerThread extends ControllerTemplate {
             log.info(securityCheckResult);
         }
 
+        // Start measuring the allocations and collections of this action (no-op unless enabled)
+        MemoryTelemetry.Sample memorySample = MemoryTelemetry.begin();
+
         // ----------------------------------
         // Main controller delegation
         // ----------------------------------
 
-        if (actionCommand.equals(CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE)) {
-            viewOutput =
-                    edu.stanford.ehs.jml.database.controller.Controller.doUserStoredProcedure(viewName, controllerInput,
-                                                                                              accountId, sessionId);
-        } else if (actionCommand.equals(CoreConstants.SECURITY_CMND_LOGIN)) {
-            viewOutput =
-                    edu.stanford.ehs.jml.security.controller.Controller.login(viewName, controllerInput, sessionId);
-        } else if (actionCommand.equals(CoreConstants.DATABASE_CMND_STOREDPROCEDURE)) {
-            viewOutput =
-                    edu.stanford.ehs.jml.database.controller.Controller.doStoredProcedure(viewName, controllerInput,
-                                                                                          accountId, sessionId);
-        } else if (actionCommand.equals(CoreConstants.SECURITY_CMND_SECURITY_LOGOUT)) {
-            viewOutput = edu.stanford.ehs.jml.security.controller.Controller.logout(viewName, sessionId);
-        } else if (actionCommand.equals(CoreConstants.RUNTIME_CMND_APPRESET)) {
-            viewOutput =
-                    edu.stanford.ehs.jml.runtime.controller.Controller.resetSession(viewName, controllerInput, accountId,
-                                                                                    sessionId);
-        } else if (actionCommand.equals(CoreConstants.EMAIL_CMND_EMAIL_EMAIL)) {
-            viewOutput =
-                    edu.stanford.ehs.jml.messaging.email.controller.Controller.send(viewName, controllerInput, accountId,
-                                                                                    sessionId);
-        } else if (actionCommand.equals(CoreConstants.RUNTIME_CMND_REQUESTINFO)) {
-            viewOutput =
-                    edu.stanford.ehs.jml.runtime.controller.Controller.getRequestInfo(viewName, controllerInput, accountId,
-                                                                                      sessionId);
-        } else if (actionCommand.equals(CoreConstants.ADMIN_CMND_GET_ACTIVE_USERS)) {
-            viewOutput =
-                    edu.stanford.ehs.jml.admin.controller.Controller.getActiveUsers(viewName, controllerInput, accountId,
-                                                                                    sessionId);
-        } else if (actionCommand.equals(CoreConstants.ADMIN_CMND_LOGOUTUSER)) {
-            viewOutput =
-                    edu.stanford.ehs.jml.admin.controller.Controller.logout(viewName, controllerInput, accountId, sessionId);
-        } else if (actionCommand.equals(CoreConstants.RUNTIME_CMND_ECHO)) {
-            viewOutput =
-                    edu.stanford.ehs.jml.runtime.controller.Controller.doEcho(viewName, controllerInput, accountId,
-                                                                              sessionId);
-        } else if (actionCommand.equals(CoreConstants.RUNTIME_CMND_SESSINFO)) {
+        ActionDefinition action = ActionRegistry.getAction(actionCommand);
+
+        if (action != null && action.isAuthenticated() &&
+            !SecurityManager.isAuthorized(controllerInput, accountId, sessionId, actionCommand)) {
+            // Refuse authenticated actions before the handler runs, also for plugged in handlers
             viewOutput =
-                    edu.stanford.ehs.jml.runtime.controller.Controller.getSessionInfo(viewName, controllerInput, accountId,
-                                                                                      sessionId);
+                    sendErrorToView(VIEW_PACKAGE + viewName + "Template", "Authorized login required for accessing the " +
+                                    actionCommand + " function", log);
+        } else if (action != null) {
+            long timerStartAction = System.nanoTime();
+            boolean failed = false;
+
+            try {
+                viewOutput = action.getHandler().process(viewName, controllerInput, accountId, sessionId);
+            } catch (Exception e) {
+                failed = true;
+                log.error("Error in processing the action " + actionCommand + ": " + e.toString());
+            }
+
+            action.recordCall(System.nanoTime() - timerStartAction, failed);
         } else {
             // ----------------------------------
             // Action: Command not found
@@ -163,19 +138,8 @@ public class ControllerThread extends ControllerTemplate {
                                    log));
         }
 
-
-        // Do garbage collection
-        Runtime.getRuntime().gc();
-
-        if (log.isDebugEnabled()) {
-            long rt_freeMemory_kb_after = Runtime.getRuntime().freeMemory() / 1024;
-            long rt_totalMemory_kb_after = Runtime.getRuntime().totalMemory() / 1024;
-            log.debug("Mem used(+)/gain(-) by action: " +
-                      (long)((rt_totalMemory_kb_after - rt_freeMemory_kb_after) - (rt_totalMemory_kb -
-                                                                                   rt_freeMemory_kb)) + " kb");
-            log.debug("Mem Alloc inc(+)/dcr(-): " + (long)((rt_totalMemory_kb_after) - (rt_totalMemory_kb)) + " kb");
-            log.debug("Used mem after gc: " + (rt_totalMemory_kb_after - rt_freeMemory_kb_after) + " kb");
-        }
+        // Collection is left to the JVM; report what the action allocated instead
+        MemoryTelemetry.end(memorySample, actionCommand);
 
         return (viewOutput);
     }
@@ -190,4 +154,16 @@ public class ControllerThread extends ControllerTemplate {
         return (callViewMethod(VIEW_PACKAGE + viewName + "Template", "getContentType", null, log));
     }
 
+    /**
+     * Render an error message in a specific view, for requests that are refused before a controller
+     * thread is started.
+     *
+     * @param viewName
+     * @param errorMessage
+     * @return The error message in the format of that view
+     */
+    public static String getErrorMessage(String viewName, String errorMessage) {
+        return (sendErrorToView(VIEW_PACKAGE + viewName + "Template", errorMessage, log));
+    }
+
 }
@@ -0,0 +1,167 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.core.controller;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Registry of the view classes and their methods. Each (view, method, argument types) combination is
+ * resolved once into a MethodHandle taking the arguments as an Object[], so the views are called
+ * without class lookups or reflection once the registry is warm. The views of all modules are loaded
+ * and their public static methods resolved when the server starts.
+ *
+ * @see ControllerTemplate#callViewMethod(String, String, Object[], Logger)
+ */
+public class ViewRegistry {
+    protected static Logger log = LogManager.getLogger(ViewRegistry.class.getName());
+
+    // The view packages of the modules and the views every module provides
+    private static String[] VIEW_PACKAGES =
+    { "edu.stanford.ehs.jml.admin.view.", "edu.stanford.ehs.jml.database.view.",
+      "edu.stanford.ehs.jml.messaging.email.view.", "edu.stanford.ehs.jml.runtime.view.",
+      "edu.stanford.ehs.jml.security.view." };
+    private static String[] VIEW_NAMES = { "HTML", "JSON", "XML" };
+    private static String CORE_VIEW_PACKAGE = "edu.stanford.ehs.jml.core.view.";
+    private static String CORE_VIEW_SUFFIX = "Template";
+    private static Object[] NO_ARGUMENTS = new Object[0];
+
+    private static ConcurrentHashMap<String, Class> viewClasses = new ConcurrentHashMap<String, Class>();
+    private static ConcurrentHashMap<String, MethodHandle> viewMethods = new ConcurrentHashMap<String, MethodHandle>();
+
+    /**
+     * Load the views of all modules and resolve their public static methods.
+     *
+     * @return false if a view class is missing
+     */
+    public static boolean initialize() {
+        boolean complete = true;
+
+        for (int i = 0; i < VIEW_NAMES.length; i++) {
+            complete &= preload(CORE_VIEW_PACKAGE + VIEW_NAMES[i] + CORE_VIEW_SUFFIX);
+            for (int j = 0; j < VIEW_PACKAGES.length; j++) {
+                complete &= preload(VIEW_PACKAGES[j] + VIEW_NAMES[i]);
+            }
+        }
+
+        log.info("Resolved " + viewMethods.size() + " methods of " + viewClasses.size() + " views");
+
+        return (complete);
+    }
+
+    /**
+     * Get a view class.
+     *
+     * @param viewClassName The class name of the view
+     * @return The view class object
+     * @throws ClassNotFoundException
+     */
+    public static Class getViewClass(String viewClassName) throws ClassNotFoundException {
+        Class viewClass = viewClasses.get(viewClassName);
+
+        if (viewClass == null) {
+            viewClass = Class.forName(viewClassName);
+            viewClasses.put(viewClassName, viewClass);
+        }
+
+        return (viewClass);
+    }
+
+    /**
+     * Call a view method. The method is looked up like Class.getMethod does for the argument types.
+     *
+     * @param viewClassName The class name of the view
+     * @param method The name of the method
+     * @param argumentClasses The argument types
+     * @param arguments The arguments, or null if there are none
+     * @return The return value of the view method
+     * @throws Throwable Any exception thrown by the lookup or by the view method itself
+     */
+    public static Object invoke(String viewClassName, String method, Class[] argumentClasses,
+                                Object[] arguments) throws Throwable {
+        String key = getKey(viewClassName, method, argumentClasses);
+        MethodHandle viewMethod = viewMethods.get(key);
+
+        if (viewMethod == null) {
+            viewMethod = resolve(getViewClass(viewClassName).getMethod(method, argumentClasses));
+            viewMethods.put(key, viewMethod);
+        }
+
+        return ((Object)viewMethod.invokeExact(arguments != null ? arguments : NO_ARGUMENTS));
+    }
+
+    private static boolean preload(String viewClassName) {
+        try {
+            Method[] methods = getViewClass(viewClassName).getMethods();
+
+            for (int i = 0; i < methods.length; i++) {
+                if (Modifier.isStatic(methods[i].getModifiers())) {
+                    viewMethods.put(getKey(viewClassName, methods[i].getName(), methods[i].getParameterTypes()),
+                                    resolve(methods[i]));
+                }
+            }
+
+            return (true);
+        } catch (Exception e) {
+            log.fatal("Cannot load the view " + viewClassName + ": " + e.toString());
+            return (false);
+        }
+    }
+
+    /**
+     * Turn a static method into a handle of the type (Object[])Object
+     */
+    private static MethodHandle resolve(Method method) throws IllegalAccessException {
+        MethodHandle methodHandle = MethodHandles.publicLookup().unreflect(method);
+
+        return (methodHandle.asType(methodHandle.type().generic()).asSpreader(Object[].class,
+                                                                               method.getParameterTypes().length));
+    }
+
+    private static String getKey(String viewClassName, String method, Class[] argumentClasses) {
+        StringBuilder key = new StringBuilder(viewClassName.length() + method.length() + 32);
+
+        key.append(viewClassName);
+        key.append('#');
+        key.append(method);
+        if (argumentClasses != null) {
+            for (int i = 0; i < argumentClasses.length; i++) {
+                key.append(',');
+                key.append(argumentClasses[i].getName());
+            }
+        }
+
+        return (key.toString());
+    }
+}
@@ -24,13 +24,17 @@
 
 package edu.stanford.ehs.jml.core.controller.adapters;
 
+import edu.stanford.ehs.jml.core.controller.ActionRegistry;
 import edu.stanford.ehs.jml.core.controller.Controller;
 import edu.stanford.ehs.jml.core.controller.ControllerFactory;
 import edu.stanford.ehs.jml.core.model.CoreConstants;
 
 import java.util.Hashtable;
 
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -63,8 +67,31 @@ public class JspAdapter {
         // Submit the request
         Future futureResult = ControllerFactory.submit(controllerThread);
 
-        // Synchronize the result of the call
-        while (!(futureResult.isDone() || futureResult.isCancelled())) {
+        if (futureResult == null) {
+            log.error("The request could not be submitted to the thread pool");
+            return (null);
+        }
+
+        // Synchronize the result of the call by parking the JSP thread until the controller
+        // thread has completed, or until the timeout of the action has passed
+        String actionCommand = (String)jspRequest.get(CoreConstants.GENERAL_ATTR_ACTION);
+        int timeout = ActionRegistry.getTimeout(actionCommand);
+
+        try {
+            if (timeout > 0) {
+                futureResult.get(timeout, TimeUnit.SECONDS);
+            } else {
+                futureResult.get();
+            }
+        } catch (TimeoutException e) {
+            futureResult.cancel(true);
+            log.warn("The action " + actionCommand + " did not complete within " + timeout + " seconds");
+            return (null);
+        } catch (ExecutionException e) {
+            log.debug("An error occured: " + e.getCause());
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while waiting for the controller thread: " + e.toString());
+            Thread.currentThread().interrupt();
         }
 
         // Return the result
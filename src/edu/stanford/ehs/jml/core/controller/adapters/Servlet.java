@@ -24,6 +24,7 @@
 
 package edu.stanford.ehs.jml.core.controller.adapters;
 
+import edu.stanford.ehs.jml.core.controller.ActionRegistry;
 import edu.stanford.ehs.jml.core.controller.Controller;
 import edu.stanford.ehs.jml.core.controller.ControllerFactory;
 import edu.stanford.ehs.jml.core.controller.ControllerThread;
@@ -37,8 +38,10 @@ import java.io.PrintWriter;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.concurrent.Callable;
-
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -104,20 +107,53 @@ public class Servlet extends HttpServlet {
             controllerThread.setRequest(controllerParameters);
             controllerThread.setStreamingResponse(httpResponse);
 
-            Future futureResult = ControllerFactory.submit((Callable<Controller>)controllerThread);
-
+            // Set the content type before the task is submitted so the response is fully
+            // configured before the controller thread gets a chance to touch it
             String viewContentType = ControllerThread.getContentType(viewName);
             httpResponse.setContentType(viewContentType);
 
+            Future futureResult = ControllerFactory.submit((Callable<Controller>)controllerThread);
+
+            if (futureResult == null) {
+                // The thread pool and its queue are full; tell the client to back off
+                log.error("The request could not be submitted to the thread pool");
+                httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                httpResponse.setHeader("Retry-After", "1");
+                PrintWriter outPrintWriter = httpResponse.getWriter();
+                outPrintWriter.print(ControllerThread.getErrorMessage(viewName, "The server is busy, please try again"));
+                outPrintWriter.close();
+                return;
+            }
+
             PrintWriter outPrintWriter = httpResponse.getWriter();
 
-            // Synchronize the result of the call
-            while (!(futureResult.isDone() || futureResult.isCancelled())) {
+            // Synchronize the result of the call. The container thread is parked until the
+            // controller thread has completed instead of polling the future, or until the
+            // timeout of the action has passed
+            String actionCommand = (String)controllerParameters.get(CoreConstants.GENERAL_ATTR_ACTION);
+            int timeout = ActionRegistry.getTimeout(actionCommand);
+
+            if (timeout > 0) {
+                try {
+                    futureResult.get(timeout, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    futureResult.cancel(true);
+                    log.warn("The action " + actionCommand + " did not complete within " + timeout + " seconds");
+                    httpResponse.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+                    return;
+                }
+            } else {
+                futureResult.get();
             }
 
             outPrintWriter.print(controllerThread.getStringResponse());
 
             outPrintWriter.close();
+        } catch (ExecutionException e) {
+            log.debug("An error occured: " + e.getCause());
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while waiting for the controller thread: " + e.toString());
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             log.debug("An error occured: " + e.toString());
         }
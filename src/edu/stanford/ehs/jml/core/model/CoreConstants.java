@@ -41,12 +41,17 @@ public class CoreConstants {
     public static final String GENERAL_ATTR_SESSION_ID = "jsessid";
     public static final String GENERAL_ATTR_DEBUG = "debug";
     public static final String GENERAL_ATTR_HTTPREQUEST = "httprequest";
+    public static final String GENERAL_ATTR_HTTPRESPONSE = "httpresponse";
     public static final String GENERAL_ATTR_VIEW = "view";
     public static final String GENERAL_ATTR_CSRF_TOKEN = "token";
+    public static final String GENERAL_ATTR_REQUEST_CONTEXT = "requestcontext";
 
     //  Commands
     public static final String ADMIN_CMND_LOGOUTUSER = "logoutUser";
     public static final String ADMIN_CMND_GET_ACTIVE_USERS = "getActiveUsers";
+    public static final String ADMIN_CMND_GET_STATISTICS = "getStatistics";
+    public static final String ADMIN_CMND_INVALIDATE_PROCEDURE_CACHE = "invalidateProcedureCache";
+    public static final String DATABASE_CMND_BATCH = "doBatch";
     public static final String DATABASE_CMND_STOREDPROCEDURE = "doStoredProcedure";
     public static final String DATABASE_CMND_USERSTOREDPROCEDURE = "doUserStoredProcedure";
     public static final String EMAIL_CMND_EMAIL_EMAIL = "email";
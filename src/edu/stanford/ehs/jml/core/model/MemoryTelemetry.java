@@ -0,0 +1,253 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.stanford.ehs.jml.core.model;
+
+import edu.stanford.ehs.jml.util.KeyedValue;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Opt-in heap pressure telemetry. When enabled (init parameter memory-telemetry
+ * of the Server servlet) the bytes allocated by the request thread and the
+ * garbage collections that ran while an action was processed are measured
+ * through the platform MXBeans and accumulated for the getStatistics action.
+ * When disabled, begin() returns null and nothing is measured.
+ */
+public class MemoryTelemetry {
+    protected static Logger log = LogManager.getLogger(MemoryTelemetry.class.getName());
+
+    private static volatile boolean enabled = false;
+    private static com.sun.management.ThreadMXBean threadMXBean = null;
+
+    private static AtomicLong actionCount = new AtomicLong();
+    private static AtomicLong allocatedBytesTotal = new AtomicLong();
+    private static AtomicLong allocatedBytesMax = new AtomicLong();
+    private static AtomicLong gcCountTotal = new AtomicLong();
+    private static AtomicLong gcTimeTotal = new AtomicLong();
+
+    /**
+     * Enable or disable the telemetry. Allocation figures are only available
+     * on JVMs exposing com.sun.management.ThreadMXBean; on other JVMs only the
+     * garbage collector figures are collected.
+     *
+     * @param enable true to enable the telemetry
+     */
+    public static synchronized void initialize(boolean enable) {
+        threadMXBean = null;
+
+        if (enable) {
+            try {
+                java.lang.management.ThreadMXBean platformBean = ManagementFactory.getThreadMXBean();
+
+                if (platformBean instanceof com.sun.management.ThreadMXBean) {
+                    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)platformBean;
+
+                    if (sunBean.isThreadAllocatedMemorySupported()) {
+                        sunBean.setThreadAllocatedMemoryEnabled(true);
+                        threadMXBean = sunBean;
+                    }
+                }
+            } catch (Throwable t) {
+                log.warn("Thread allocation counters are not available: " + t.toString());
+            }
+
+            if (threadMXBean == null) {
+                log.warn("Memory telemetry will only report garbage collector figures");
+            }
+        }
+
+        enabled = enable;
+        log.info("Memory telemetry is " + (enable ? "enabled" : "disabled"));
+    }
+
+    /**
+     * @return true if the telemetry is enabled
+     */
+    public static boolean isEnabled() {
+        return (enabled);
+    }
+
+    /**
+     * Take a sample at the start of an action.
+     *
+     * @return The sample, or null when the telemetry is disabled
+     */
+    public static Sample begin() {
+        if (!enabled) {
+            return (null);
+        }
+
+        Sample sample = new Sample();
+        sample.threadId = Thread.currentThread().getId();
+        sample.allocatedBytes = getAllocatedBytes(sample.threadId);
+        sample.gcCount = getGcCount();
+        sample.gcTime = getGcTime();
+
+        return (sample);
+    }
+
+    /**
+     * Close a sample taken by begin() on the same thread, accumulate the figures
+     * and log them at debug level.
+     *
+     * @param sample The sample returned by begin(), ignored when null
+     * @param actionCommand The action that was processed
+     */
+    public static void end(Sample sample, String actionCommand) {
+        if (sample == null) {
+            return;
+        }
+
+        long allocated = -1;
+        if (sample.allocatedBytes >= 0) {
+            allocated = getAllocatedBytes(sample.threadId) - sample.allocatedBytes;
+        }
+        long gcCount = getGcCount() - sample.gcCount;
+        long gcTime = getGcTime() - sample.gcTime;
+
+        actionCount.incrementAndGet();
+        gcCountTotal.addAndGet(gcCount);
+        gcTimeTotal.addAndGet(gcTime);
+
+        if (allocated >= 0) {
+            allocatedBytesTotal.addAndGet(allocated);
+
+            long max = allocatedBytesMax.get();
+            while (allocated > max && !allocatedBytesMax.compareAndSet(max, allocated)) {
+                max = allocatedBytesMax.get();
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            if (allocated >= 0) {
+                log.debug("Mem allocated by " + actionCommand + ": " + (allocated / 1024) + " kb");
+            }
+            log.debug("GC during " + actionCommand + ": " + gcCount + " collection(s), " + gcTime + " ms");
+        }
+    }
+
+    /**
+     * Get the accumulated telemetry figures together with the current heap usage.
+     *
+     * @return Hashtable of KeyedValue objects
+     */
+    public static Hashtable<String, KeyedValue> getStatistics() {
+        Hashtable<String, KeyedValue> statistics = new Hashtable<String, KeyedValue>();
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long actions = actionCount.get();
+
+        statistics.put("memory-telemetry",
+                       new KeyedValue("memory-telemetry", "Memory telemetry enabled", String.valueOf(enabled)));
+        statistics.put("heap-used-kb",
+                       new KeyedValue("heap-used-kb", "Heap used (kb)", String.valueOf(heap.getUsed() / 1024)));
+        statistics.put("heap-committed-kb",
+                       new KeyedValue("heap-committed-kb", "Heap committed (kb)",
+                                      String.valueOf(heap.getCommitted() / 1024)));
+        statistics.put("heap-max-kb",
+                       new KeyedValue("heap-max-kb", "Heap max (kb)", String.valueOf(heap.getMax() / 1024)));
+        statistics.put("gc-count", new KeyedValue("gc-count", "GC collections since start", String.valueOf(getGcCount())));
+        statistics.put("gc-time-ms", new KeyedValue("gc-time-ms", "GC time since start (ms)", String.valueOf(getGcTime())));
+        statistics.put("telemetry-actions",
+                       new KeyedValue("telemetry-actions", "Actions measured", String.valueOf(actions)));
+        statistics.put("telemetry-gc-count",
+                       new KeyedValue("telemetry-gc-count", "GC collections during measured actions",
+                                      String.valueOf(gcCountTotal.get())));
+        statistics.put("telemetry-gc-time-ms",
+                       new KeyedValue("telemetry-gc-time-ms", "GC time during measured actions (ms)",
+                                      String.valueOf(gcTimeTotal.get())));
+
+        if (threadMXBean != null) {
+            statistics.put("allocated-kb-total",
+                           new KeyedValue("allocated-kb-total", "Allocated by measured actions (kb)",
+                                          String.valueOf(allocatedBytesTotal.get() / 1024)));
+            statistics.put("allocated-kb-max",
+                           new KeyedValue("allocated-kb-max", "Largest allocation by one action (kb)",
+                                          String.valueOf(allocatedBytesMax.get() / 1024)));
+            statistics.put("allocated-kb-avg",
+                           new KeyedValue("allocated-kb-avg", "Average allocation per action (kb)",
+                                          String.valueOf(actions == 0 ? 0 : allocatedBytesTotal.get() / actions / 1024)));
+        }
+
+        return (statistics);
+    }
+
+    private static long getAllocatedBytes(long threadId) {
+        com.sun.management.ThreadMXBean bean = threadMXBean;
+
+        if (bean == null) {
+            return (-1);
+        }
+
+        return (bean.getThreadAllocatedBytes(threadId));
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+
+        for (int i = 0; i < gcBeans.size(); i++) {
+            long beanCount = gcBeans.get(i).getCollectionCount();
+            if (beanCount > 0) {
+                count += beanCount;
+            }
+        }
+
+        return (count);
+    }
+
+    private static long getGcTime() {
+        long time = 0;
+        List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+
+        for (int i = 0; i < gcBeans.size(); i++) {
+            long beanTime = gcBeans.get(i).getCollectionTime();
+            if (beanTime > 0) {
+                time += beanTime;
+            }
+        }
+
+        return (time);
+    }
+
+    /**
+     * Counter values taken at the start of an action
+     */
+    public static class Sample {
+        long threadId;
+        long allocatedBytes;
+        long gcCount;
+        long gcTime;
+    }
+}
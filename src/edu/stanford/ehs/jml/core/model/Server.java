@@ -24,8 +24,17 @@
 
 package edu.stanford.ehs.jml.core.model;
 
+import edu.stanford.ehs.jml.core.controller.ActionRegistry;
 import edu.stanford.ehs.jml.core.controller.Controller;
 import edu.stanford.ehs.jml.core.controller.ControllerFactory;
+import edu.stanford.ehs.jml.core.controller.ViewRegistry;
+import edu.stanford.ehs.jml.database.model.AdaptiveLimiter;
+import edu.stanford.ehs.jml.database.model.Bulkhead;
+import edu.stanford.ehs.jml.database.model.ConnectionPool;
+import edu.stanford.ehs.jml.database.model.Constants;
+import edu.stanford.ehs.jml.database.model.ProcedureSignatureCache;
+import edu.stanford.ehs.jml.database.model.QueryOptions;
+import edu.stanford.ehs.jml.database.model.ResultCache;
 import edu.stanford.ehs.jml.messaging.email.model.SMTPSettings;
 import edu.stanford.ehs.jml.security.model.Account;
 import edu.stanford.ehs.jml.security.model.SecurityManager;
@@ -76,6 +85,22 @@ import java.util.TimerTask;
  *    <param-name>min-thread-pool</param-name>
  *    <param-value>5</param-value>
  *  </init-param>
+ *  <init-param>
+ *    <param-name>max-thread-pool</param-name>
+ *    <param-value>20</param-value>
+ *  </init-param>
+ *  <init-param>
+ *    <param-name>thread-pool-queue-size</param-name>
+ *    <param-value>100</param-value>
+ *  </init-param>
+ *  <init-param>
+ *    <param-name>virtual-threads</param-name>
+ *    <param-value>false</param-value>
+ *  </init-param>
+ *  <init-param>
+ *    <param-name>memory-telemetry</param-name>
+ *    <param-value>false</param-value>
+ *  </init-param>
  *  <load-on-startup>2</load-on-startup>
  * </servlet>
  * </pre>
@@ -122,9 +147,23 @@ public class Server extends HttpServlet {
             System.exit(1);
         }
         
+        // Per-action allocation and GC telemetry is opt-in
+        MemoryTelemetry.initialize("true".equalsIgnoreCase(getInitParameter("memory-telemetry")));
+
+        // Load the views and resolve their methods once, so a broken deployment is found right away
+        if (!ViewRegistry.initialize()) {
+            log.fatal("Unable to load all views");
+            log.fatal("**** HALTING JML SERVER ****");
+            System.exit(1);
+        }
+
         if (!ControllerFactory.isInitialized()) {
             // Setting up the thread pool
-            ControllerFactory.initialize();
+            ControllerFactory.initialize(getIntegerParameter("min-thread-pool", ControllerFactory.DEFAULT_MIN_THREADS),
+                                         getIntegerParameter("max-thread-pool", ControllerFactory.DEFAULT_MAX_THREADS),
+                                         getIntegerParameter("thread-pool-queue-size",
+                                                             ControllerFactory.DEFAULT_QUEUE_SIZE),
+                                         "true".equalsIgnoreCase(getInitParameter("virtual-threads")));
         }
         
         if (!SecurityManager.isInitialized()) {
@@ -135,6 +174,12 @@ public class Server extends HttpServlet {
             SecurityManager.reInitialize();
         }
 
+        // Register the action handlers of the configuration file
+        ActionRegistry.loadActionHandlers(prefix + configFilename);
+
+        // Read the stored procedures whose results are cached
+        ResultCache.loadSettings(prefix + configFilename);
+
         // Check for correct security manager initialization
         if (SecurityManager.getLocalIPAddress() == null) {
             log.fatal("Unable to retrieve a local IP address");
@@ -220,6 +265,7 @@ public class Server extends HttpServlet {
                         oracleDataSource.setNetworkProtocol(XMLUtil.getTagValue(firstConnectionElement,
                                                                                 "network-protocol"));
                         oracleDataSource.setDescription(name);
+                        oracleDataSource.setLoginTimeout(Constants.DATABASE_LOGIN_TIMEOUT);
 
                         Properties connectionCacheProperties = new Properties();
 
@@ -254,7 +300,7 @@ public class Server extends HttpServlet {
                                                                   XMLUtil.getTagValue(firstConnectionElement,
                                                                                       "max-statements-limit"));
                             log.debug(id + ": Setting MaxStatementsLimit to " +
-                                      XMLUtil.getTagValue(firstConnectionElement, "imax-statements-limit"));
+                                      XMLUtil.getTagValue(firstConnectionElement, "max-statements-limit"));
                         } catch (Exception e) {
                             connectionCacheProperties.setProperty("MaxStatementsLimit", "0");
                             log.debug(id + ": Setting MaxStatementsLimit to 0 (default)");
@@ -301,10 +347,10 @@ public class Server extends HttpServlet {
                             connectionCacheProperties.setProperty("AbandonedConnectionTimeout",
                                                                   XMLUtil.getTagValue(firstConnectionElement,
                                                                                       "abandoned-connection-timeout"));
-                            log.debug(id + ": Setting InitialLimit to " +
+                            log.debug(id + ": Setting AbandonedConnectionTimeout to " +
                                       XMLUtil.getTagValue(firstConnectionElement, "abandoned-connection-timeout"));
                         } catch (Exception e) {
-                            connectionCacheProperties.setProperty("AbandonedConnetionTimeout", "0");
+                            connectionCacheProperties.setProperty("AbandonedConnectionTimeout", "0");
                             log.debug(id + ": Setting AbandonedConnectionTimeout to 0 (default)");
                         }
 
@@ -343,12 +389,86 @@ public class Server extends HttpServlet {
                             connectionCacheProperties.setProperty("ValidateConnection", "false");
                             log.debug(id + ": Setting ValidateConnection to false (default)");
                         }
+
+                        // --------- ConnectionWaitTimeout ---------
+                        try {
+                            connectionCacheProperties.setProperty("ConnectionWaitTimeout",
+                                                                  XMLUtil.getTagValue(firstConnectionElement,
+                                                                                      "connection-wait-timeout"));
+                            log.debug(id + ": Setting ConnectionWaitTimeout to " +
+                                      XMLUtil.getTagValue(firstConnectionElement, "connection-wait-timeout"));
+                        } catch (Exception e) {
+                            connectionCacheProperties.setProperty("ConnectionWaitTimeout", "30");
+                            log.debug(id + ": Setting ConnectionWaitTimeout to 30 (default)");
+                        }
                         
                         log.debug("Adding connection properties to dbpool");
                         oracleDataSource.setConnectionProperties(connectionCacheProperties);
 
                         log.debug(id + ": Storing account in the static storage");
                         account.setConnectionPoolDataSource(oracleDataSource);
+                        account.setConnectionPool(new ConnectionPool(id, oracleDataSource, connectionCacheProperties));
+
+                        // --------- Stored procedure signature cache ---------
+                        long procedureCacheTTL = 3600;
+                        int procedureCacheSize = 500;
+                        try {
+                            procedureCacheTTL =
+                                    Long.parseLong(XMLUtil.getTagValue(firstConnectionElement, "procedure-cache-ttl").trim());
+                            log.debug(id + ": Setting procedure-cache-ttl to " + procedureCacheTTL);
+                        } catch (Exception e) {
+                            log.debug(id + ": Setting procedure-cache-ttl to " + procedureCacheTTL + " (default)");
+                        }
+                        try {
+                            procedureCacheSize =
+                                    Integer.parseInt(XMLUtil.getTagValue(firstConnectionElement, "procedure-cache-size").trim());
+                            log.debug(id + ": Setting procedure-cache-size to " + procedureCacheSize);
+                        } catch (Exception e) {
+                            log.debug(id + ": Setting procedure-cache-size to " + procedureCacheSize + " (default)");
+                        }
+                        account.setProcedureCache(new ProcedureSignatureCache(id, procedureCacheTTL, procedureCacheSize));
+
+                        // --------- Bulkhead ---------
+                        int maxConcurrentRequests =
+                            getIntegerTag(firstConnectionElement, "max-concurrent-requests", 0, id);
+                        int maxQueuedRequests = getIntegerTag(firstConnectionElement, "max-queued-requests", 0, id);
+                        int maxThreads = ControllerFactory.getMaxThreads();
+
+                        // Queued requests wait on a controller thread; keep one thread for the other accounts
+                        if (maxConcurrentRequests > 0 && maxConcurrentRequests + maxQueuedRequests >= maxThreads) {
+                            int queuedRequests = Math.max(maxThreads - 1 - maxConcurrentRequests, 0);
+
+                            log.warn(id + ": max-concurrent-requests (" + maxConcurrentRequests +
+                                     ") plus max-queued-requests (" + maxQueuedRequests + ") must stay below the " +
+                                     maxThreads + " controller threads, queuing at most " + queuedRequests +
+                                     " requests");
+                            maxQueuedRequests = queuedRequests;
+                        }
+
+                        Bulkhead bulkhead =
+                            new Bulkhead(id, maxConcurrentRequests, maxQueuedRequests,
+                                         getIntegerTag(firstConnectionElement, "request-queue-timeout", 10, id));
+
+                        // --------- Adaptive limit (off unless a latency threshold is set) ---------
+                        int adaptiveLimitLatency = getIntegerTag(firstConnectionElement, "adaptive-limit-latency", 0, id);
+                        if (adaptiveLimitLatency > 0) {
+                            bulkhead.setLimiter(new AdaptiveLimiter(id,
+                                                                    getIntegerTag(firstConnectionElement,
+                                                                                  "adaptive-limit-initial", 10, id),
+                                                                    getIntegerTag(firstConnectionElement,
+                                                                                  "adaptive-limit-min", 1, id),
+                                                                    getIntegerTag(firstConnectionElement,
+                                                                                  "adaptive-limit-max", 100, id),
+                                                                    adaptiveLimitLatency));
+                        }
+                        account.setBulkhead(bulkhead);
+
+                        // --------- Fetch settings (driver defaults unless set) ---------
+                        account.setQueryOptions(new QueryOptions(getIntegerTag(firstConnectionElement, "fetch-size",
+                                                                               QueryOptions.NOT_SET, id),
+                                                                 getIntegerTag(firstConnectionElement,
+                                                                               "lob-prefetch-size",
+                                                                               QueryOptions.NOT_SET, id)));
 
                         // Get the security settings
                         NodeList securityNodeList = firstAccountElement.getElementsByTagName("security");
@@ -473,6 +593,14 @@ public class Server extends HttpServlet {
                             log.debug(id + ": DBMS output will NOT be logged; the account is not active");
                         }
 
+                        // Check if the JSON view should write the values with their type; values are text by default
+                        try {
+                            account.setTypedJSON("true".equals(XMLUtil.getTagValue(firstAccountElement, "typed-json")));
+                        } catch (Exception e) {
+                            log.debug("Was not able to retrieve typed-json value for account " + id);
+                            account.setTypedJSON(false);
+                        }
+
                         // Register the account with the access manager
                         log.debug(id + ": Register account with the JML security manager");
                         SecurityManager.registerAccount(account);
@@ -500,6 +628,7 @@ public class Server extends HttpServlet {
 
     public void destroy() {
         ControllerFactory.destroy();
+        SecurityManager.closeConnectionPools();
     }
 
     /**
@@ -510,7 +639,51 @@ public class Server extends HttpServlet {
     public synchronized static String generateThreadId() {
         return (Integer.toHexString(threadCounter++));
     }
+
+    /**
+     * Read a numeric init parameter of the servlet.
+     *
+     * @param name The name of the init parameter
+     * @param defaultValue The value used when the parameter is missing or not a number
+     * @return The value of the parameter
+     */
+    private int getIntegerParameter(String name, int defaultValue) {
+        String value = getInitParameter(name);
+
+        if (value == null) {
+            return (defaultValue);
+        }
+
+        try {
+            return (new Integer(value.trim()).intValue());
+        } catch (Exception e) {
+            log.error("Could not set " + name + ". The value in web.xml is " + value + ". Setting the default: " +
+                      defaultValue);
+        }
+
+        return (defaultValue);
+    }
     
+    /**
+     * Read a numeric tag of the accounts file.
+     *
+     * @param element The parent element
+     * @param tagName The name of the tag
+     * @param defaultValue The value used when the tag is missing or not a number
+     * @param id The account, for the log
+     * @return The value of the tag
+     */
+    private int getIntegerTag(Element element, String tagName, int defaultValue, String id) {
+        try {
+            int value = Integer.parseInt(XMLUtil.getTagValue(element, tagName).trim());
+            log.debug(id + ": Setting " + tagName + " to " + value);
+            return (value);
+        } catch (Exception e) {
+            log.debug(id + ": Setting " + tagName + " to " + defaultValue + " (default)");
+        }
+        return (defaultValue);
+    }
+
     /**
      * Initialize the timer that will check the accounts file for changes
      */
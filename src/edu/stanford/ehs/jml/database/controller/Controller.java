@@ -24,18 +24,50 @@
 
 package edu.stanford.ehs.jml.database.controller;
 
+import edu.stanford.ehs.jml.core.controller.ActionDefinition;
+import edu.stanford.ehs.jml.core.controller.ActionRegistry;
 import edu.stanford.ehs.jml.core.controller.ControllerTemplate;
 import edu.stanford.ehs.jml.core.model.CoreConstants;
+import edu.stanford.ehs.jml.database.model.Batch;
+import edu.stanford.ehs.jml.database.model.Bulkhead;
 import edu.stanford.ehs.jml.database.model.Constants;
+import edu.stanford.ehs.jml.database.model.QueryResult;
+import edu.stanford.ehs.jml.database.model.QueryResultCollector;
+import edu.stanford.ehs.jml.database.model.QueryResultHandler;
+import edu.stanford.ehs.jml.database.model.ResultCache;
+import edu.stanford.ehs.jml.database.model.SingleFlight;
+import edu.stanford.ehs.jml.database.model.oracle.ConnectionManager;
 import edu.stanford.ehs.jml.database.model.oracle.Query;
+import edu.stanford.ehs.jml.security.model.Account;
 import edu.stanford.ehs.jml.security.model.AuthResponse;
+import edu.stanford.ehs.jml.security.model.RequestContext;
 import edu.stanford.ehs.jml.security.model.SecurityManager;
 
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+
+import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
 
 /**
  * Model controller for the database module
@@ -44,6 +76,11 @@ public class Controller extends ControllerTemplate {
     protected static Logger log = LogManager.getLogger(Controller.class.getName());
     protected static String VIEW_PACKAGE = "edu.stanford.ehs.jml.database.view.";
     private static int INITIAL_PARAMETER_SIZE = 20;
+    private static ExecutorService batchExecutor = null;
+
+    // ORA-01013 (the call was cancelled by the query timeout) and ORA-17002 (I/O error of the driver)
+    private static final int ORACLE_CANCELLED = 1013;
+    private static final int ORACLE_IO_ERROR = 17002;
 
     /**
      * Execute a stored procedure, send the result to the specied view and return the formatted result
@@ -58,6 +95,45 @@ public class Controller extends ControllerTemplate {
      * @see edu.stanford.ehs.jml.database.model.oracle.Query#doStoredProcedure
      */
     public static String doStoredProcedure(String viewName, Hashtable parameters, String accountId, String sessionId) {
+        return (callStoredProcedure(CoreConstants.DATABASE_CMND_STOREDPROCEDURE, viewName, parameters, accountId,
+                                    sessionId, null));
+    }
+
+    /**
+     * Execute a stored procedure, send the result to the specied view and return the formatted result
+     *
+     * @param viewName The view that should format the result from the stored procedure
+     * @param parameters The hashtable containing the name of the stored procedure and its parameters
+     * @param accountId The account that is performing the stored procedure
+     * @param sessionId The session id that is requesting the stored procedure
+     *
+     * @return Formatted query result
+     *
+     * @see edu.stanford.ehs.jml.database.model.oracle.Query#doUserStoredProcedure
+     */
+    public static String doUserStoredProcedure(String viewName, Hashtable parameters, String accountId,
+                                               String sessionId) {
+        return (callStoredProcedure(CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE, viewName, parameters, accountId,
+                                    sessionId, null));
+    }
+
+    /**
+     * Run doStoredProcedure or doUserStoredProcedure: check the authorization (and for
+     * doUserStoredProcedure the whitelist), serve the result from the result cache if possible, enter
+     * the bulkhead of the account, call the model and format the result with the view method of the
+     * same name as the action. Streamed results are written through the view method ending in "Stream".
+     *
+     * @param action doStoredProcedure or doUserStoredProcedure
+     * @param viewName The view that should format the result from the stored procedure
+     * @param parameters The hashtable containing the name of the stored procedure and its parameters
+     * @param accountId The account that is performing the stored procedure
+     * @param sessionId The session id that is requesting the stored procedure
+     * @param batchSlot The bulkhead slot of the sequential batch running the call, or null if the call
+     *                  enters the bulkhead itself
+     * @return Formatted query result
+     */
+    private static String callStoredProcedure(String action, String viewName, Hashtable parameters, String accountId,
+                                              String sessionId, BatchSlot batchSlot) {
 
         // -----------------------------------------------
         // Extract parameters
@@ -66,106 +142,162 @@ public class Controller extends ControllerTemplate {
         String storedProcedureName = (String)parameters.get(Constants.DATABASE_ATTR_STORED_PROCEDURE_NAME);
 
         // Copy parameters and names for stored procedures and functions
-        Vector<String> procParameters = new Vector<String>(INITIAL_PARAMETER_SIZE);
+        Vector<String> procParameters = getProcedureParameters(parameters);
 
-        // Do a qualified guess on the number of parameters passed to the stored
-        // procedure; In Query.java we will find the exact number of parameters
-        int numberOfParameters = 0;
-        for (int i = Constants.DATABASE_STTN_MAX_PARAMS - 1; i >= 0; i--) {
-            if ((parameters.get(Constants.DATABASE_ATTR_PROC_PARAM + i) != null) ||
-                (parameters.get(Constants.DATABASE_ATTR_RESULTNAME + i) != null)) {
-                numberOfParameters = i;
-                break;
-            }
+        // -----------------------------------------------
+        // Security
+        // -----------------------------------------------
+        if (!SecurityManager.isAuthorized(parameters, accountId, sessionId, action)) {
+            return (sendErrorToView(VIEW_PACKAGE + viewName, "Authorized login required for accessing the " + action +
+                                    " function", log));
+        }
+        if (CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE.equals(action) &&
+            !SecurityManager.isStoredProcedureWhitelisted(storedProcedureName)) { // Is the stored procedure whitelisted?
+            log.info("User tried to access `" + storedProcedureName + "` which is not in the whitelist");
+            return (null);
         }
-        log.debug(numberOfParameters + " parameters found");
 
-        // Retrieve the parameter values
-        for (int i = 1; i <= numberOfParameters; i++) {
-            String procParameterValue = (String)parameters.get(Constants.DATABASE_ATTR_PROC_PARAM + i);
-            log.debug("procParameterValue(" + i + "): " + procParameterValue);
-            procParameters.add(procParameterValue);
+        AuthResponse authResponse = SecurityManager.touch(sessionId, accountId);
+
+        if (!authResponse.isSuccess()) {
+            return (sendErrorToView(VIEW_PACKAGE + viewName, "Error in accessing the " + action + " function: " +
+                                    authResponse.getMessage(), log));
         }
-        String viewOutput = null;
+
+        String userId = getUserId(parameters, sessionId);
 
         // -----------------------------------------------
-        // Security
+        // Result cache
         // -----------------------------------------------
-        if (!SecurityManager.isAuthorized(parameters, accountId, sessionId,
-                                          CoreConstants.DATABASE_CMND_STOREDPROCEDURE)) {
-            viewOutput =
-                    sendErrorToView(VIEW_PACKAGE + viewName, "Authorized login required for accessing the " + CoreConstants.DATABASE_CMND_STOREDPROCEDURE +
-                                    " function", log);
-        } else {
-            AuthResponse authResponse = SecurityManager.touch(sessionId, accountId);
+        String cacheKey = null;
 
-            if (!authResponse.isSuccess()) {
-                viewOutput =
-                        sendErrorToView(VIEW_PACKAGE + viewName, "Error in accessing the " + CoreConstants.DATABASE_CMND_STOREDPROCEDURE +
-                                        " function: " + authResponse.getMessage(), log);
-            } else {
+        if (isCacheable(action)) {
+            cacheKey = ResultCache.getKey(accountId, action, storedProcedureName, viewName, userId, procParameters);
+        }
+        if (cacheKey != null) {
+            String cachedOutput = ResultCache.get(cacheKey);
 
-                // -----------------------------------------------
-                // Call the model
-                // -----------------------------------------------
-                long timerStartModel = System.currentTimeMillis();
-                Hashtable queryResult = null;
+            if (cachedOutput != null) {
+                log.info("Result of " + storedProcedureName + " served from the result cache");
+                return (cachedOutput);
+            }
+        }
 
-                try {
-                    queryResult = Query.doStoredProcedure(accountId, storedProcedureName, procParameters);
+        // -----------------------------------------------
+        // Bulkhead
+        // -----------------------------------------------
+        // Coalesced calls enter it in executeStoredProcedure, only for the call that runs the query;
+        // the calls of a sequential batch run in the slot taken by the batch
+        boolean coalesced = isCoalesced(storedProcedureName, parameters);
+        Bulkhead bulkhead = getBulkhead(accountId);
+
+        if (coalesced || batchSlot != null) {
+            bulkhead = null;
+        } else if (bulkhead != null && !bulkhead.acquire()) {
+            return (sendErrorToView(VIEW_PACKAGE + viewName, "Too many concurrent requests for the account " +
+                                    accountId + ", please try again later", log));
+        }
 
-                } catch (Exception e) {
-                    log.error("Error in getting a db connection with the id " + accountId + ": " + e.toString());
-                }
+        QueryResultHandler streamHandler = getStreamHandler(viewName, action + "Stream", parameters);
 
-                long timerEndModel = System.currentTimeMillis();
+        if (streamHandler != null) {
 
-                // -----------------------------------------------
-                // Call the view
-                // -----------------------------------------------
-                long timerStartView = System.currentTimeMillis();
+            // -----------------------------------------------
+            // Call the model and stream the result through the view
+            // -----------------------------------------------
+            long timerStartStream = System.currentTimeMillis();
+            boolean databaseFailure = false;
 
-                if (queryResult.size() > 0) {
-                    viewOutput =
-                            callViewMethod(VIEW_PACKAGE + viewName, "doStoredProcedure", new Object[] { (Object)queryResult },
-                                           log);
-                    queryResult = null; // House cleaning
-                } else {
-                    log.debug("The result set was null and the view was not called.");
+            try {
+                streamHandler.start();
+                callModel(action, accountId, userId, storedProcedureName, procParameters, streamHandler);
+                streamHandler.end();
+            } catch (Exception e) {
+                databaseFailure = isDatabaseFailure(e);
+                log.error("Error in streaming the result of " + storedProcedureName + ": " + e.toString());
+
+                // Complete the output that has already been sent and report the error in it
+                try {
+                    streamHandler.error("The call of " + storedProcedureName + " failed");
+                } catch (Exception streamException) {
+                    log.warn("Was not able to report the error to the client. " + streamException.toString());
                 }
+            } finally {
+                if (bulkhead != null) {
+                    bulkhead.release((System.currentTimeMillis() - timerStartStream) * 1000000L, databaseFailure);
+                }
+            }
+            log.info("Stream time: " + (System.currentTimeMillis() - timerStartStream) + " ms");
 
-                long timerEndView = System.currentTimeMillis();
+            return (""); // The output has already been written to the response
+        }
 
-                log.info("Model time: " + (timerEndModel - timerStartModel) + " ms");
-                log.info("View times: " + (timerEndView - timerStartView) + " ms");
-                log.info("Total: " + ((timerEndModel - timerStartModel + timerEndView) - timerStartView) + " ms");
+        // -----------------------------------------------
+        // Call the model
+        // -----------------------------------------------
+        long timerStartModel = System.currentTimeMillis();
+        QueryResult queryResult = null;
+        String viewOutput = null;
+        boolean failed = false;
+        boolean databaseFailure = false;
+        String failureMessage = "The call of " + storedProcedureName + " failed";
+
+        try {
+            queryResult =
+                    executeStoredProcedure(action, accountId, userId, storedProcedureName, procParameters,
+                                           (coalesced && batchSlot == null ? getBulkhead(accountId) : null));
+        } catch (Exception e) {
+            failed = true;
+            databaseFailure = isDatabaseFailure(e);
+            if (e instanceof RejectedExecutionException) {
+                failureMessage = "Too many concurrent requests for the account " + accountId + ", please try again later";
+            }
+            log.error("Error in calling " + storedProcedureName + " with the id " + accountId + ": " + e.toString());
+        } finally {
+            if (bulkhead != null) {
+                bulkhead.release((System.currentTimeMillis() - timerStartModel) * 1000000L, databaseFailure);
+            }
+            if (batchSlot != null && databaseFailure) {
+                batchSlot.databaseFailure = true;
             }
         }
+
+        long timerEndModel = System.currentTimeMillis();
+
+        // -----------------------------------------------
+        // Call the view
+        // -----------------------------------------------
+        long timerStartView = System.currentTimeMillis();
+
+        if (failed) {
+            viewOutput = sendErrorToView(VIEW_PACKAGE + viewName, failureMessage, log);
+        } else if (queryResult != null && queryResult.size() > 0) {
+            viewOutput = callViewMethod(VIEW_PACKAGE + viewName, action, new Object[] { (Object)queryResult }, log);
+            queryResult = null; // House cleaning
+
+            if (cacheKey != null) {
+                ResultCache.put(cacheKey, storedProcedureName, viewOutput);
+            }
+        } else {
+            log.debug("The result set was null and the view was not called.");
+        }
+
+        long timerEndView = System.currentTimeMillis();
+
+        log.info("Model time: " + (timerEndModel - timerStartModel) + " ms");
+        log.info("View times: " + (timerEndView - timerStartView) + " ms");
+        log.info("Total: " + ((timerEndModel - timerStartModel + timerEndView) - timerStartView) + " ms");
+
         return (viewOutput);
     }
 
     /**
-     * Execute a stored procedure, send the result to the specied view and return the formatted result
-     *
-     * @param viewName The view that should format the result from the stored procedure
-     * @param parameters The hashtable containing the name of the stored procedure and its parameters
-     * @param accountId The account that is performing the stored procedure
-     * @param sessionId The session id that is requesting the stored procedure
+     * Copy the stored procedure parameters param1 to param16 of the request.
      *
-     * @return Formatted query result
-     *
-     * @see edu.stanford.ehs.jml.database.model.oracle.Query#doUserStoredProcedure
+     * @param parameters The hashtable containing the request parameters
+     * @return The parameter values in order; missing parameters below the highest one are null
      */
-    public static String doUserStoredProcedure(String viewName, Hashtable parameters, String accountId,
-                                               String sessionId) {
-
-        // -----------------------------------------------
-        // Extract parameters
-        // -----------------------------------------------
-        // Get the SQL query from the HttpServletRequest
-        String storedProcedureName = (String)parameters.get(Constants.DATABASE_ATTR_STORED_PROCEDURE_NAME);
-
-        // Copy parameters and names for stored procedures and functions
+    private static Vector<String> getProcedureParameters(Hashtable parameters) {
         Vector<String> procParameters = new Vector<String>(INITIAL_PARAMETER_SIZE);
 
         // Do a qualified guess on the number of parameters passed to the stored
@@ -186,67 +318,469 @@ public class Controller extends ControllerTemplate {
             log.debug("procParameterValue(" + i + "): " + procParameterValue);
             procParameters.add(procParameterValue);
         }
+
+        return (procParameters);
+    }
+
+    /**
+     * Call the stored procedure through the model of the action.
+     *
+     * @param action doStoredProcedure or doUserStoredProcedure
+     * @param accountId The account that is performing the stored procedure
+     * @param userId The user passed to doUserStoredProcedure
+     * @param storedProcedureName The name of the stored procedure
+     * @param procParameters The parameters of the stored procedure
+     * @param resultHandler The receiver of the results
+     * @throws Exception If the call failed
+     */
+    private static void callModel(String action, String accountId, String userId, String storedProcedureName,
+                                  Vector<String> procParameters, QueryResultHandler resultHandler) throws Exception {
+        if (CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE.equals(action)) {
+            Query.doUserStoredProcedure(accountId, userId, storedProcedureName, procParameters, resultHandler);
+        } else {
+            Query.doStoredProcedure(accountId, storedProcedureName, procParameters, resultHandler);
+        }
+    }
+
+    /**
+     * Call the model and collect the result. Identical concurrent calls of a procedure marked
+     * single-flight in the whitelist share one execution and its result. For such calls the bulkhead
+     * is entered by the call that runs the query only, so the calls waiting for it do not hold a slot.
+     *
+     * @param action doStoredProcedure or doUserStoredProcedure
+     * @param accountId The account that is performing the stored procedure
+     * @param userId The user passed to doUserStoredProcedure
+     * @param storedProcedureName The name of the stored procedure
+     * @param procParameters The parameters of the stored procedure
+     * @param bulkhead The bulkhead to enter around the query, or null if the caller entered it
+     * @return The query result
+     * @throws RejectedExecutionException If the bulkhead refused the query
+     * @throws Exception
+     */
+    private static QueryResult executeStoredProcedure(final String action, final String accountId, final String userId,
+                                                      final String storedProcedureName,
+                                                      final Vector<String> procParameters,
+                                                      final Bulkhead bulkhead) throws Exception {
+        Callable<QueryResult> query = new Callable<QueryResult>() {
+            public QueryResult call() throws Exception {
+                QueryResultCollector resultCollector = new QueryResultCollector();
+
+                if (bulkhead != null && !bulkhead.acquire()) {
+                    throw new RejectedExecutionException("Too many concurrent requests for the account " + accountId);
+                }
+
+                long timerStartModel = System.currentTimeMillis();
+                boolean databaseFailure = false;
+
+                try {
+                    callModel(action, accountId, userId, storedProcedureName, procParameters, resultCollector);
+                } catch (Exception e) {
+                    databaseFailure = isDatabaseFailure(e);
+                    throw e;
+                } finally {
+                    if (bulkhead != null) {
+                        bulkhead.release((System.currentTimeMillis() - timerStartModel) * 1000000L, databaseFailure);
+                    }
+                }
+
+                return (resultCollector.getResult());
+            }
+        };
+
+        if (storedProcedureName == null || !SecurityManager.isStoredProcedureSingleFlight(storedProcedureName)) {
+            return (query.call());
+        }
+
+        // doUserStoredProcedure calls are kept apart per user unless the whitelist shares them
+        boolean perUser =
+            CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE.equals(action) &&
+            SecurityManager.isStoredProcedureSingleFlightPerUser(storedProcedureName);
+
+        return (SingleFlight.execute(SingleFlight.getKey(accountId, action, storedProcedureName, (perUser ? userId : null),
+                                                         procParameters), query));
+    }
+
+    /**
+     * Check whether a failed call points at an overloaded or unreachable database, so it lowers the
+     * adaptive limit: no connection within the ConnectionWaitTimeout of the pool, a query timeout, or
+     * an error of the driver or the connection. Errors raised by the procedure itself, such as
+     * raise_application_error (ORA-20000 to ORA-20999) for invalid input, and a client that went away
+     * while the result was written do not count.
+     *
+     * @param e The exception of the call
+     * @return True if the call failed because of the database
+     */
+    private static boolean isDatabaseFailure(Exception e) {
+        if (!(e instanceof SQLException)) {
+            return (false);
+        }
+
+        SQLException sqlException = (SQLException)e;
+        String sqlState = sqlException.getSQLState();
+        int errorCode = sqlException.getErrorCode();
+
+        if (errorCode >= 20000 && errorCode <= 20999) {
+            return (false);
+        }
+
+        return (sqlException instanceof SQLTimeoutException || sqlException instanceof SQLTransientConnectionException ||
+                sqlException instanceof SQLNonTransientConnectionException ||
+                sqlException instanceof SQLRecoverableException || (sqlState != null && sqlState.startsWith("08")) ||
+                errorCode == ORACLE_CANCELLED || errorCode == ORACLE_IO_ERROR);
+    }
+
+    /**
+     * Check whether a call is coalesced with identical calls in flight: the procedure is marked
+     * single-flight in the whitelist and the result is not streamed.
+     *
+     * @param storedProcedureName The name of the stored procedure
+     * @param parameters The hashtable containing the request parameters
+     * @return True if the call is coalesced
+     */
+    private static boolean isCoalesced(String storedProcedureName, Hashtable parameters) {
+        return (storedProcedureName != null && SecurityManager.isStoredProcedureSingleFlight(storedProcedureName) &&
+                !"true".equals(parameters.get(Constants.DATABASE_ATTR_STREAM)));
+    }
+
+    /**
+     * Execute the stored procedure calls of a batch and return their formatted results in one view.
+     * Each call is passed through doStoredProcedure or doUserStoredProcedure with its own parameters,
+     * so authorization, the CSRF token, the whitelist, the result cache and the bulkhead are checked
+     * for every call, and a refused or failed call only affects its own entry in the output.
+     * Sequential batches run all calls on one connection in one slot of the bulkhead; parallel batches
+     * run each call on its own connection.
+     *
+     * @param viewName The view that should format the batch result
+     * @param parameters The hashtable containing the batch envelope and the request parameters
+     * @param accountId The account that is performing the stored procedures
+     * @param sessionId The session id that is requesting the stored procedures
+     *
+     * @return Formatted batch result
+     *
+     * @see edu.stanford.ehs.jml.database.model.Batch
+     */
+    public static String doBatch(String viewName, Hashtable parameters, String accountId, String sessionId) {
         String viewOutput = null;
+        Batch batch = null;
 
         // -----------------------------------------------
         // Security
         // -----------------------------------------------
-        if (!SecurityManager.isAuthorized(parameters, accountId, sessionId,
-                                          CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE)) {
+        if (!SecurityManager.isAuthorized(parameters, accountId, sessionId, CoreConstants.DATABASE_CMND_BATCH)) {
             viewOutput =
-                    sendErrorToView(VIEW_PACKAGE + viewName, "Authorized login required for accessing the " + CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE +
+                    sendErrorToView(VIEW_PACKAGE + viewName, "Authorized login required for accessing the " + CoreConstants.DATABASE_CMND_BATCH +
                                     " function", log);
-        } else if (!SecurityManager.isStoredProcedureWhitelisted(storedProcedureName)) { // Is the stored procedure whitelisted?
-            log.info("User tried to access `" + storedProcedureName + "` which is not in the whitelist");
-            return (null);
         } else {
-            AuthResponse authResponse = SecurityManager.touch(sessionId, accountId);
+            try {
+                batch = Batch.parse((String)parameters.get(Constants.DATABASE_ATTR_BATCH));
+            } catch (Exception e) {
+                log.info("The batch could not be read: " + e.toString());
+            }
 
-            if (!authResponse.isSuccess()) {
+            if (batch == null) {
+                viewOutput = sendErrorToView(VIEW_PACKAGE + viewName, "The batch could not be read", log);
+            } else if (batch.size() > Constants.DATABASE_STTN_MAX_BATCH_CALLS) {
                 viewOutput =
-                        sendErrorToView(VIEW_PACKAGE + viewName, "Error in accessing the " + CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE +
-                                        " function: " + authResponse.getMessage(), log);
+                        sendErrorToView(VIEW_PACKAGE + viewName, "A batch may contain at most " + Constants.DATABASE_STTN_MAX_BATCH_CALLS +
+                                        " calls", log);
             } else {
 
                 // -----------------------------------------------
-                // Call the model
+                // Call the stored procedures
                 // -----------------------------------------------
-                long timerStartModel = System.currentTimeMillis();
-                Hashtable queryResult = null;
-
-                try {
-                    queryResult =
-                            Query.doUserStoredProcedure(accountId, edu.stanford.ehs.jml.security.model.SecurityManager.getUserId(sessionId),
-                                                        storedProcedureName, procParameters);
+                long timerStartBatch = System.currentTimeMillis();
+                boolean started = true;
 
-                } catch (Exception e) {
-                    log.error("Error in getting a db connection with the id " + accountId + ": " + e.toString());
+                if (batch.isParallel() && batch.size() > 1) {
+                    doBatchInParallel(viewName, parameters, accountId, sessionId, batch);
+                } else {
+                    started = doBatchInSequence(viewName, parameters, accountId, sessionId, batch);
                 }
 
-                long timerEndModel = System.currentTimeMillis();
-
                 // -----------------------------------------------
                 // Call the view
                 // -----------------------------------------------
-                long timerStartView = System.currentTimeMillis();
-
-                if (queryResult.size() > 0) {
+                if (!started) {
                     viewOutput =
-                            callViewMethod(VIEW_PACKAGE + viewName, "doUserStoredProcedure", new Object[] { (Object)queryResult },
-                                           log);
-                    queryResult = null; // House cleaning
+                            sendErrorToView(VIEW_PACKAGE + viewName, "Too many concurrent requests for the account " +
+                                            accountId + ", please try again later", log);
                 } else {
-                    log.debug("The result set was null and the view was not called.");
+                    viewOutput =
+                            callViewMethod(VIEW_PACKAGE + viewName, "doBatch", new Object[] { (Object)batch }, log);
+
+                    log.info("Batch of " + batch.size() + " call(s): " +
+                             (System.currentTimeMillis() - timerStartBatch) + " ms");
                 }
+            }
+        }
+        return (viewOutput);
+    }
+
+    /**
+     * Run the calls of a batch one after the other on one pinned connection. The batch takes one slot of
+     * the account's bulkhead for all of its calls before the connection is borrowed, so it never holds
+     * the connection while waiting for the bulkhead. A call that breaks the connection discards it and
+     * the next call borrows a new one.
+     *
+     * @return False if the bulkhead refused the batch
+     */
+    private static boolean doBatchInSequence(String viewName, Hashtable parameters, String accountId,
+                                             String sessionId, Batch batch) {
+        Bulkhead bulkhead = getBulkhead(accountId);
+        BatchSlot batchSlot = new BatchSlot();
+
+        if (bulkhead != null && !bulkhead.acquire()) {
+            return (false);
+        }
+
+        long timerStartSequence = System.currentTimeMillis();
 
-                long timerEndView = System.currentTimeMillis();
+        ConnectionManager.pinConnection(log, accountId);
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                doBatchCall(viewName, parameters, accountId, sessionId, batch.getCall(i), batchSlot);
+            }
+        } finally {
+            ConnectionManager.unpinConnection(log);
 
-                log.info("Model time: " + (timerEndModel - timerStartModel) + " ms");
-                log.info("View times: " + (timerEndView - timerStartView) + " ms");
-                log.info("Total: " + ((timerEndModel - timerStartModel + timerEndView) - timerStartView) + " ms");
+            // The adaptive limit is fed with the mean time of a call of the batch
+            if (bulkhead != null) {
+                bulkhead.release((System.currentTimeMillis() - timerStartSequence) * 1000000L /
+                                 Math.max(batch.size(), 1), batchSlot.databaseFailure);
             }
         }
-        return (viewOutput);
+
+        return (true);
+    }
+
+    /**
+     * Run the calls of a batch on the batch executor and wait for all of them. At most
+     * getBatchParallelism() calls of the batch run at the same time; each worker takes the next call
+     * that has not been started.
+     */
+    private static void doBatchInParallel(final String viewName, final Hashtable parameters, final String accountId,
+                                          final String sessionId, final Batch batch) {
+        final AtomicInteger nextCall = new AtomicInteger();
+        int numberOfWorkers = Math.min(batch.size(), getBatchParallelism(accountId));
+        Vector<Future<?>> workers = new Vector<Future<?>>(numberOfWorkers);
+
+        for (int i = 0; i < numberOfWorkers; i++) {
+            workers.add(getBatchExecutor().submit(new Runnable() {
+                public void run() {
+                    ThreadContext.put("sessionId", sessionId);
+                    try {
+                        int index;
+                        while ((index = nextCall.getAndIncrement()) < batch.size()) {
+                            doBatchCall(viewName, parameters, accountId, sessionId, batch.getCall(index), null);
+                        }
+                    } finally {
+                        ThreadContext.remove("sessionId");
+                    }
+                }
+            }));
+        }
+
+        for (int i = 0; i < workers.size(); i++) {
+            try {
+                workers.get(i).get();
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for the batch: " + e.toString());
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.error("Error in running the batch: " + e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Get the number of calls of a parallel batch that may run at the same time: at most
+     * DATABASE_STTN_MAX_BATCH_PARALLELISM, and no more than the connections of the account's pool.
+     *
+     * @param accountId The account that is performing the batch
+     * @return The number of calls
+     */
+    private static int getBatchParallelism(String accountId) {
+        Account account = (accountId == null ? null : SecurityManager.getAccount(accountId));
+        int parallelism = Constants.DATABASE_STTN_MAX_BATCH_PARALLELISM;
+
+        if (account != null && account.getConnectionPool() != null) {
+            parallelism = Math.min(parallelism, account.getConnectionPool().getMaxLimit());
+        }
+
+        return (Math.max(parallelism, 1));
+    }
+
+    /**
+     * Run one call of a batch and keep its formatted output in the call. Only the stored procedure
+     * actions can be batched. The calls of a sequential batch pass the bulkhead slot of the batch.
+     */
+    private static void doBatchCall(String viewName, Hashtable parameters, String accountId, String sessionId,
+                                    Batch.Call call, BatchSlot batchSlot) {
+        String action = call.getAction();
+        Hashtable callParameters = getBatchCallParameters(parameters, call);
+
+        try {
+            if (CoreConstants.DATABASE_CMND_STOREDPROCEDURE.equals(action) ||
+                CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE.equals(action)) {
+                call.setOutput(callStoredProcedure(action, viewName, callParameters, accountId, sessionId, batchSlot));
+            } else {
+                call.setOutput(sendErrorToView(VIEW_PACKAGE + viewName, "The action " + action +
+                                               " cannot be used in a batch", log));
+            }
+        } catch (Exception e) {
+            call.setOutput(sendErrorToView(VIEW_PACKAGE + viewName, "Error in the call " + call.getId() + ": " +
+                                           e.toString(), log));
+        }
+
+        // The actions return null for procedures that are not whitelisted and for empty results
+        if (call.getOutput() == null) {
+            call.setOutput(sendErrorToView(VIEW_PACKAGE + viewName, "The call " + call.getId() + " of " +
+                                           call.getStoredProcedureName() + " was refused or returned no result", log));
+        }
     }
 
+    /**
+     * Build the parameters of one call of a batch: the request parameters without the batch and the
+     * stored procedure parameters of the request, overlaid with the stored procedure name and
+     * parameters of the call. Other fields of the call are ignored, so a call cannot replace the
+     * session, account or CSRF token of the request. Streaming is not available in a batch.
+     */
+    private static Hashtable getBatchCallParameters(Hashtable parameters, Batch.Call call) {
+        Hashtable callParameters = new Hashtable(parameters);
+        Enumeration names = parameters.keys();
+
+        while (names.hasMoreElements()) {
+            Object name = names.nextElement();
+            if (isBatchCallParameter(name)) {
+                callParameters.remove(name);
+            }
+        }
+        callParameters.remove(Constants.DATABASE_ATTR_BATCH);
+        callParameters.remove(Constants.DATABASE_ATTR_STREAM);
+
+        Hashtable<String, String> ownParameters = call.getParameters();
+        names = ownParameters.keys();
+        while (names.hasMoreElements()) {
+            String name = (String)names.nextElement();
+            if (isBatchCallParameter(name)) {
+                callParameters.put(name, ownParameters.get(name));
+            }
+        }
+
+        return (callParameters);
+    }
+
+    private static boolean isBatchCallParameter(Object name) {
+        return (name instanceof String &&
+                (name.equals(Constants.DATABASE_ATTR_STORED_PROCEDURE_NAME) || ((String)name).startsWith(Constants.DATABASE_ATTR_PROC_PARAM) ||
+                 ((String)name).startsWith(Constants.DATABASE_ATTR_RESULTNAME)));
+    }
+
+    /**
+     * @return The executor running the calls of parallel batches, created on first use. It has at most
+     *         DATABASE_STTN_BATCH_THREADS threads; idle threads are stopped after a minute. Workers of
+     *         further batches wait in its queue, which is bounded by the controller threads times
+     *         DATABASE_STTN_MAX_BATCH_PARALLELISM.
+     */
+    private static synchronized ExecutorService getBatchExecutor() {
+        if (batchExecutor == null) {
+            ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(Constants.DATABASE_STTN_BATCH_THREADS, Constants.DATABASE_STTN_BATCH_THREADS, 60,
+                                       TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private AtomicInteger threadCount = new AtomicInteger();
+
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "jml-batch-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return (thread);
+                    }
+                });
+            executor.allowCoreThreadTimeOut(true);
+            batchExecutor = executor;
+        }
+
+        return (batchExecutor);
+    }
+
+    /**
+     * Check whether the output of an action may be served from the result cache.
+     *
+     * @param action The name of the action
+     * @return true if the action is registered as cacheable
+     */
+    private static boolean isCacheable(String action) {
+        ActionDefinition actionDefinition = ActionRegistry.getAction(action);
+
+        return (actionDefinition != null && actionDefinition.isCacheable());
+    }
+
+    /**
+     * Get the user id of the session, from the request context if the core controller resolved one.
+     *
+     * @param parameters The hashtable containing the request parameters and the request context
+     * @param sessionId The session id that is requesting the stored procedure
+     * @return The user id, or null if the session is not logged in
+     */
+    private static String getUserId(Hashtable parameters, String sessionId) {
+        RequestContext context = RequestContext.getRequestContext(parameters, sessionId);
+
+        return (context != null ? context.getUserId() : SecurityManager.getUserId(sessionId));
+    }
+
+    /**
+     * Get the bulkhead of the account. The bulkhead is entered before the model is called, so one
+     * account running slow procedures cannot take every controller thread.
+     *
+     * @param accountId The account that is performing the stored procedure
+     * @return The bulkhead, or null if the account is unknown
+     */
+    private static Bulkhead getBulkhead(String accountId) {
+        Account account = (accountId == null ? null : SecurityManager.getAccount(accountId));
+
+        return (account == null ? null : account.getBulkhead());
+    }
+
+    /**
+     * Get the streaming handler of the view if the client asked for streamed output (stream=true). The
+     * rows are then written to the response as they are fetched instead of being collected first,
+     * which keeps the memory use of large results constant.
+     *
+     * @param viewName The view that should format the result from the stored procedure
+     * @param method The name of the streaming view method
+     * @param parameters The hashtable containing the request parameters and the HttpServletResponse
+     * @return The streaming handler, or null if streaming was not requested or is not supported
+     */
+    private static QueryResultHandler getStreamHandler(String viewName, String method, Hashtable parameters) {
+        Object streamParameter = parameters.get(Constants.DATABASE_ATTR_STREAM);
+
+        if (!"true".equals(streamParameter)) {
+            return (null);
+        }
+
+        HttpServletResponse httpResponse =
+            (HttpServletResponse)parameters.get(CoreConstants.GENERAL_ATTR_HTTPRESPONSE);
+
+        if (httpResponse == null) {
+            log.debug("Streaming is not available for this request; the result will be buffered");
+            return (null);
+        }
+
+        try {
+            return ((QueryResultHandler)getViewStreamHandler(VIEW_PACKAGE + viewName, method, httpResponse.getWriter(),
+                                                             log));
+        } catch (Exception e) {
+            log.error("Cannot stream the result to the response: " + e.toString());
+        }
+
+        return (null);
+    }
+
+    /**
+     * The bulkhead slot taken by a sequential batch for all of its calls. It records whether one of the
+     * calls failed because of the database, for the release of the slot.
+     */
+    private static class BatchSlot {
+        private boolean databaseFailure = false;
+    }
 }
@@ -0,0 +1,182 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.database.model;
+
+import edu.stanford.ehs.jml.util.KeyedValue;
+
+import java.util.Hashtable;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD (additive increase, multiplicative decrease) limit of the database calls in flight for one
+ * account. Every call that completes within the latency threshold raises the limit by 1/limit, about
+ * one per round trip, as long as the limit is actually being used. A call that fails or takes longer
+ * than the threshold cuts the limit by 10%. Calls that were already running when the limit was cut do
+ * not cut it again, so a burst of slow completions backs off once instead of collapsing the limit.
+ * Calls over the limit are dropped instead of queued, so a slow database sheds load before the
+ * requests time out.
+ */
+public class AdaptiveLimiter {
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double RTT_SMOOTHING = 0.1;
+
+    private String accountId;
+    private int minLimit;
+    private int maxLimit;
+    private long latencyThreshold;
+
+    private ReentrantLock lock = new ReentrantLock();
+    private double limit;
+    private int inFlight = 0;
+    private long lastDecrease = System.nanoTime();
+    private long rttMin = Long.MAX_VALUE;
+    private double rttSmoothed = 0;
+    private long dropCount = 0;
+    private long decreaseCount = 0;
+
+    /**
+     * @param accountId The account the limiter belongs to
+     * @param initialLimit The limit to start with
+     * @param minLimit The lowest limit
+     * @param maxLimit The highest limit
+     * @param latencyThreshold Calls taking longer than this many milliseconds lower the limit
+     */
+    public AdaptiveLimiter(String accountId, int initialLimit, int minLimit, int maxLimit, long latencyThreshold) {
+        this.accountId = accountId;
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+        this.latencyThreshold = latencyThreshold * 1000000L;
+    }
+
+    /**
+     * Take a slot for a call. Every successful call must be paired with a call to release().
+     *
+     * @return True if the call may proceed, false if the account is at its limit
+     */
+    public boolean acquire() {
+        lock.lock();
+        try {
+            if (inFlight >= (int)limit) {
+                dropCount++;
+                return (false);
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        return (true);
+    }
+
+    /**
+     * Give back the slot and adjust the limit from the outcome of the call.
+     *
+     * @param elapsedNanos The duration of the call
+     * @param failed True if the call failed
+     */
+    public void release(long elapsedNanos, boolean failed) {
+        long now = System.nanoTime();
+
+        lock.lock();
+        try {
+            inFlight--;
+
+            if (!failed) {
+                rttMin = Math.min(rttMin, elapsedNanos);
+                rttSmoothed = (rttSmoothed == 0 ? elapsedNanos : rttSmoothed + RTT_SMOOTHING * (elapsedNanos - rttSmoothed));
+            }
+
+            if (failed || elapsedNanos > latencyThreshold) {
+                // Only calls started after the last cut may cut the limit again
+                if (now - elapsedNanos - lastDecrease >= 0) {
+                    double newLimit = Math.max(minLimit, limit * BACKOFF_RATIO);
+
+                    if (newLimit < limit) {
+                        limit = newLimit;
+                        decreaseCount++;
+                    }
+                    lastDecrease = now;
+                }
+            } else if ((inFlight + 1) * 2 >= (int)limit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The current limit
+     */
+    public int getLimit() {
+        return ((int)limit);
+    }
+
+    /**
+     * Get the limiter figures.
+     *
+     * @return Hashtable of KeyedValue objects
+     */
+    public Hashtable<String, KeyedValue> getStatistics() {
+        Hashtable<String, KeyedValue> statistics = new Hashtable<String, KeyedValue>();
+        String prefix = "limiter-" + accountId + "-";
+        int currentLimit, currentInFlight;
+        long min, smoothed, drops, decreases;
+
+        lock.lock();
+        try {
+            currentLimit = (int)limit;
+            currentInFlight = inFlight;
+            min = (rttMin == Long.MAX_VALUE ? 0 : rttMin);
+            smoothed = (long)rttSmoothed;
+            drops = dropCount;
+            decreases = decreaseCount;
+        } finally {
+            lock.unlock();
+        }
+
+        statistics.put(prefix + "limit",
+                       new KeyedValue(prefix + "limit", "Adaptive limit of calls in flight (" + accountId + ")",
+                                      String.valueOf(currentLimit)));
+        statistics.put(prefix + "in-flight",
+                       new KeyedValue(prefix + "in-flight", "Calls in flight under the adaptive limit (" + accountId + ")",
+                                      String.valueOf(currentInFlight)));
+        statistics.put(prefix + "rtt-min-us",
+                       new KeyedValue(prefix + "rtt-min-us", "Fastest call in us (" + accountId + ")",
+                                      String.valueOf(min / 1000)));
+        statistics.put(prefix + "rtt-avg-us",
+                       new KeyedValue(prefix + "rtt-avg-us", "Smoothed call time in us (" + accountId + ")",
+                                      String.valueOf(smoothed / 1000)));
+        statistics.put(prefix + "drops",
+                       new KeyedValue(prefix + "drops", "Calls dropped over the adaptive limit (" + accountId + ")",
+                                      String.valueOf(drops)));
+        statistics.put(prefix + "decreases",
+                       new KeyedValue(prefix + "decreases", "Times the adaptive limit was lowered (" + accountId + ")",
+                                      String.valueOf(decreases)));
+
+        return (statistics);
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.stanford.ehs.jml.database.model;
+
+import java.io.StringReader;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Vector;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import org.xml.sax.InputSource;
+
+/**
+ * The stored procedure calls of a doBatch request. The envelope is passed in the batch parameter,
+ * either as JSON:
+ *
+ * <pre>
+ * {"mode":"parallel","calls":[{"id":"rooms","action":"doUserStoredProcedure","proc":"PKG.GET_ROOMS","param1":"2017"}, ...]}
+ * </pre>
+ *
+ * or as XML:
+ *
+ * <pre>
+ * &lt;batch mode="parallel"&gt;
+ *   &lt;call id="rooms" action="doUserStoredProcedure" proc="PKG.GET_ROOMS" param1="2017"/&gt;
+ * &lt;/batch&gt;
+ * </pre>
+ *
+ * The fields of a call are the request parameters of the single call. The mode is "sequential"
+ * (default) or "parallel". A call without an id is numbered by its position.
+ */
+public class Batch {
+    public static final String MODE_PARALLEL = "parallel";
+
+    private boolean parallel = false;
+    private Vector<Call> calls = new Vector<Call>();
+
+    /**
+     * Read a batch envelope.
+     *
+     * @param envelope The JSON or XML envelope
+     * @return The batch
+     * @throws Exception If the envelope cannot be read
+     */
+    public static Batch parse(String envelope) throws Exception {
+        if (envelope == null || envelope.trim().length() == 0) {
+            throw new Exception("The batch is empty");
+        }
+
+        Batch batch = new Batch();
+
+        if (envelope.trim().startsWith("<")) {
+            batch.parseXML(envelope);
+        } else {
+            batch.parseJSON(envelope);
+        }
+
+        return (batch);
+    }
+
+    /**
+     * @return True if the calls run in parallel, each on its own connection
+     */
+    public boolean isParallel() {
+        return (parallel);
+    }
+
+    /**
+     * @return The number of calls
+     */
+    public int size() {
+        return (calls.size());
+    }
+
+    /**
+     * @param index Zero-based call index
+     * @return The call
+     */
+    public Call getCall(int index) {
+        return (calls.get(index));
+    }
+
+    private void parseJSON(String envelope) throws Exception {
+        JSONObject batchObject = new JSONObject(envelope);
+        JSONArray callArray = batchObject.getJSONArray("calls");
+
+        parallel = MODE_PARALLEL.equals(batchObject.optString("mode", ""));
+        for (int i = 0; i < callArray.length(); i++) {
+            JSONObject callObject = callArray.getJSONObject(i);
+            Hashtable<String, String> parameters = new Hashtable<String, String>();
+            Iterator keys = callObject.keys();
+
+            while (keys.hasNext()) {
+                String key = (String)keys.next();
+                Object value = callObject.get(key);
+
+                if (value != null && value != JSONObject.NULL) {
+                    parameters.put(key, value.toString());
+                }
+            }
+            addCall(parameters);
+        }
+    }
+
+    private void parseXML(String envelope) throws Exception {
+        DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+        docBuilderFactory.setExpandEntityReferences(false);
+        docBuilderFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
+        Document xmlDocument = docBuilder.parse(new InputSource(new StringReader(envelope)));
+        Element batchElement = xmlDocument.getDocumentElement();
+
+        parallel = MODE_PARALLEL.equals(batchElement.getAttribute("mode").trim());
+        NodeList callList = batchElement.getElementsByTagName("call");
+        for (int i = 0; i < callList.getLength(); i++) {
+            NamedNodeMap attributes = callList.item(i).getAttributes();
+            Hashtable<String, String> parameters = new Hashtable<String, String>();
+
+            for (int j = 0; j < attributes.getLength(); j++) {
+                Node attribute = attributes.item(j);
+                parameters.put(attribute.getNodeName(), attribute.getNodeValue());
+            }
+            addCall(parameters);
+        }
+    }
+
+    private void addCall(Hashtable<String, String> parameters) {
+        String id = parameters.get("id");
+
+        calls.add(new Call(id != null ? id : String.valueOf(calls.size() + 1), parameters));
+    }
+
+    /**
+     * One stored procedure call of a batch and, once it has run, its formatted output
+     */
+    public static class Call {
+        private String id;
+        private Hashtable<String, String> parameters;
+        private volatile String output = null;
+
+        private Call(String id, Hashtable<String, String> parameters) {
+            this.id = id;
+            this.parameters = parameters;
+        }
+
+        /**
+         * @return The id of the call, used to match the output to the call
+         */
+        public String getId() {
+            return (id);
+        }
+
+        /**
+         * @return The action of the call
+         */
+        public String getAction() {
+            return (parameters.get("action"));
+        }
+
+        /**
+         * @return The name of the stored procedure
+         */
+        public String getStoredProcedureName() {
+            return (parameters.get(Constants.DATABASE_ATTR_STORED_PROCEDURE_NAME));
+        }
+
+        /**
+         * @return The request parameters of the call
+         */
+        public Hashtable<String, String> getParameters() {
+            return (parameters);
+        }
+
+        /**
+         * @return The output of the call in the view of the batch, or null if the call was refused
+         */
+        public String getOutput() {
+            return (output);
+        }
+
+        /**
+         * @param output The output of the call in the view of the batch
+         */
+        public void setOutput(String output) {
+            this.output = output;
+        }
+    }
+}
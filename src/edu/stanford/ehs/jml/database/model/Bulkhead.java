@@ -0,0 +1,209 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.database.model;
+
+import edu.stanford.ehs.jml.util.KeyedValue;
+import edu.stanford.ehs.jml.util.LatencyHistogram;
+
+import java.util.Hashtable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Per-account limit of the database requests in flight. All accounts share the controller threads,
+ * so without a limit one account running slow procedures can occupy every thread. A request that
+ * finds the account at its limit waits in a bounded queue for up to the queue timeout; when the queue
+ * is full or the timeout passes the request is rejected right away. A waiting request keeps its
+ * controller thread, so the Server shortens the queue until the limit plus the queue stays below the
+ * controller threads. A limit of 0 disables the bulkhead; the requests are then only counted.
+ *
+ * An AdaptiveLimiter can be added behind the static limit; it lowers the number of calls in flight
+ * when the database gets slow and drops the calls over that limit.
+ */
+public class Bulkhead {
+    protected static Logger log = LogManager.getLogger(Bulkhead.class.getName());
+
+    private String accountId;
+    private int maxConcurrent;
+    private int maxQueued;
+    private long queueTimeout;
+    private Semaphore permits = null;
+    private AdaptiveLimiter limiter = null;
+
+    private AtomicInteger inFlightCount = new AtomicInteger();
+    private AtomicInteger queuedCount = new AtomicInteger();
+    private AtomicLong admittedCount = new AtomicLong();
+    private AtomicLong rejectedCount = new AtomicLong();
+    private AtomicLong timeoutCount = new AtomicLong();
+    private LatencyHistogram waitTime = new LatencyHistogram();
+
+    /**
+     * @param accountId The account the bulkhead belongs to
+     * @param maxConcurrent The maximum number of requests in flight; 0 disables the bulkhead
+     * @param maxQueued The maximum number of requests waiting for a slot
+     * @param queueTimeout The time in seconds a request waits for a slot
+     */
+    public Bulkhead(String accountId, int maxConcurrent, int maxQueued, long queueTimeout) {
+        this.accountId = accountId;
+        this.maxConcurrent = Math.max(maxConcurrent, 0);
+        this.maxQueued = Math.max(maxQueued, 0);
+        this.queueTimeout = Math.max(queueTimeout, 0) * 1000;
+
+        if (this.maxConcurrent > 0) {
+            permits = new Semaphore(this.maxConcurrent, true);
+        }
+    }
+
+    /**
+     * Add an adaptive limit behind the static limit
+     *
+     * @param limiter The limiter, or null to remove it
+     */
+    public void setLimiter(AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * Get the adaptive limit behind the static limit
+     *
+     * @return The limiter, or null
+     */
+    public AdaptiveLimiter getLimiter() {
+        return (limiter);
+    }
+
+    /**
+     * Take a slot for a request. Every successful call must be paired with a call to release().
+     *
+     * @return True if the request may proceed, false if it was rejected
+     */
+    public boolean acquire() {
+        if (permits != null && !permits.tryAcquire()) {
+            if (queuedCount.incrementAndGet() > maxQueued) {
+                queuedCount.decrementAndGet();
+                rejectedCount.incrementAndGet();
+                log.warn(accountId + ": Request rejected, " + maxConcurrent + " requests in flight and " + maxQueued +
+                         " queued");
+                return (false);
+            }
+
+            long timerStartWait = System.nanoTime();
+            boolean acquired = false;
+
+            try {
+                acquired = permits.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                queuedCount.decrementAndGet();
+            }
+
+            waitTime.record(System.nanoTime() - timerStartWait);
+
+            if (!acquired) {
+                timeoutCount.incrementAndGet();
+                log.warn(accountId + ": Request rejected after waiting " + (queueTimeout / 1000) + " seconds for a slot");
+                return (false);
+            }
+        }
+
+        if (limiter != null && !limiter.acquire()) {
+            if (permits != null) {
+                permits.release();
+            }
+            log.warn(accountId + ": Request dropped by the adaptive limit of " + limiter.getLimit());
+            return (false);
+        }
+
+        inFlightCount.incrementAndGet();
+        admittedCount.incrementAndGet();
+
+        return (true);
+    }
+
+    /**
+     * Give back the slot taken by acquire()
+     *
+     * @param elapsedNanos The duration of the database call
+     * @param failed True if the database call failed
+     */
+    public void release(long elapsedNanos, boolean failed) {
+        inFlightCount.decrementAndGet();
+
+        if (limiter != null) {
+            limiter.release(elapsedNanos, failed);
+        }
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    /**
+     * Get the bulkhead figures.
+     *
+     * @return Hashtable of KeyedValue objects
+     */
+    public Hashtable<String, KeyedValue> getStatistics() {
+        Hashtable<String, KeyedValue> statistics = new Hashtable<String, KeyedValue>();
+        String prefix = "bulkhead-" + accountId + "-";
+
+        statistics.put(prefix + "limit",
+                       new KeyedValue(prefix + "limit", "Maximum requests in flight, 0 is unlimited (" + accountId + ")",
+                                      String.valueOf(maxConcurrent)));
+        statistics.put(prefix + "in-flight",
+                       new KeyedValue(prefix + "in-flight", "Requests in flight (" + accountId + ")",
+                                      String.valueOf(inFlightCount.get())));
+        statistics.put(prefix + "queued",
+                       new KeyedValue(prefix + "queued", "Requests waiting for a slot (" + accountId + ")",
+                                      String.valueOf(queuedCount.get())));
+        statistics.put(prefix + "admitted",
+                       new KeyedValue(prefix + "admitted", "Requests admitted (" + accountId + ")",
+                                      String.valueOf(admittedCount.get())));
+        statistics.put(prefix + "rejected",
+                       new KeyedValue(prefix + "rejected", "Requests rejected with a full queue (" + accountId + ")",
+                                      String.valueOf(rejectedCount.get())));
+        statistics.put(prefix + "timeouts",
+                       new KeyedValue(prefix + "timeouts", "Requests rejected after the queue timeout (" + accountId +
+                                      ")", String.valueOf(timeoutCount.get())));
+        statistics.put(prefix + "wait-mean-us",
+                       new KeyedValue(prefix + "wait-mean-us", "Mean wait for a slot in us (" + accountId + ")",
+                                      String.valueOf(waitTime.getMeanMicros())));
+        statistics.put(prefix + "wait-max-us",
+                       new KeyedValue(prefix + "wait-max-us", "Max wait for a slot in us (" + accountId + ")",
+                                      String.valueOf(waitTime.getMaxMicros())));
+
+        if (limiter != null) {
+            statistics.putAll(limiter.getStatistics());
+        }
+
+        return (statistics);
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.stanford.ehs.jml.database.model;
+
+import java.math.BigDecimal;
+
+import java.sql.CallableStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Typed fetching of cursor columns and output parameters. The fetch path of every column is chosen
+ * once from the ResultSetMetaData, so numbers, dates and raw values are read with the matching JDBC
+ * getter instead of being converted to strings inside the driver. The values handed to a
+ * QueryResultHandler are of the classes Long, BigDecimal, Timestamp, byte[] and String, Double for
+ * the not finite values of binary floating point columns, or null for SQL NULL.
+ */
+public class ColumnFetcher {
+    protected static Logger log = LogManager.getLogger(ColumnFetcher.class.getName());
+
+    // Fetch paths
+    private static final int FETCH_STRING = 0;
+    private static final int FETCH_LONG = 1;
+    private static final int FETCH_DOUBLE = 2;
+    private static final int FETCH_DECIMAL = 3;
+    private static final int FETCH_TIMESTAMP = 4;
+    private static final int FETCH_BYTES = 5;
+
+    // Oracle BINARY_FLOAT and BINARY_DOUBLE (OracleTypes)
+    private static final int ORACLE_BINARY_FLOAT = 100;
+    private static final int ORACLE_BINARY_DOUBLE = 101;
+
+    // The largest precision of a NUMBER that always fits in a long
+    private static final int MAX_LONG_PRECISION = 18;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private String[] columnNames;
+    private int[] fetchPaths;
+
+    /**
+     * @param metaData The meta data of the cursor
+     * @throws SQLException
+     */
+    public ColumnFetcher(ResultSetMetaData metaData) throws SQLException {
+        int numberOfColumns = metaData.getColumnCount();
+
+        columnNames = new String[numberOfColumns];
+        fetchPaths = new int[numberOfColumns];
+        for (int i = 1; i <= numberOfColumns; i++) {
+            int precision = 0;
+            int scale = 0;
+
+            try {
+                precision = metaData.getPrecision(i);
+                scale = metaData.getScale(i);
+            } catch (Exception e) {
+                // Not a numeric column
+            }
+            columnNames[i - 1] = metaData.getColumnName(i).toLowerCase();
+            fetchPaths[i - 1] = getFetchPath(metaData.getColumnType(i), precision, scale);
+        }
+    }
+
+    /**
+     * @return The lower case column names of the cursor
+     */
+    public String[] getColumnNames() {
+        return (columnNames);
+    }
+
+    /**
+     * Fetch the current row of the cursor. A column that cannot be read with its typed getter is read
+     * with getString from then on.
+     *
+     * @param resultSet The cursor, positioned on a row
+     * @param values The array receiving the column values
+     * @throws SQLException If a column cannot be read as a string either
+     */
+    public void fetch(ResultSet resultSet, Object[] values) throws SQLException {
+        for (int i = 1; i <= fetchPaths.length; i++) {
+            try {
+                values[i - 1] = fetch(resultSet, i, fetchPaths[i - 1]);
+            } catch (SQLException e) {
+                if (fetchPaths[i - 1] == FETCH_STRING) {
+                    throw e;
+                }
+                log.warn("Was not able to fetch the column " + columnNames[i - 1] +
+                         " with its type, reading it as a string. " + e.toString());
+                fetchPaths[i - 1] = FETCH_STRING;
+                values[i - 1] = resultSet.getString(i);
+            }
+        }
+    }
+
+    /**
+     * Get the SQL type an output parameter is registered with: NUMERIC for numbers, TIMESTAMP for dates
+     * and VARCHAR for everything else.
+     *
+     * @param dataType The java.sql.Types data type of the parameter
+     * @return The type to register the output parameter with
+     */
+    public static int getOutParameterType(int dataType) {
+        switch (getFetchPath(dataType, 0, 0)) {
+        case FETCH_LONG:
+        case FETCH_DOUBLE:
+        case FETCH_DECIMAL:
+            return (Types.NUMERIC);
+        case FETCH_TIMESTAMP:
+            return (Types.TIMESTAMP);
+        default:
+            return (Types.VARCHAR);
+        }
+    }
+
+    /**
+     * Get an output parameter registered with getOutParameterType. Whole numbers that fit in a long
+     * are returned as Long, other numbers as BigDecimal.
+     *
+     * @param callableStatement The executed statement
+     * @param index The parameter index
+     * @param dataType The java.sql.Types data type of the parameter
+     * @return The value, or null for SQL NULL
+     * @throws SQLException
+     */
+    public static Object getOutParameter(CallableStatement callableStatement, int index,
+                                         int dataType) throws SQLException {
+        switch (getOutParameterType(dataType)) {
+        case Types.NUMERIC:
+            BigDecimal decimal = callableStatement.getBigDecimal(index);
+
+            if (decimal != null && decimal.scale() <= 0) {
+                try {
+                    return (Long.valueOf(decimal.longValueExact()));
+                } catch (ArithmeticException e) {
+                    // Too large for a long
+                }
+            }
+            return (decimal);
+        case Types.TIMESTAMP:
+            return (callableStatement.getTimestamp(index));
+        default:
+            return (callableStatement.getString(index));
+        }
+    }
+
+    /**
+     * Format a fetched value as text, the way the driver's getString does: Timestamp.toString for
+     * dates, plain notation for numbers and upper case hex for raw values. Null is formatted as "".
+     *
+     * @param value The fetched value
+     * @return The value as text
+     */
+    public static String toText(Object value) {
+        if (value == null) {
+            return ("");
+        } else if (value instanceof String) {
+            return ((String)value);
+        } else if (value instanceof BigDecimal) {
+            return (((BigDecimal)value).toPlainString());
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[])value;
+            char[] hex = new char[bytes.length * 2];
+
+            for (int i = 0; i < bytes.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+                hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+            }
+            return (new String(hex));
+        } else {
+            return (value.toString());
+        }
+    }
+
+    private static int getFetchPath(int columnType, int precision, int scale) {
+        switch (columnType) {
+        case Types.BIGINT:
+        case Types.INTEGER:
+        case Types.SMALLINT:
+        case Types.TINYINT:
+            return (FETCH_LONG);
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+            if (scale == 0 && precision > 0 && precision <= MAX_LONG_PRECISION) {
+                return (FETCH_LONG);
+            }
+            return (FETCH_DECIMAL);
+        case Types.FLOAT: // An Oracle NUMBER with a binary precision
+            return (FETCH_DECIMAL);
+        case Types.REAL:
+        case Types.DOUBLE:
+        case ORACLE_BINARY_FLOAT:
+        case ORACLE_BINARY_DOUBLE:
+            return (FETCH_DOUBLE);
+        case Types.DATE:
+        case Types.TIMESTAMP:
+            return (FETCH_TIMESTAMP);
+        case Types.BINARY:
+        case Types.VARBINARY:
+        case Types.LONGVARBINARY:
+            return (FETCH_BYTES);
+        default:
+            return (FETCH_STRING);
+        }
+    }
+
+    private static Object fetch(ResultSet resultSet, int index, int fetchPath) throws SQLException {
+        switch (fetchPath) {
+        case FETCH_LONG:
+            long longValue = resultSet.getLong(index);
+
+            return (resultSet.wasNull() ? null : Long.valueOf(longValue));
+        case FETCH_DOUBLE:
+            double doubleValue = resultSet.getDouble(index);
+
+            if (resultSet.wasNull()) {
+                return (null);
+            } else if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+                return (Double.valueOf(doubleValue));
+            }
+            // The shortest decimal of the double, in plain notation like numbers (100, not 100.0 or 1E+2)
+            BigDecimal decimalValue = BigDecimal.valueOf(doubleValue).stripTrailingZeros();
+
+            return (decimalValue.scale() < 0 ? decimalValue.setScale(0) : decimalValue);
+        case FETCH_DECIMAL:
+            return (resultSet.getBigDecimal(index));
+        case FETCH_TIMESTAMP:
+            return (resultSet.getTimestamp(index));
+        case FETCH_BYTES:
+            return (resultSet.getBytes(index));
+        default:
+            return (resultSet.getString(index));
+        }
+    }
+}
@@ -0,0 +1,629 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.stanford.ehs.jml.database.model;
+
+import edu.stanford.ehs.jml.util.KeyedValue;
+import edu.stanford.ehs.jml.util.LatencyHistogram;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.PooledConnection;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded pool of physical connections for one account.
+ *
+ * Physical connections are obtained from the account's ConnectionPoolDataSource and kept open between
+ * requests. Callers receive the logical connection handle and release it by calling close() on it as
+ * before; the resulting connectionClosed event returns the physical connection to the pool.
+ *
+ * The pool is configured with the connection properties parsed from accounts.xml: InitialLimit, MinLimit,
+ * MaxLimit, InactivityTimeout (seconds an idle connection is kept above MinLimit), AbandonedConnectionTimeout
+ * (seconds a connection may be borrowed before it is reported as leaked), PropertyCheckInterval (seconds
+ * between maintenance runs), ValidateConnection, ConnectionWaitTimeout (seconds a request waits for a
+ * connection when MaxLimit is reached) and MaxStatementsLimit (size of the statement cache kept on each
+ * physical connection, 0 to disable it).
+ */
+public class ConnectionPool implements ConnectionEventListener {
+    protected static Logger log = LogManager.getLogger(ConnectionPool.class.getName());
+
+    private static final int DEFAULT_CHECK_INTERVAL = 60; // In seconds
+    private static final int DEFAULT_WAIT_TIMEOUT = 30; // In seconds
+    private static final int VALIDATION_TIMEOUT = 5; // In seconds
+
+    private String accountId;
+    private ConnectionPoolDataSource dataSource;
+
+    private int initialLimit;
+    private int minLimit;
+    private int maxLimit;
+    private long inactivityTimeout;
+    private long abandonedConnectionTimeout;
+    private long waitTimeout;
+    private boolean validateConnection;
+    private int statementCacheSize;
+
+    private ReentrantLock lock = new ReentrantLock();
+    private Condition available = lock.newCondition();
+    private ArrayDeque<PoolEntry> idle = new ArrayDeque<PoolEntry>();
+    private HashMap<PooledConnection, PoolEntry> entries = new HashMap<PooledConnection, PoolEntry>();
+    private int totalCount = 0;
+    private int activeCount = 0;
+    private int waiterCount = 0;
+    private boolean closed = false;
+
+    private AtomicLong borrowCount = new AtomicLong();
+    private AtomicLong borrowTimeoutCount = new AtomicLong();
+    private AtomicLong createdCount = new AtomicLong();
+    private AtomicLong destroyedCount = new AtomicLong();
+    private AtomicLong leakCount = new AtomicLong();
+    private AtomicLong statementCacheHits = new AtomicLong();
+    private AtomicLong statementCacheMisses = new AtomicLong();
+    private LatencyHistogram borrowLatency = new LatencyHistogram();
+
+    private Timer maintenanceTimer;
+
+    /**
+     * Create the pool and schedule its maintenance task. The initial connections are opened by the first
+     * maintenance run so the server start-up is not held up by the database.
+     *
+     * @param accountId The account the pool belongs to
+     * @param dataSource The data source for the physical connections
+     * @param properties The connection properties from accounts.xml
+     */
+    public ConnectionPool(String accountId, ConnectionPoolDataSource dataSource, Properties properties) {
+        this.accountId = accountId;
+        this.dataSource = dataSource;
+
+        maxLimit = getIntProperty(properties, "MaxLimit", Integer.MAX_VALUE);
+        if (maxLimit <= 0) {
+            maxLimit = Integer.MAX_VALUE;
+        }
+        minLimit = Math.min(getIntProperty(properties, "MinLimit", 0), maxLimit);
+        initialLimit = Math.min(Math.max(getIntProperty(properties, "InitialLimit", 0), minLimit), maxLimit);
+        inactivityTimeout = getIntProperty(properties, "InactivityTimeout", 0) * 1000L;
+        abandonedConnectionTimeout = getIntProperty(properties, "AbandonedConnectionTimeout", 0) * 1000L;
+        waitTimeout = getIntProperty(properties, "ConnectionWaitTimeout", DEFAULT_WAIT_TIMEOUT) * 1000L;
+        validateConnection = "true".equalsIgnoreCase(properties.getProperty("ValidateConnection"));
+        statementCacheSize = Math.max(getIntProperty(properties, "MaxStatementsLimit", 0), 0);
+
+        long checkInterval = getIntProperty(properties, "PropertyCheckInterval", 0) * 1000L;
+        if (checkInterval <= 0) {
+            checkInterval = DEFAULT_CHECK_INTERVAL * 1000L;
+        }
+
+        log.debug(accountId + ": Connection pool initial/min/max " + initialLimit + "/" + minLimit + "/" +
+                  (maxLimit == Integer.MAX_VALUE ? "unbounded" : String.valueOf(maxLimit)));
+
+        maintenanceTimer = new Timer("jml-pool-" + accountId, true);
+        maintenanceTimer.schedule(new MaintenanceTask(), 0, checkInterval);
+    }
+
+    /**
+     * Borrow a connection from the pool. The connection must be closed by the caller, which returns it
+     * to the pool.
+     *
+     * @return A logical connection handle
+     * @throws SQLException If no connection could be obtained within the wait timeout
+     */
+    public Connection getConnection() throws SQLException {
+        long startTime = System.nanoTime();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(waitTimeout);
+
+        while (true) {
+            PoolEntry entry = null;
+            boolean create = false;
+
+            lock.lock();
+            try {
+                while (entry == null && !create) {
+                    if (closed) {
+                        throw new SQLException("The connection pool for " + accountId + " is closed");
+                    }
+
+                    entry = idle.pollFirst();
+
+                    if (entry == null) {
+                        if (totalCount < maxLimit) {
+                            totalCount++;
+                            create = true;
+                        } else if (remaining <= 0) {
+                            borrowTimeoutCount.incrementAndGet();
+                            throw new SQLTransientConnectionException("Timed out waiting for a connection for " +
+                                                                      accountId + " (" + activeCount + " in use)");
+                        } else {
+                            waiterCount++;
+                            try {
+                                remaining = available.awaitNanos(remaining);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new SQLException("Interrupted while waiting for a connection for " +
+                                                       accountId);
+                            } finally {
+                                waiterCount--;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    entry = createEntry();
+                } catch (SQLException e) {
+                    releaseSlot();
+                    throw e;
+                }
+            }
+
+            Connection connection;
+            try {
+                connection = entry.pooledConnection.getConnection();
+            } catch (SQLException e) {
+                destroyEntry(entry);
+                throw e;
+            }
+
+            if (!create && validateConnection && !isValid(connection)) {
+                log.debug(accountId + ": Discarding an invalid pooled connection");
+                destroyEntry(entry);
+                continue;
+            }
+
+            lock.lock();
+            try {
+                activeCount++;
+                entry.borrowed = true;
+                entry.borrowedAt = System.currentTimeMillis();
+                entry.leakReported = false;
+                entry.connection = connection;
+                if (abandonedConnectionTimeout > 0) {
+                    entry.borrowStack = new Exception("Connection borrowed by " + Thread.currentThread().getName());
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            long elapsed = System.nanoTime() - startTime;
+            borrowCount.incrementAndGet();
+            borrowLatency.record(elapsed);
+
+            return (connection);
+        }
+    }
+
+    /**
+     * @return The maximum number of connections, Integer.MAX_VALUE if the pool is unbounded
+     */
+    public int getMaxLimit() {
+        return (maxLimit);
+    }
+
+    /**
+     * @return The number of statements to cache per physical connection, 0 if statement caching is disabled
+     */
+    public int getStatementCacheSize() {
+        return (statementCacheSize);
+    }
+
+    /**
+     * Count a statement cache lookup for the statistics.
+     *
+     * @param hit True if the statement was served from the statement cache
+     */
+    public void recordStatementCacheLookup(boolean hit) {
+        if (hit) {
+            statementCacheHits.incrementAndGet();
+        } else {
+            statementCacheMisses.incrementAndGet();
+        }
+    }
+
+    /**
+     * A logical connection was closed: return the physical connection to the pool.
+     *
+     * @param event The connection event
+     */
+    public void connectionClosed(ConnectionEvent event) {
+        PoolEntry entry = null;
+        boolean discard = false;
+
+        lock.lock();
+        try {
+            entry = entries.get(event.getSource());
+
+            if (entry == null || !entry.borrowed) {
+                return;
+            }
+
+            entry.borrowed = false;
+            entry.borrowStack = null;
+            entry.connection = null;
+            activeCount--;
+
+            if (closed) {
+                discard = true;
+            } else {
+                entry.lastUsed = System.currentTimeMillis();
+                idle.addFirst(entry);
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (discard) {
+            destroyEntry(entry);
+        }
+    }
+
+    /**
+     * A fatal error occurred on a physical connection: remove it from the pool.
+     *
+     * @param event The connection event
+     */
+    public void connectionErrorOccurred(ConnectionEvent event) {
+        PoolEntry entry = null;
+
+        lock.lock();
+        try {
+            entry = entries.get(event.getSource());
+        } finally {
+            lock.unlock();
+        }
+
+        if (entry != null) {
+            log.warn(accountId + ": Removing a pooled connection after a connection error: " +
+                     (event.getSQLException() == null ? "unknown" : event.getSQLException().toString()));
+            destroyEntry(entry);
+        }
+    }
+
+    /**
+     * Remove the physical connection of a borrowed connection from the pool instead of returning it,
+     * after an error that left it unusable. The borrowed connection must not be used afterwards.
+     *
+     * @param connection A connection obtained from getConnection
+     */
+    public void discardConnection(Connection connection) {
+        PoolEntry entry = null;
+
+        lock.lock();
+        try {
+            Iterator<PoolEntry> entryIterator = entries.values().iterator();
+            while (entry == null && entryIterator.hasNext()) {
+                PoolEntry candidate = entryIterator.next();
+                if (candidate.borrowed && candidate.connection == connection) {
+                    entry = candidate;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (entry != null) {
+            log.warn(accountId + ": Removing a pooled connection that failed");
+            destroyEntry(entry);
+        }
+    }
+
+    /**
+     * Close the pool. Idle connections are closed right away; connections in use are closed when they are
+     * returned.
+     */
+    public void close() {
+        ArrayList<PoolEntry> idleEntries = new ArrayList<PoolEntry>();
+
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            idleEntries.addAll(idle);
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        maintenanceTimer.cancel();
+
+        for (int i = 0; i < idleEntries.size(); i++) {
+            destroyEntry(idleEntries.get(i));
+        }
+
+        log.debug(accountId + ": Connection pool closed");
+    }
+
+    /**
+     * Get the live pool figures.
+     *
+     * @return Hashtable of KeyedValue objects
+     */
+    public Hashtable<String, KeyedValue> getStatistics() {
+        Hashtable<String, KeyedValue> statistics = new Hashtable<String, KeyedValue>();
+        int active, idleSize, total, waiters;
+
+        lock.lock();
+        try {
+            active = activeCount;
+            idleSize = idle.size();
+            total = totalCount;
+            waiters = waiterCount;
+        } finally {
+            lock.unlock();
+        }
+
+        String prefix = "pool-" + accountId + "-";
+
+        putStatistic(statistics, prefix + "active", "Connections in use (" + accountId + ")", active);
+        putStatistic(statistics, prefix + "idle", "Idle connections (" + accountId + ")", idleSize);
+        putStatistic(statistics, prefix + "total", "Open connections (" + accountId + ")", total);
+        putStatistic(statistics, prefix + "waiters", "Requests waiting for a connection (" + accountId + ")",
+                     waiters);
+        putStatistic(statistics, prefix + "borrowed", "Connections borrowed (" + accountId + ")",
+                     borrowCount.get());
+        putStatistic(statistics, prefix + "timeouts", "Borrow timeouts (" + accountId + ")",
+                     borrowTimeoutCount.get());
+        putStatistic(statistics, prefix + "created", "Physical connections opened (" + accountId + ")",
+                     createdCount.get());
+        putStatistic(statistics, prefix + "destroyed", "Physical connections closed (" + accountId + ")",
+                     destroyedCount.get());
+        putStatistic(statistics, prefix + "leaks", "Connections reported as abandoned (" + accountId + ")",
+                     leakCount.get());
+        putStatistic(statistics, prefix + "borrow-mean-us", "Mean borrow time in us (" + accountId + ")",
+                     borrowLatency.getMeanMicros());
+        putStatistic(statistics, prefix + "borrow-max-us", "Max borrow time in us (" + accountId + ")",
+                     borrowLatency.getMaxMicros());
+        putStatistic(statistics, prefix + "statement-cache-size",
+                     "Statements cached per connection (" + accountId + ")", statementCacheSize);
+        putStatistic(statistics, prefix + "statement-cache-hits", "Statement cache hits (" + accountId + ")",
+                     statementCacheHits.get());
+        putStatistic(statistics, prefix + "statement-cache-misses", "Statement cache misses (" + accountId + ")",
+                     statementCacheMisses.get());
+        long lookups = statementCacheHits.get() + statementCacheMisses.get();
+        statistics.put(prefix + "statement-cache-hit-ratio",
+                       new KeyedValue(prefix + "statement-cache-hit-ratio",
+                                      "Statement cache hit ratio in % (" + accountId + ")",
+                                      lookups == 0 ? "0" : String.valueOf(statementCacheHits.get() * 100 / lookups)));
+        statistics.put(prefix + "borrow-histogram",
+                       new KeyedValue(prefix + "borrow-histogram", "Borrow time histogram (" + accountId + ")",
+                                      borrowLatency.toString()));
+
+        return (statistics);
+    }
+
+    private void putStatistic(Hashtable<String, KeyedValue> statistics, String xmlTag, String description,
+                              long value) {
+        statistics.put(xmlTag, new KeyedValue(xmlTag, description, String.valueOf(value)));
+    }
+
+    /**
+     * Open a new physical connection. The caller must have reserved a slot in totalCount.
+     */
+    private PoolEntry createEntry() throws SQLException {
+        PooledConnection pooledConnection = dataSource.getPooledConnection();
+        PoolEntry entry = new PoolEntry(pooledConnection);
+
+        pooledConnection.addConnectionEventListener(this);
+
+        lock.lock();
+        try {
+            entries.put(pooledConnection, entry);
+        } finally {
+            lock.unlock();
+        }
+
+        createdCount.incrementAndGet();
+        log.debug(accountId + ": Opened a physical connection");
+
+        return (entry);
+    }
+
+    /**
+     * Remove a physical connection from the pool and close it.
+     */
+    private void destroyEntry(PoolEntry entry) {
+        boolean removed = false;
+
+        lock.lock();
+        try {
+            if (entries.remove(entry.pooledConnection) != null) {
+                removed = true;
+                idle.remove(entry);
+                if (entry.borrowed) {
+                    entry.borrowed = false;
+                    activeCount--;
+                }
+                totalCount--;
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (removed) {
+            entry.pooledConnection.removeConnectionEventListener(this);
+            try {
+                entry.pooledConnection.close();
+            } catch (SQLException e) {
+                log.warn(accountId + ": Was not able to close a pooled connection. " + e.toString());
+            }
+            destroyedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Give back a slot reserved for a connection that could not be opened.
+     */
+    private void releaseSlot() {
+        lock.lock();
+        try {
+            totalCount--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return (connection.isValid(VALIDATION_TIMEOUT));
+        } catch (Throwable t) {
+            return (false);
+        }
+    }
+
+    private static int getIntProperty(Properties properties, String name, int defaultValue) {
+        try {
+            return (Integer.parseInt(properties.getProperty(name).trim()));
+        } catch (Exception e) {
+            return (defaultValue);
+        }
+    }
+
+    /**
+     * Bookkeeping for one physical connection
+     */
+    private static class PoolEntry {
+        PooledConnection pooledConnection;
+        boolean borrowed = false;
+        boolean leakReported = false;
+        long borrowedAt = 0;
+        Connection connection = null;
+        long lastUsed = System.currentTimeMillis();
+        Exception borrowStack = null;
+
+        PoolEntry(PooledConnection pooledConnection) {
+            this.pooledConnection = pooledConnection;
+        }
+    }
+
+    /**
+     * Periodic maintenance: close connections idle beyond the inactivity timeout, report connections
+     * borrowed beyond the abandoned connection timeout and open connections up to the minimum.
+     */
+    private class MaintenanceTask extends TimerTask {
+        private boolean firstRun = true;
+
+        public void run() {
+            ArrayList<PoolEntry> evicted = new ArrayList<PoolEntry>();
+            int missing = 0;
+            long now = System.currentTimeMillis();
+
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+
+                if (inactivityTimeout > 0) {
+                    // Oldest idle connections are at the end of the deque
+                    Iterator<PoolEntry> idleIterator = idle.descendingIterator();
+                    while (idleIterator.hasNext() && totalCount - evicted.size() > minLimit) {
+                        PoolEntry entry = idleIterator.next();
+                        if (now - entry.lastUsed > inactivityTimeout) {
+                            idleIterator.remove();
+                            evicted.add(entry);
+                        }
+                    }
+                }
+
+                if (abandonedConnectionTimeout > 0) {
+                    Iterator<PoolEntry> entryIterator = entries.values().iterator();
+                    while (entryIterator.hasNext()) {
+                        PoolEntry entry = entryIterator.next();
+                        if (entry.borrowed && !entry.leakReported &&
+                            now - entry.borrowedAt > abandonedConnectionTimeout) {
+                            entry.leakReported = true;
+                            leakCount.incrementAndGet();
+                            log.warn(accountId + ": Connection in use for " + (now - entry.borrowedAt) +
+                                     " ms; it may not have been closed", entry.borrowStack);
+                        }
+                    }
+                }
+
+                int target = firstRun ? initialLimit : minLimit;
+                missing = Math.max(0, target - (totalCount - evicted.size()));
+                totalCount += missing;
+                firstRun = false;
+            } finally {
+                lock.unlock();
+            }
+
+            for (int i = 0; i < evicted.size(); i++) {
+                destroyEntry(evicted.get(i));
+            }
+
+            for (int i = 0; i < missing; i++) {
+                try {
+                    PoolEntry entry = createEntry();
+                    boolean discard = false;
+
+                    lock.lock();
+                    try {
+                        if (closed) {
+                            discard = true;
+                        } else {
+                            idle.addLast(entry);
+                            available.signal();
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+
+                    if (discard) {
+                        destroyEntry(entry);
+                    }
+                } catch (SQLException e) {
+                    releaseSlot();
+                    log.warn(accountId + ": Was not able to open a pooled connection. " + e.toString());
+                }
+            }
+        }
+    }
+}
@@ -28,11 +28,16 @@ package edu.stanford.ehs.jml.database.model;
  * Constants for the database module
  */
 public class Constants {
+    public static final String DATABASE_ATTR_BATCH = "batch";
     public static final String DATABASE_ATTR_PROC_PARAM = "param";
     public static final String DATABASE_ATTR_RESULTNAME = "resultName";
     public static final String DATABASE_ATTR_SQL = "sql";
     public static final String DATABASE_ATTR_STORED_PROCEDURE_NAME = "proc";
+    public static final String DATABASE_ATTR_STREAM = "stream";
     public static final int DATABASE_STTN_MAX_PARAMS = 16;
+    public static final int DATABASE_STTN_MAX_BATCH_CALLS = 50;
+    public static final int DATABASE_STTN_MAX_BATCH_PARALLELISM = 8;
+    public static final int DATABASE_STTN_BATCH_THREADS = 20;
     public static final String DATABASE_OUTP_METADATA = "meta-data";
     public static final String DATABASE_OUTP_DATABASE_RESULTSET = "result-set";
     public static final String DATABASE_OUTP_COLUMNNAMES = "column-names";
@@ -0,0 +1,207 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.stanford.ehs.jml.database.model;
+
+import java.sql.ParameterMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import java.util.Vector;
+
+/**
+ * The resolved signature of a stored procedure: the parameters in call order with their mode and
+ * data type, and the generated call string. Instances are immutable so they can be shared between
+ * requests through the ProcedureSignatureCache.
+ */
+public class ProcedureSignature {
+    private String storedProcedureName;
+    private String procedureSchema;
+    private String procedureCatalog;
+    private String procedureNamePattern;
+    private String[] columnNames;
+    private int[] columnTypes;
+    private int[] dataTypes;
+    private String callString;
+    private boolean resolved;
+    private long created;
+
+    /**
+     * Build the signature from procedure column meta data. The result set must contain the columns
+     * COLUMN_NAME, COLUMN_TYPE and DATA_TYPE as returned by DatabaseMetaData.getProcedureColumns, one row
+     * per parameter in call order. A row without a name and a data type is the placeholder the data
+     * dictionary returns for a procedure without arguments; it is not a parameter.
+     *
+     * @param storedProcedureName The name of the stored procedure as it will be called
+     * @param procedureSchema The resolved schema
+     * @param procedureCatalog The resolved catalog (package) name
+     * @param procedureNamePattern The resolved procedure name
+     * @param metaDataResultSet The parameter meta data
+     * @throws SQLException
+     */
+    public ProcedureSignature(String storedProcedureName, String procedureSchema, String procedureCatalog,
+                              String procedureNamePattern, ResultSet metaDataResultSet) throws SQLException {
+        Vector<String> names = new Vector<String>();
+        Vector<Integer> modes = new Vector<Integer>();
+        Vector<Integer> types = new Vector<Integer>();
+
+        while (metaDataResultSet.next()) {
+            resolved = true;
+
+            int mode = metaDataResultSet.getInt("COLUMN_TYPE");
+            int type = metaDataResultSet.getInt("DATA_TYPE");
+            boolean noType = metaDataResultSet.wasNull();
+            String name = metaDataResultSet.getString("COLUMN_NAME");
+
+            if (name == null && noType) {
+                continue;
+            }
+            modes.add(new Integer(mode));
+            types.add(new Integer(type));
+            names.add(name);
+        }
+
+        this.storedProcedureName = storedProcedureName;
+        this.procedureSchema = procedureSchema;
+        this.procedureCatalog = procedureCatalog;
+        this.procedureNamePattern = procedureNamePattern;
+        this.columnNames = names.toArray(new String[names.size()]);
+        this.columnTypes = new int[modes.size()];
+        this.dataTypes = new int[types.size()];
+        for (int i = 0; i < columnTypes.length; i++) {
+            columnTypes[i] = modes.get(i).intValue();
+            dataTypes[i] = types.get(i).intValue();
+        }
+        this.created = System.currentTimeMillis();
+
+        // Build the SQL string
+        StringBuffer sqlString = new StringBuffer();
+        sqlString.append("BEGIN ");
+        sqlString.append(storedProcedureName);
+        sqlString.append("(");
+        for (int i = 0; i < columnNames.length; i++) {
+            if (i > 0) {
+                sqlString.append(",");
+            }
+            sqlString.append("?");
+        }
+        sqlString.append("); END;");
+        callString = sqlString.toString();
+    }
+
+    public String getStoredProcedureName() {
+        return (storedProcedureName);
+    }
+
+    public String getProcedureSchema() {
+        return (procedureSchema);
+    }
+
+    public String getProcedureCatalog() {
+        return (procedureCatalog);
+    }
+
+    public String getProcedureNamePattern() {
+        return (procedureNamePattern);
+    }
+
+    /**
+     * @return The generated "BEGIN name(?,...); END;" string
+     */
+    public String getCallString() {
+        return (callString);
+    }
+
+    /**
+     * @return True if the meta data had at least one row, i.e. the procedure exists
+     */
+    public boolean isResolved() {
+        return (resolved);
+    }
+
+    /**
+     * @return The creation time in milliseconds
+     */
+    public long getCreated() {
+        return (created);
+    }
+
+    /**
+     * @return The number of parameters
+     */
+    public int getNumberOfParameters() {
+        return (columnNames.length);
+    }
+
+    /**
+     * @param index Zero-based parameter index
+     * @return The name of the parameter
+     */
+    public String getColumnName(int index) {
+        return (columnNames[index]);
+    }
+
+    /**
+     * @param index Zero-based parameter index
+     * @return The parameter mode (ParameterMetaData.parameterModeIn, ...)
+     */
+    public int getColumnType(int index) {
+        return (columnTypes[index]);
+    }
+
+    /**
+     * @param index Zero-based parameter index
+     * @return The java.sql.Types data type of the parameter
+     */
+    public int getDataType(int index) {
+        return (dataTypes[index]);
+    }
+
+    /**
+     * @param index Zero-based parameter index
+     * @return True for IN and IN OUT parameters
+     */
+    public boolean isInput(int index) {
+        return (columnTypes[index] == ParameterMetaData.parameterModeInOut ||
+                columnTypes[index] == ParameterMetaData.parameterModeIn);
+    }
+
+    /**
+     * @param index Zero-based parameter index
+     * @return True for OUT and IN OUT parameters
+     */
+    public boolean isOutput(int index) {
+        return (columnTypes[index] == ParameterMetaData.parameterModeInOut ||
+                columnTypes[index] == ParameterMetaData.parameterModeOut);
+    }
+
+    /**
+     * @param index Zero-based parameter index
+     * @return True if the parameter is a cursor
+     */
+    public boolean isCursor(int index) {
+        return (dataTypes[index] == Types.OTHER);
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.stanford.ehs.jml.database.model;
+
+import edu.stanford.ehs.jml.util.KeyedValue;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Per-account cache of resolved stored procedure signatures, so the data dictionary is only queried
+ * the first time a procedure is called. Entries expire after the time-to-live and the oldest entry is
+ * dropped when the cache is full. A time-to-live of 0 disables the cache.
+ */
+public class ProcedureSignatureCache {
+    protected static Logger log = LogManager.getLogger(ProcedureSignatureCache.class.getName());
+
+    private String accountId;
+    private long timeToLive;
+    private int maxSize;
+    private ConcurrentHashMap<String, ProcedureSignature> signatures =
+        new ConcurrentHashMap<String, ProcedureSignature>();
+
+    private AtomicLong hitCount = new AtomicLong();
+    private AtomicLong missCount = new AtomicLong();
+    private AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param accountId The account the cache belongs to
+     * @param timeToLive Time-to-live of an entry in seconds; 0 disables the cache
+     * @param maxSize The maximum number of entries
+     */
+    public ProcedureSignatureCache(String accountId, long timeToLive, int maxSize) {
+        this.accountId = accountId;
+        this.timeToLive = timeToLive * 1000;
+        this.maxSize = Math.max(maxSize, 1);
+    }
+
+    /**
+     * Look up a signature.
+     *
+     * @param storedProcedureName The name of the stored procedure as called
+     * @return The signature, or null if it is not cached or has expired
+     */
+    public ProcedureSignature get(String storedProcedureName) {
+        if (timeToLive <= 0) {
+            missCount.incrementAndGet();
+            return (null);
+        }
+
+        String key = storedProcedureName.toUpperCase();
+        ProcedureSignature signature = signatures.get(key);
+
+        if (signature != null && System.currentTimeMillis() - signature.getCreated() > timeToLive) {
+            signatures.remove(key, signature);
+            signature = null;
+        }
+
+        if (signature == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+
+        return (signature);
+    }
+
+    /**
+     * Store a signature, dropping the oldest entry if the cache is full.
+     *
+     * @param signature The resolved signature
+     */
+    public void put(ProcedureSignature signature) {
+        if (timeToLive <= 0) {
+            return;
+        }
+
+        while (signatures.size() >= maxSize) {
+            String oldestKey = null;
+            long oldestCreated = Long.MAX_VALUE;
+            Iterator<Map.Entry<String, ProcedureSignature>> entries = signatures.entrySet().iterator();
+
+            while (entries.hasNext()) {
+                Map.Entry<String, ProcedureSignature> entry = entries.next();
+                if (entry.getValue().getCreated() < oldestCreated) {
+                    oldestCreated = entry.getValue().getCreated();
+                    oldestKey = entry.getKey();
+                }
+            }
+
+            if (oldestKey == null) {
+                break;
+            }
+            if (signatures.remove(oldestKey) != null) {
+                evictionCount.incrementAndGet();
+            }
+        }
+
+        signatures.put(signature.getStoredProcedureName().toUpperCase(), signature);
+    }
+
+    /**
+     * Invalidate one procedure, or every procedure if the name is null. Invalidating a package name
+     * (e.g. "PKG" or "SCHEMA.PKG") drops all procedures of that package, whether they were called with
+     * or without the schema prefix.
+     *
+     * @param storedProcedureName The stored procedure or package name, or null
+     * @return The number of entries removed
+     */
+    public int invalidate(String storedProcedureName) {
+        int removed = 0;
+
+        if (storedProcedureName == null || storedProcedureName.trim().length() == 0) {
+            removed = signatures.size();
+            signatures.clear();
+        } else {
+            String key = storedProcedureName.trim().toUpperCase();
+            Iterator<String> keys = signatures.keySet().iterator();
+
+            while (keys.hasNext()) {
+                String cachedKey = keys.next();
+                if (cachedKey.equals(key) || cachedKey.startsWith(key + ".") || cachedKey.endsWith("." + key) ||
+                    cachedKey.indexOf("." + key + ".") != -1) {
+                    keys.remove();
+                    removed++;
+                }
+            }
+        }
+
+        log.info(accountId + ": Invalidated " + removed + " cached procedure signature(s)");
+
+        return (removed);
+    }
+
+    /**
+     * Get the cache figures.
+     *
+     * @return Hashtable of KeyedValue objects
+     */
+    public Hashtable<String, KeyedValue> getStatistics() {
+        Hashtable<String, KeyedValue> statistics = new Hashtable<String, KeyedValue>();
+        String prefix = "procedure-cache-" + accountId + "-";
+
+        statistics.put(prefix + "size",
+                       new KeyedValue(prefix + "size", "Cached procedure signatures (" + accountId + ")",
+                                      String.valueOf(signatures.size())));
+        statistics.put(prefix + "hits",
+                       new KeyedValue(prefix + "hits", "Procedure signature cache hits (" + accountId + ")",
+                                      String.valueOf(hitCount.get())));
+        statistics.put(prefix + "misses",
+                       new KeyedValue(prefix + "misses", "Procedure signature cache misses (" + accountId + ")",
+                                      String.valueOf(missCount.get())));
+        statistics.put(prefix + "evictions",
+                       new KeyedValue(prefix + "evictions", "Procedure signatures evicted (" + accountId + ")",
+                                      String.valueOf(evictionCount.get())));
+
+        return (statistics);
+    }
+}
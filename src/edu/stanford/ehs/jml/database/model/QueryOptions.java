@@ -0,0 +1,91 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.stanford.ehs.jml.database.model;
+
+/**
+ * Fetch settings of a stored procedure call: the number of cursor rows fetched per round trip and the
+ * number of bytes of LOB data prefetched with the rows. The account default is set with the fetch-size
+ * and lob-prefetch-size tags of the connection element in the accounts file; whitelisted procedures can
+ * override either value with attributes of the same names. Instances are immutable.
+ */
+public class QueryOptions {
+
+    /**
+     * Use the driver default
+     */
+    public static final int NOT_SET = -1;
+
+    /**
+     * Options using the driver defaults
+     */
+    public static final QueryOptions DEFAULT = new QueryOptions(NOT_SET, NOT_SET);
+
+    private int fetchSize;
+    private int lobPrefetchSize;
+
+    /**
+     * @param fetchSize Rows per round trip, or NOT_SET (any value below 1) for the driver default
+     * @param lobPrefetchSize Bytes of LOB data prefetched, or NOT_SET (any negative value) for the
+     *                        driver default
+     */
+    public QueryOptions(int fetchSize, int lobPrefetchSize) {
+        this.fetchSize = fetchSize > 0 ? fetchSize : NOT_SET;
+        this.lobPrefetchSize = lobPrefetchSize >= 0 ? lobPrefetchSize : NOT_SET;
+    }
+
+    /**
+     * @return Rows per round trip, or NOT_SET
+     */
+    public int getFetchSize() {
+        return (fetchSize);
+    }
+
+    /**
+     * @return Bytes of LOB data prefetched, or NOT_SET
+     */
+    public int getLobPrefetchSize() {
+        return (lobPrefetchSize);
+    }
+
+    /**
+     * Combine these options with defaults for the values that are not set here.
+     *
+     * @param defaults The options used for the values that are not set, may be null
+     * @return The combined options
+     */
+    public QueryOptions merge(QueryOptions defaults) {
+        if (defaults == null || (fetchSize != NOT_SET && lobPrefetchSize != NOT_SET)) {
+            return (this);
+        }
+
+        return (new QueryOptions(fetchSize != NOT_SET ? fetchSize : defaults.getFetchSize(),
+                                 lobPrefetchSize != NOT_SET ? lobPrefetchSize : defaults.getLobPrefetchSize()));
+    }
+
+    public String toString() {
+        return ("fetch-size=" + (fetchSize != NOT_SET ? String.valueOf(fetchSize) : "default") +
+                ", lob-prefetch-size=" + (lobPrefetchSize != NOT_SET ? String.valueOf(lobPrefetchSize) : "default"));
+    }
+}
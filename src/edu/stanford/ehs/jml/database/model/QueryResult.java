@@ -0,0 +1,202 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.stanford.ehs.jml.database.model;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Compact, columnar store of the output of a stored procedure call. Every output parameter becomes
+ * a Table with one shared array of column names and the values of all rows in one row-major Object
+ * array, so a row costs one array slot per column instead of a Hashtable with an entry per column.
+ * A simple output parameter is a table with one column and one row. The tables keep the order in
+ * which the parameters were returned and the columns keep the order of the cursor.
+ */
+public class QueryResult {
+    private static final int INITIAL_ROW_CAPACITY = 16;
+
+    private Vector<Table> tables = new Vector<Table>();
+    private boolean typedValues = false;
+
+    /**
+     * @param typedValues True if views may write the values with their type
+     * @see QueryResultHandler#setTypedValues(boolean)
+     */
+    public void setTypedValues(boolean typedValues) {
+        this.typedValues = typedValues;
+    }
+
+    /**
+     * @return True if views may write the values with their type, false if they write them as text
+     */
+    public boolean isTypedValues() {
+        return (typedValues);
+    }
+
+    /**
+     * Add a table for an output parameter.
+     *
+     * @param name The name of the output parameter
+     * @param columnNames The column names, shared by all rows
+     * @return The new, empty table
+     */
+    public Table addTable(String name, String[] columnNames) {
+        Table table = new Table(name, columnNames);
+
+        tables.add(table);
+
+        return (table);
+    }
+
+    /**
+     * @return The number of tables (output parameters)
+     */
+    public int size() {
+        return (tables.size());
+    }
+
+    /**
+     * @param index Zero-based table index
+     * @return The table
+     */
+    public Table getTable(int index) {
+        return (tables.get(index));
+    }
+
+    /**
+     * Convert the result to the Hashtable format of earlier releases: every output parameter maps to
+     * a Vector of row Hashtables keyed by column name.
+     *
+     * @return The query result as a Hashtable
+     */
+    public Hashtable<String, Vector> toHashtable() {
+        Hashtable<String, Vector> queryResult = new Hashtable<String, Vector>();
+
+        for (int t = 0; t < tables.size(); t++) {
+            Table table = tables.get(t);
+            Vector<Hashtable> rows = new Vector<Hashtable>(table.getRowCount());
+
+            for (int row = 0; row < table.getRowCount(); row++) {
+                Hashtable<String, String> rowData = new Hashtable<String, String>();
+
+                for (int column = 0; column < table.getColumnCount(); column++) {
+                    rowData.put(table.getColumnName(column), table.getText(row, column));
+                }
+                rows.add(rowData);
+            }
+            queryResult.put(table.getName(), rows);
+        }
+
+        return (queryResult);
+    }
+
+    /**
+     * The rows of one output parameter
+     */
+    public static class Table {
+        private String name;
+        private String[] columnNames;
+        private Object[] values;
+        private int rowCount = 0;
+
+        private Table(String name, String[] columnNames) {
+            this.name = name;
+            this.columnNames = columnNames;
+            this.values = new Object[columnNames.length * INITIAL_ROW_CAPACITY];
+        }
+
+        /**
+         * Append a row. The values are copied, so the array may be reused by the caller.
+         *
+         * @param rowValues The column values in the order of the column names
+         */
+        public void addRow(Object[] rowValues) {
+            int columnCount = columnNames.length;
+            int offset = rowCount * columnCount;
+
+            if (offset + columnCount > values.length) {
+                Object[] grownValues = new Object[Math.max(values.length * 2, columnCount)];
+
+                System.arraycopy(values, 0, grownValues, 0, offset);
+                values = grownValues;
+            }
+            System.arraycopy(rowValues, 0, values, offset, columnCount);
+            rowCount++;
+        }
+
+        /**
+         * @return The name of the output parameter
+         */
+        public String getName() {
+            return (name);
+        }
+
+        /**
+         * @return The number of columns
+         */
+        public int getColumnCount() {
+            return (columnNames.length);
+        }
+
+        /**
+         * @param column Zero-based column index
+         * @return The column name
+         */
+        public String getColumnName(int column) {
+            return (columnNames[column]);
+        }
+
+        /**
+         * @return The number of rows
+         */
+        public int getRowCount() {
+            return (rowCount);
+        }
+
+        /**
+         * @param row Zero-based row index
+         * @param column Zero-based column index
+         * @return The value as fetched, null for SQL NULL
+         * @see ColumnFetcher
+         */
+        public Object getValue(int row, int column) {
+            if (row >= rowCount) {
+                throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount + " in " + name);
+            }
+
+            return (values[row * columnNames.length + column]);
+        }
+
+        /**
+         * @param row Zero-based row index
+         * @param column Zero-based column index
+         * @return The value as text, "" for SQL NULL
+         * @see ColumnFetcher#toText(Object)
+         */
+        public String getText(int row, int column) {
+            return (ColumnFetcher.toText(getValue(row, column)));
+        }
+    }
+}
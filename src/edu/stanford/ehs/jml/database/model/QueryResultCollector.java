@@ -0,0 +1,90 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.database.model;
+
+import java.util.Hashtable;
+
+/**
+ * QueryResultHandler collecting the complete query result in a QueryResult, the columnar format
+ * expected by the database views.
+ */
+public class QueryResultCollector implements QueryResultHandler {
+    private QueryResult queryResult = new QueryResult();
+    private QueryResult.Table cursorTable = null;
+
+    public void setTypedValues(boolean typedValues) {
+        queryResult.setTypedValues(typedValues);
+    }
+
+    public void start() {
+    }
+
+    /**
+     * Store a simple value as a table with a single column and row. Null values are left out of the
+     * result.
+     */
+    public void simpleValue(String name, Object value) {
+        if (value != null) {
+            queryResult.addTable(name, new String[] { name }).addRow(new Object[] { value });
+        }
+    }
+
+    public void startCursor(String name, String[] columnNames) {
+        cursorTable = queryResult.addTable(name, columnNames);
+    }
+
+    public void cursorRow(Object[] values) {
+        cursorTable.addRow(values);
+    }
+
+    public void endCursor(String name) {
+        cursorTable = null;
+    }
+
+    public void end() {
+    }
+
+    /**
+     * Nothing to report; the caller gets the exception of the failed call and discards the result.
+     */
+    public void error(String message) {
+    }
+
+    /**
+     * @return The collected query result
+     */
+    public QueryResult getResult() {
+        return (queryResult);
+    }
+
+    /**
+     * @return The collected query result in the Hashtable format of earlier releases
+     * @see QueryResult#toHashtable()
+     */
+    public Hashtable getQueryResult() {
+        return (queryResult.toHashtable());
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.database.model;
+
+/**
+ * Receiver of the output of a stored procedure call. Values are passed with the classes produced by
+ * ColumnFetcher: Long, Double, BigDecimal, java.sql.Timestamp, byte[] or String. Query calls the handler while the results are
+ * fetched, so an implementation can either collect the values (QueryResultCollector) or write them
+ * straight to the client without holding the whole result in memory.
+ *
+ * @see edu.stanford.ehs.jml.database.model.oracle.Query#doStoredProcedure(String, String, java.util.Vector, QueryResultHandler)
+ */
+public interface QueryResultHandler {
+
+    /**
+     * Called once before any result is passed to the handler with the setting of the account: true if
+     * views that can tell types apart may write values with their type, false if all values are
+     * written as text, as formatted by ColumnFetcher.toText.
+     *
+     * @param typedValues True if values may be written with their type
+     * @see edu.stanford.ehs.jml.security.model.Account#getTypedJSON()
+     */
+    public void setTypedValues(boolean typedValues);
+
+    /**
+     * Called once before any result is passed to the handler.
+     *
+     * @throws Exception
+     */
+    public void start() throws Exception;
+
+    /**
+     * Receive a simple (non-cursor) output parameter.
+     *
+     * @param name The name of the output parameter
+     * @param value The value, may be null
+     * @throws Exception
+     * @see ColumnFetcher#toText(Object)
+     */
+    public void simpleValue(String name, Object value) throws Exception;
+
+    /**
+     * Called before the rows of an output cursor are passed to the handler.
+     *
+     * @param name The name of the output parameter
+     * @param columnNames The lower case column names of the cursor
+     * @throws Exception
+     */
+    public void startCursor(String name, String[] columnNames) throws Exception;
+
+    /**
+     * Receive one row of the current cursor. The array is reused for the next row, so the handler
+     * must copy the values it wants to keep.
+     *
+     * @param values The column values in the order of the column names, null for SQL NULL
+     * @throws Exception
+     */
+    public void cursorRow(Object[] values) throws Exception;
+
+    /**
+     * Called after the last row of the current cursor.
+     *
+     * @param name The name of the output parameter
+     * @throws Exception
+     */
+    public void endCursor(String name) throws Exception;
+
+    /**
+     * Called once after the last result has been passed to the handler.
+     *
+     * @throws Exception
+     */
+    public void end() throws Exception;
+
+    /**
+     * Called instead of end() when the call failed, possibly in the middle of a cursor. The
+     * handler completes what it has started and reports the error.
+     *
+     * @param message The error message for the client
+     * @throws Exception
+     */
+    public void error(String message) throws Exception;
+}
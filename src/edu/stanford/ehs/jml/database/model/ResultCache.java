@@ -0,0 +1,342 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.database.model;
+
+import edu.stanford.ehs.jml.core.model.CoreConstants;
+import edu.stanford.ehs.jml.util.KeyedValue;
+
+import java.io.File;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Cache of the rendered output of read-only stored procedures. Only the procedures listed in the
+ * stored-procedure-cache element of jml-server.xml are cached, each with its own time-to-live:
+ *
+ * <pre>
+ * &lt;stored-procedure-cache max-size-kb="10240"&gt;
+ *   &lt;procedure name="PACKAGE.GET_BUILDINGS" ttl="3600"/&gt;
+ *   &lt;procedure name="PACKAGE.GET_MY_ROOMS" ttl="300" per-user="true"/&gt;
+ * &lt;/stored-procedure-cache&gt;
+ * </pre>
+ *
+ * Entries are keyed by account, action, procedure, view, parameters and, for doUserStoredProcedure
+ * calls and per-user procedures, the user, and hold the output of the view, so a hit skips both the database and the view. When the cache
+ * exceeds its size the least recently used entries are dropped.
+ */
+public class ResultCache {
+    protected static Logger log = LogManager.getLogger(ResultCache.class.getName());
+
+    private static final long DEFAULT_MAX_SIZE = 10240 * 1024L;
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static ConcurrentHashMap<String, Policy> policies = new ConcurrentHashMap<String, Policy>();
+
+    private static ReentrantLock lock = new ReentrantLock();
+    private static LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private static long maxSize = DEFAULT_MAX_SIZE;
+    private static long size = 0;
+
+    private static AtomicLong hitCount = new AtomicLong();
+    private static AtomicLong missCount = new AtomicLong();
+    private static AtomicLong evictionCount = new AtomicLong();
+    private static AtomicLong expirationCount = new AtomicLong();
+
+    /**
+     * Read the cached procedures from the configuration file. This method is called from the main
+     * initialization class, Server
+     *
+     * @param configFile The JML server configuration file
+     * @see edu.stanford.ehs.jml.core.model.Server
+     */
+    public static void loadSettings(String configFile) {
+        try {
+            DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+            DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
+            Document xmlDocument = docBuilder.parse(new File(configFile));
+
+            xmlDocument.getDocumentElement().normalize();
+
+            ConcurrentHashMap<String, Policy> newPolicies = new ConcurrentHashMap<String, Policy>();
+            long newMaxSize = DEFAULT_MAX_SIZE;
+
+            NodeList cacheList = xmlDocument.getElementsByTagName("stored-procedure-cache");
+            for (int i = 0; i < cacheList.getLength(); i++) {
+                Element cacheElement = (Element)cacheList.item(i);
+
+                if (cacheElement.hasAttribute("max-size-kb")) {
+                    try {
+                        newMaxSize = Long.parseLong(cacheElement.getAttribute("max-size-kb").trim()) * 1024;
+                    } catch (Exception e) {
+                        log.error("Could not set the result cache size. The value in " + configFile + " is " +
+                                  cacheElement.getAttribute("max-size-kb") + ". Setting the default: " +
+                                  (DEFAULT_MAX_SIZE / 1024) + " kb");
+                    }
+                }
+
+                NodeList procedureList = cacheElement.getElementsByTagName("procedure");
+                for (int j = 0; j < procedureList.getLength(); j++) {
+                    Element procedureElement = (Element)procedureList.item(j);
+                    String name = procedureElement.getAttribute("name").trim().toUpperCase();
+
+                    try {
+                        long ttl = Long.parseLong(procedureElement.getAttribute("ttl").trim());
+                        boolean perUser = "true".equalsIgnoreCase(procedureElement.getAttribute("per-user").trim());
+
+                        if (name.length() > 0 && ttl > 0) {
+                            newPolicies.put(name, new Policy(ttl * 1000, perUser));
+                            log.debug("Result cache: " + name + " ttl=" + ttl + "s, per-user=" + perUser);
+                        }
+                    } catch (Exception e) {
+                        log.error("Cannot cache the results of " + name + ": " + e.toString());
+                    }
+                }
+            }
+
+            policies = newPolicies;
+            lock.lock();
+            try {
+                maxSize = newMaxSize;
+                entries.clear();
+                size = 0;
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            log.error("Error in parsing " + configFile + ": " + e.toString());
+        }
+    }
+
+    /**
+     * Build the cache key of a call.
+     *
+     * @param accountId The account that is performing the stored procedure
+     * @param action The action calling the stored procedure
+     * @param storedProcedureName The name of the stored procedure
+     * @param viewName The view that formats the result
+     * @param userId The user, part of the key for doUserStoredProcedure calls and per-user procedures
+     * @param parameters The parameters of the stored procedure
+     * @return The key, or null if the results of the procedure are not cached
+     */
+    public static String getKey(String accountId, String action, String storedProcedureName, String viewName,
+                                String userId, Vector<String> parameters) {
+        if (policies.isEmpty() || storedProcedureName == null) {
+            return (null);
+        }
+
+        String name = storedProcedureName.trim().toUpperCase();
+        Policy policy = policies.get(name);
+
+        if (policy == null) {
+            return (null);
+        }
+
+        // doUserStoredProcedure passes the user to the procedure, so its results always depend on the user
+        boolean perUser = policy.perUser || CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE.equals(action);
+
+        if (perUser && userId == null) {
+            return (null);
+        }
+
+        StringBuffer key = new StringBuffer(64);
+        key.append(accountId).append('\u0000').append(action).append('\u0000').append(name).append('\u0000');
+        key.append(viewName).append('\u0000');
+        if (perUser) {
+            key.append(userId);
+        }
+        for (int i = 0; i < parameters.size(); i++) {
+            String parameter = parameters.get(i);
+
+            key.append('\u0000');
+            key.append(parameter == null ? "\u0001" : parameter);
+        }
+
+        return (key.toString());
+    }
+
+    /**
+     * Look up the output of a call.
+     *
+     * @param key The key built by getKey
+     * @return The output of the view, or null if it is not cached or has expired
+     */
+    public static String get(String key) {
+        String output = null;
+
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+
+            if (entry != null) {
+                if (System.currentTimeMillis() > entry.expires) {
+                    remove(key, entry);
+                    expirationCount.incrementAndGet();
+                } else {
+                    output = entry.output;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (output == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+
+        return (output);
+    }
+
+    /**
+     * Store the output of a call, dropping the least recently used entries if the cache is full.
+     *
+     * @param key The key built by getKey
+     * @param storedProcedureName The name of the stored procedure
+     * @param output The output of the view
+     */
+    public static void put(String key, String storedProcedureName, String output) {
+        Policy policy = policies.get(storedProcedureName.trim().toUpperCase());
+
+        if (policy == null || output == null) {
+            return;
+        }
+
+        Entry entry = new Entry(output, System.currentTimeMillis() + policy.ttl, (key.length() + output.length()) * 2 +
+                                ENTRY_OVERHEAD);
+
+        if (entry.weight > maxSize) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            Entry previous = entries.remove(key);
+            if (previous != null) {
+                size -= previous.weight;
+            }
+
+            entries.put(key, entry);
+            size += entry.weight;
+
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (size > maxSize && eldest.hasNext()) {
+                size -= eldest.next().getValue().weight;
+                eldest.remove();
+                evictionCount.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the cache figures.
+     *
+     * @return Hashtable of KeyedValue objects
+     */
+    public static Hashtable<String, KeyedValue> getStatistics() {
+        Hashtable<String, KeyedValue> statistics = new Hashtable<String, KeyedValue>();
+        int count;
+        long currentSize;
+
+        lock.lock();
+        try {
+            count = entries.size();
+            currentSize = size;
+        } finally {
+            lock.unlock();
+        }
+
+        statistics.put("result-cache-entries",
+                       new KeyedValue("result-cache-entries", "Cached results", String.valueOf(count)));
+        statistics.put("result-cache-size-kb",
+                       new KeyedValue("result-cache-size-kb", "Size of the cached results (kb)",
+                                      String.valueOf(currentSize / 1024)));
+        statistics.put("result-cache-hits",
+                       new KeyedValue("result-cache-hits", "Result cache hits", String.valueOf(hitCount.get())));
+        statistics.put("result-cache-misses",
+                       new KeyedValue("result-cache-misses", "Result cache misses", String.valueOf(missCount.get())));
+        statistics.put("result-cache-evictions",
+                       new KeyedValue("result-cache-evictions", "Results evicted from a full cache",
+                                      String.valueOf(evictionCount.get())));
+        statistics.put("result-cache-expirations",
+                       new KeyedValue("result-cache-expirations", "Results expired",
+                                      String.valueOf(expirationCount.get())));
+
+        return (statistics);
+    }
+
+    private static void remove(String key, Entry entry) {
+        entries.remove(key);
+        size -= entry.weight;
+    }
+
+    /**
+     * The caching settings of one procedure
+     */
+    private static class Policy {
+        long ttl;
+        boolean perUser;
+
+        Policy(long ttl, boolean perUser) {
+            this.ttl = ttl;
+            this.perUser = perUser;
+        }
+    }
+
+    /**
+     * A cached output
+     */
+    private static class Entry {
+        String output;
+        long expires;
+        long weight;
+
+        Entry(String output, long expires, long weight) {
+            this.output = output;
+            this.expires = expires;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.stanford.ehs.jml.database.model;
+
+import edu.stanford.ehs.jml.util.KeyedValue;
+
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalescing of identical concurrent stored procedure calls. The first call of a key runs the query;
+ * calls with the same key arriving while it is in flight wait for it and share its result, or its
+ * exception, instead of running the query again. Only procedures marked single-flight="true" in the
+ * stored procedure whitelist of jml-server.xml are coalesced:
+ *
+ * <pre>
+ * &lt;stored-procedure-whitelist&gt;
+ *   &lt;name single-flight="true"&gt;PACKAGE.GET_MY_ROOMS&lt;/name&gt;
+ * &lt;/stored-procedure-whitelist&gt;
+ * </pre>
+ *
+ * The shared result is read by the views of all callers, so it must not be changed after the query.
+ * Nothing is kept once the call completes; use the ResultCache to keep results.
+ */
+public class SingleFlight {
+    private static ConcurrentHashMap<String, FutureTask<QueryResult>> flights =
+        new ConcurrentHashMap<String, FutureTask<QueryResult>>();
+
+    private static AtomicLong executionCount = new AtomicLong();
+    private static AtomicLong sharedCount = new AtomicLong();
+
+    /**
+     * Build the key of a call.
+     *
+     * @param accountId The account that is performing the stored procedure
+     * @param action The action calling the procedure; doUserStoredProcedure calls are keyed per user
+     * @param storedProcedureName The name of the stored procedure
+     * @param userId The user, only part of the key for doUserStoredProcedure calls
+     * @param parameters The parameters of the stored procedure
+     * @return The key
+     */
+    public static String getKey(String accountId, String action, String storedProcedureName, String userId,
+                                Vector<String> parameters) {
+        StringBuffer key = new StringBuffer(64);
+
+        key.append(accountId).append('\u0000').append(action).append('\u0000');
+        key.append(storedProcedureName.trim().toUpperCase()).append('\u0000');
+        if (userId != null) {
+            key.append(userId);
+        }
+        for (int i = 0; i < parameters.size(); i++) {
+            String parameter = parameters.get(i);
+
+            key.append('\u0000');
+            key.append(parameter == null ? "\u0001" : parameter);
+        }
+
+        return (key.toString());
+    }
+
+    /**
+     * Run the query, or wait for the identical query in flight and share its result.
+     *
+     * @param key The key built by getKey
+     * @param query The query, only called if no identical query is in flight
+     * @return The result of the query
+     * @throws Exception The exception thrown by the query
+     */
+    public static QueryResult execute(String key, Callable<QueryResult> query) throws Exception {
+        FutureTask<QueryResult> flight = new FutureTask<QueryResult>(query);
+        FutureTask<QueryResult> inFlight = flights.putIfAbsent(key, flight);
+
+        if (inFlight == null) {
+            executionCount.incrementAndGet();
+            try {
+                flight.run();
+            } finally {
+                flights.remove(key, flight);
+            }
+            inFlight = flight;
+        } else {
+            sharedCount.incrementAndGet();
+        }
+
+        try {
+            return (inFlight.get());
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+        }
+    }
+
+    /**
+     * Get the coalescing figures.
+     *
+     * @return Hashtable of KeyedValue objects
+     */
+    public static Hashtable<String, KeyedValue> getStatistics() {
+        Hashtable<String, KeyedValue> statistics = new Hashtable<String, KeyedValue>();
+
+        statistics.put("single-flight-in-flight",
+                       new KeyedValue("single-flight-in-flight", "Single-flight calls in flight",
+                                      String.valueOf(flights.size())));
+        statistics.put("single-flight-executions",
+                       new KeyedValue("single-flight-executions", "Single-flight calls executed",
+                                      String.valueOf(executionCount.get())));
+        statistics.put("single-flight-shared",
+                       new KeyedValue("single-flight-shared", "Single-flight calls sharing a call in flight",
+                                      String.valueOf(sharedCount.get())));
+
+        return (statistics);
+    }
+}
@@ -25,11 +25,15 @@
 package edu.stanford.ehs.jml.database.model.mysql;
 
 import edu.stanford.ehs.jml.core.model.CoreConstants;
+import edu.stanford.ehs.jml.database.model.ConnectionPool;
+import edu.stanford.ehs.jml.security.model.Account;
 import edu.stanford.ehs.jml.security.model.SecurityManager;
 
-import javax.sql.PooledConnection;
+import java.sql.SQLException;
 
+import oracle.jdbc.OracleCallableStatement;
 import oracle.jdbc.OracleConnection;
+import oracle.jdbc.OracleStatement;
 import oracle.jdbc.pool.OracleConnectionPoolDataSource;
 
 import org.apache.logging.log4j.Logger;
@@ -49,10 +53,19 @@ public class ConnectionManager {
      */
     public static OracleConnection getOracleConnection(Logger log, String id) throws Exception {
 
-        OracleConnectionPoolDataSource oracleDataSource = SecurityManager.getAccount(id).getConnectionPoolDataSource();
+        Account account = SecurityManager.getAccount(id);
+        OracleConnectionPoolDataSource oracleDataSource = account.getConnectionPoolDataSource();
 
-        PooledConnection pooledConnection = oracleDataSource.getPooledConnection();
-        OracleConnection connection = (OracleConnection)pooledConnection.getConnection();
+        // Borrow a connection from the account's pool; closing it returns it to the pool
+        OracleConnection connection = (OracleConnection)account.getConnectionPool().getConnection();
+
+        // Enable the implicit statement cache once per physical connection; it is sized by the
+        // MaxStatementsLimit connection property and shared by all logical handles of that connection
+        int statementCacheSize = account.getConnectionPool().getStatementCacheSize();
+        if (statementCacheSize > 0 && !connection.getImplicitCachingEnabled()) {
+            connection.setStatementCacheSize(statementCacheSize);
+            connection.setImplicitCachingEnabled(true);
+        }
 
         if (log.isDebugEnabled()) {
             log.debug("Is the connection null? " + (connection == null));
@@ -110,4 +123,26 @@ public class ConnectionManager {
         return (connection);
     }
 
+    /**
+     * Prepare a call through the connection's statement cache and count whether it was served from
+     * the cache
+     *
+     * @param connection A connection obtained from getOracleConnection
+     * @param id The account id
+     * @param sql The call string
+     * @return The callable statement; closing it returns it to the statement cache
+     * @throws SQLException
+     */
+    public static OracleCallableStatement prepareCall(OracleConnection connection, String id,
+                                                      String sql) throws SQLException {
+        OracleCallableStatement callableStatement = (OracleCallableStatement)connection.prepareCall(sql);
+        ConnectionPool connectionPool = SecurityManager.getAccount(id).getConnectionPool();
+
+        if (connectionPool.getStatementCacheSize() > 0) {
+            connectionPool.recordStatementCacheLookup(callableStatement.creationState() != OracleStatement.NEW);
+        }
+
+        return (callableStatement);
+    }
+
 }
@@ -24,15 +24,16 @@
 
 package edu.stanford.ehs.jml.database.model.mysql;
 
+import edu.stanford.ehs.jml.database.model.ProcedureSignature;
+import edu.stanford.ehs.jml.database.model.ProcedureSignatureCache;
 import edu.stanford.ehs.jml.security.model.SecurityManager;
 
-import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
-import java.sql.Types;
 
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -168,7 +169,6 @@ public class Query {
                                               Vector parameters) throws Exception {
         OracleConnection connection = null;
         OracleCallableStatement callableStatement = null;
-        OracleDatabaseMetaData databaseMetaData = null;
         int thisColumnType;
         int thisDataType;
         String thisColumnName;
@@ -187,70 +187,30 @@ public class Query {
             // Get the Oracle connection
             connection = ConnectionManager.getOracleConnection(log, client);
 
-            // Get the meta information about the stored procedure's columns in
-            // order to get the output columns as well as registering the input
-            // and output data
-            databaseMetaData = (OracleDatabaseMetaData)connection.getMetaData();
-
-            // Derive the catalog and name pattern from the name of the
-            // stored procedure
-            String procedureCatalog = null;
-            String procedureNamePattern = storedProcedureName;
-            String procedureSchema = null;
-            int procedureProcedureSearchIndex = procedureNamePattern.lastIndexOf('.');
-
-            if (procedureProcedureSearchIndex != -1) {
-
-                int procedureSchemaSearchIndex = procedureNamePattern.indexOf('.');
-
-                if (procedureSchemaSearchIndex == procedureProcedureSearchIndex) {
-                    procedureCatalog = storedProcedureName.substring(0, procedureProcedureSearchIndex);
-                    procedureNamePattern = storedProcedureName.substring(procedureProcedureSearchIndex + 1);
-                } else {
-                    procedureSchema = storedProcedureName.substring(0, procedureSchemaSearchIndex);
-                    procedureCatalog =
-                            storedProcedureName.substring(procedureSchemaSearchIndex + 1, procedureProcedureSearchIndex);
-                    procedureNamePattern = storedProcedureName.substring(procedureProcedureSearchIndex + 1);
-                }
-            }
-            if (procedureSchema == null) {
-                procedureSchema = databaseMetaData.getUserName();
+            // Look up the signature of the stored procedure. The data dictionary is only
+            // queried when the signature is not in the account's cache yet
+            ProcedureSignatureCache procedureCache = SecurityManager.getAccount(client).getProcedureCache();
+            ProcedureSignature signature = procedureCache.get(storedProcedureName);
+
+            if (signature == null) {
+                signature = getProcedureSignature(connection, storedProcedureName);
+                procedureCache.put(signature);
             }
 
-            // Get the parameters of the stored procedure
-            ResultSet metaDataResultSet =
-                databaseMetaData.getProcedureColumns(procedureCatalog, procedureSchema, procedureNamePattern, "%");
-
-            // Find the number of parameters for the stored procedure
-            log.debug("Calculating the exact number of parameters for the stored procedure");
-            int numberOfParameters = 0;
-            while (metaDataResultSet.next())
-                numberOfParameters++;
-            metaDataResultSet =
-                    databaseMetaData.getProcedureColumns(procedureCatalog, procedureSchema, procedureNamePattern,
-                                                         "%"); // Reset result set
-
-            // Build the SQL string
-            sqlString.append("BEGIN ");
-            sqlString.append(storedProcedureName);
-            sqlString.append("(");
-            for (int i = 0; i < numberOfParameters - 1; i++)
-                sqlString.append("?,");
-            if (parameters.size() > 0)
-                sqlString.append("?");
-            sqlString.append("); END;");
+            int numberOfParameters = signature.getNumberOfParameters();
+            sqlString.append(signature.getCallString());
 
             // Prepare the statement
-            callableStatement = (OracleCallableStatement)connection.prepareCall(sqlString.toString());
+            callableStatement = ConnectionManager.prepareCall(connection, client, sqlString.toString());
 
             // Set query timeout to two minutes which will prevent the server to freeze up
             // due to badly formatted queries
             callableStatement.setQueryTimeout(QUERY_TIME_OUT);
 
             if (log.isDebugEnabled()) {
-                log.debug("procedureSchema=" + procedureSchema);
-                log.debug("procedureCatalog=" + procedureCatalog);
-                log.debug("procedureNamePattern=" + procedureNamePattern);
+                log.debug("procedureSchema=" + signature.getProcedureSchema());
+                log.debug("procedureCatalog=" + signature.getProcedureCatalog());
+                log.debug("procedureNamePattern=" + signature.getProcedureNamePattern());
                 log.debug("Found " + numberOfParameters + " parameters.");
                 log.debug("Time-out: " + callableStatement.getQueryTimeout() + " seconds");
                 log.debug("SQL string: " + sqlString.toString());
@@ -258,20 +218,17 @@ public class Query {
                 log.info("Stored procedure/function: " + storedProcedureName);
             }
 
-            boolean moreRecords = metaDataResultSet.next();
-            int columnCounter = 1;
-            while (moreRecords) {
+            for (int columnCounter = 1; columnCounter <= numberOfParameters; columnCounter++) {
 
                 // Get the column information
-                thisColumnType = metaDataResultSet.getInt("COLUMN_TYPE");
-                thisDataType = metaDataResultSet.getInt("DATA_TYPE");
-                thisColumnName = metaDataResultSet.getString("COLUMN_NAME");
+                thisColumnType = signature.getColumnType(columnCounter - 1);
+                thisDataType = signature.getDataType(columnCounter - 1);
+                thisColumnName = signature.getColumnName(columnCounter - 1);
                 log.debug(thisColumnName + " = (" + thisColumnType + ", " + thisDataType + ")");
                 columnNames.add(thisColumnName);
 
                 // Set input parameters with values
-                if ((thisColumnType == ParameterMetaData.parameterModeInOut) ||
-                    (thisColumnType == ParameterMetaData.parameterModeIn)) {
+                if (signature.isInput(columnCounter - 1)) {
                     if (parameters.size() >= columnCounter) {
                         if (parameters.get(columnCounter - 1) != null) {
                             log.info("Set input parameter " + columnCounter + " with " +
@@ -282,11 +239,10 @@ public class Query {
                 }
 
                 // Register output parameters
-                if ((thisColumnType == ParameterMetaData.parameterModeInOut) ||
-                    (thisColumnType == ParameterMetaData.parameterModeOut)) {
+                if (signature.isOutput(columnCounter - 1)) {
 
                     // Deal with CURSOR return values
-                    if (thisDataType == Types.OTHER) {
+                    if (signature.isCursor(columnCounter - 1)) {
                         outputCursor.add(thisColumnName);
                         log.debug("Register out parameter " + columnCounter + " with CURSOR");
                         callableStatement.registerOutParameter(columnCounter, OracleTypes.CURSOR);
@@ -298,9 +254,6 @@ public class Query {
                         callableStatement.registerOutParameter(columnCounter, OracleTypes.VARCHAR);
                     }
                 }
-
-                moreRecords = metaDataResultSet.next();
-                columnCounter++;
             }
 
             // ----------------------------------------------
@@ -394,39 +347,52 @@ public class Query {
         } catch (Exception e) {
             log.error(e.toString());
 
-            SQLWarning sqlConnectionWarning = connection.getWarnings();
-            while (sqlConnectionWarning != null) {
-                log.error("SQLState: " + sqlConnectionWarning.getSQLState());
-                log.error("Message: " + sqlConnectionWarning.getMessage());
-                log.error("Vendor: " + sqlConnectionWarning.getErrorCode());
-                sqlConnectionWarning = sqlConnectionWarning.getNextWarning();
-            }
+            // The connection or the statement is null if the error occurred before it was obtained
+            try {
+                SQLWarning sqlConnectionWarning = (connection != null ? connection.getWarnings() : null);
+                while (sqlConnectionWarning != null) {
+                    log.error("SQLState: " + sqlConnectionWarning.getSQLState());
+                    log.error("Message: " + sqlConnectionWarning.getMessage());
+                    log.error("Vendor: " + sqlConnectionWarning.getErrorCode());
+                    sqlConnectionWarning = sqlConnectionWarning.getNextWarning();
+                }
 
-            SQLWarning sqlCallableStatementWarning = callableStatement.getWarnings();
-            while (sqlCallableStatementWarning != null) {
-                log.error("SQLState: " + sqlCallableStatementWarning.getSQLState());
-                log.error("Message: " + sqlCallableStatementWarning.getMessage());
-                log.error("Vendor: " + sqlCallableStatementWarning.getErrorCode());
-                sqlCallableStatementWarning = sqlCallableStatementWarning.getNextWarning();
+                SQLWarning sqlCallableStatementWarning =
+                    (callableStatement != null ? callableStatement.getWarnings() : null);
+                while (sqlCallableStatementWarning != null) {
+                    log.error("SQLState: " + sqlCallableStatementWarning.getSQLState());
+                    log.error("Message: " + sqlCallableStatementWarning.getMessage());
+                    log.error("Vendor: " + sqlCallableStatementWarning.getErrorCode());
+                    sqlCallableStatementWarning = sqlCallableStatementWarning.getNextWarning();
+                }
+            } catch (Exception warningException) {
+                log.warn("Was not able to read the warnings. " + warningException.toString());
             }
-        }
+        } finally {
 
-        // House cleaning
-        try {
-            connection.close();
-            connection = null;
-        } catch (Exception e) {
-            log.warn("Was not able to close connection. " + e.toString());
-        }
-        try {
-            callableStatement.close();
-        } catch (Exception e) {
-            log.warn("Was not able to close callableStatement. " + e.toString());
-        }
-        try {
-            cursorResultSet.close();
-        } catch (Exception e) {
-            log.warn("Was not able to close cursorResultSet. " + e.toString());
+            // House cleaning; the connection goes back to the pool last, whatever happened above
+            if (cursorResultSet != null) {
+                try {
+                    cursorResultSet.close();
+                } catch (Exception e) {
+                    log.warn("Was not able to close cursorResultSet. " + e.toString());
+                }
+            }
+            if (callableStatement != null) {
+                try {
+                    callableStatement.close();
+                } catch (Exception e) {
+                    log.warn("Was not able to close callableStatement. " + e.toString());
+                }
+            }
+            if (connection != null) {
+                try {
+                    connection.close();
+                    connection = null;
+                } catch (Exception e) {
+                    log.warn("Was not able to close connection. " + e.toString());
+                }
+            }
         }
         outputSimpleValue = null;
         outputCursor = null;
@@ -435,4 +401,80 @@ public class Query {
 
         return (queryResult);
     }
+
+    /**
+     * Resolve the signature of a stored procedure from the database meta data.
+     *
+     * @param connection The connection to read the meta data from
+     * @param storedProcedureName The name of the stored procedure including the catalog name and package name, if needed
+     * @return The resolved signature
+     * @throws SQLException
+     */
+    protected static ProcedureSignature getProcedureSignature(OracleConnection connection,
+                                                              String storedProcedureName) throws SQLException {
+        OracleDatabaseMetaData databaseMetaData = (OracleDatabaseMetaData)connection.getMetaData();
+
+        // Derive the catalog and name pattern from the name of the
+        // stored procedure
+        String procedureCatalog = null;
+        String procedureNamePattern = storedProcedureName;
+        String procedureSchema = null;
+        int procedureProcedureSearchIndex = procedureNamePattern.lastIndexOf('.');
+
+        if (procedureProcedureSearchIndex != -1) {
+
+            int procedureSchemaSearchIndex = procedureNamePattern.indexOf('.');
+
+            if (procedureSchemaSearchIndex == procedureProcedureSearchIndex) {
+                procedureCatalog = storedProcedureName.substring(0, procedureProcedureSearchIndex);
+                procedureNamePattern = storedProcedureName.substring(procedureProcedureSearchIndex + 1);
+            } else {
+                procedureSchema = storedProcedureName.substring(0, procedureSchemaSearchIndex);
+                procedureCatalog =
+                        storedProcedureName.substring(procedureSchemaSearchIndex + 1, procedureProcedureSearchIndex);
+                procedureNamePattern = storedProcedureName.substring(procedureProcedureSearchIndex + 1);
+            }
+        }
+        if (procedureSchema == null) {
+            procedureSchema = databaseMetaData.getUserName();
+        }
+
+        // Get the parameters of the stored procedure in one pass
+        ResultSet metaDataResultSet =
+            databaseMetaData.getProcedureColumns(procedureCatalog, procedureSchema, procedureNamePattern, "%");
+
+        ProcedureSignature signature = null;
+        try {
+            signature =
+                new ProcedureSignature(storedProcedureName, procedureSchema, procedureCatalog, procedureNamePattern,
+                                       metaDataResultSet);
+        } finally {
+            try {
+                metaDataResultSet.close();
+            } catch (Exception e) {
+                log.warn("Was not able to close resultset. " + e.toString());
+            }
+        }
+
+        // A procedure without parameters has no parameter meta data either, so check that the name
+        // resolved before the empty signature is called or cached
+        if (signature.getNumberOfParameters() == 0) {
+            ResultSet procedureResultSet =
+                databaseMetaData.getProcedures(procedureCatalog, procedureSchema, procedureNamePattern);
+
+            try {
+                if (!procedureResultSet.next()) {
+                    throw new SQLException("Stored procedure " + storedProcedureName + " not found");
+                }
+            } finally {
+                try {
+                    procedureResultSet.close();
+                } catch (Exception e) {
+                    log.warn("Was not able to close resultset. " + e.toString());
+                }
+            }
+        }
+
+        return (signature);
+    }
 }
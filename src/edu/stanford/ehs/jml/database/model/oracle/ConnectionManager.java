@@ -25,12 +25,17 @@
 package edu.stanford.ehs.jml.database.model.oracle;
 
 import edu.stanford.ehs.jml.core.model.CoreConstants;
+import edu.stanford.ehs.jml.database.model.ConnectionPool;
+import edu.stanford.ehs.jml.security.model.Account;
 import edu.stanford.ehs.jml.security.model.SecurityManager;
-import edu.stanford.ehs.jml.database.model.Constants;
 
-import javax.sql.PooledConnection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
 
+import oracle.jdbc.OracleCallableStatement;
 import oracle.jdbc.OracleConnection;
+import oracle.jdbc.OracleStatement;
 import oracle.jdbc.pool.OracleConnectionPoolDataSource;
 
 import org.apache.logging.log4j.Logger;
@@ -40,6 +45,109 @@ import org.apache.logging.log4j.Logger;
  */
 public class ConnectionManager {
 
+    // Oracle driver error code of an I/O error on the connection
+    private static final int ORACLE_IO_ERROR = 17002;
+
+    // The connection pinned to the current thread by pinConnection, if any
+    private static ThreadLocal<PinnedConnection> pinnedConnection = new ThreadLocal<PinnedConnection>();
+
+    /**
+     * Pin a connection of the account to the current thread. Until unpinConnection is called, every
+     * getOracleConnection for the account on this thread returns the same connection, and
+     * releaseConnection leaves it open. The connection is borrowed from the pool on first use.
+     *
+     * @param log A logger object
+     * @param id The account id
+     */
+    public static void pinConnection(Logger log, String id) {
+        unpinConnection(log);
+        pinnedConnection.set(new PinnedConnection(id));
+    }
+
+    /**
+     * Return the connection pinned to the current thread to the pool.
+     *
+     * @param log A logger object
+     */
+    public static void unpinConnection(Logger log) {
+        PinnedConnection pin = pinnedConnection.get();
+
+        pinnedConnection.remove();
+        if (pin != null && pin.connection != null) {
+            try {
+                pin.connection.close();
+            } catch (SQLException e) {
+                log.warn("Was not able to close the pinned connection. " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Check whether a connection of the account is pinned to the current thread.
+     *
+     * @param id The account id
+     * @return True if pinConnection was called for the account and the connection is not unpinned yet
+     */
+    public static boolean isConnectionPinned(String id) {
+        PinnedConnection pin = pinnedConnection.get();
+
+        return (pin != null && pin.id.equals(id));
+    }
+
+    /**
+     * Check whether a call failed because its connection is broken: the connection was lost or
+     * refused, or an I/O error occurred on it. Errors of the statement leave the connection usable.
+     *
+     * @param e The exception of the call
+     * @return True if the connection should not be used again
+     */
+    public static boolean isConnectionFailure(Exception e) {
+        if (!(e instanceof SQLException)) {
+            return (false);
+        }
+
+        SQLException sqlException = (SQLException)e;
+        String sqlState = sqlException.getSQLState();
+
+        return (sqlException instanceof SQLNonTransientConnectionException ||
+                sqlException instanceof SQLRecoverableException || (sqlState != null && sqlState.startsWith("08")) ||
+                sqlException.getErrorCode() == ORACLE_IO_ERROR);
+    }
+
+    /**
+     * Remove a broken connection obtained from getOracleConnection from the pool instead of returning
+     * it. If it is pinned to the current thread, the pin stays in place and the next
+     * getOracleConnection for the account borrows a new connection.
+     *
+     * @param log A logger object
+     * @param id The account id
+     * @param connection The connection
+     */
+    public static void discardConnection(Logger log, String id, OracleConnection connection) {
+        PinnedConnection pin = pinnedConnection.get();
+
+        if (pin != null && pin.connection == connection) {
+            log.debug("Discarding the connection pinned to this thread");
+            pin.connection = null;
+        }
+        SecurityManager.getAccount(id).getConnectionPool().discardConnection(connection);
+    }
+
+    /**
+     * Return a connection obtained from getOracleConnection to the pool, unless it is pinned to the
+     * current thread.
+     *
+     * @param connection The connection
+     * @throws SQLException
+     */
+    public static void releaseConnection(OracleConnection connection) throws SQLException {
+        PinnedConnection pin = pinnedConnection.get();
+
+        if (pin == null || pin.connection != connection) {
+            connection.close();
+        }
+    }
+
     /**
      * Return an Oracle connection from the specified account
      *
@@ -49,10 +157,26 @@ public class ConnectionManager {
      * @throws Exception
      */
     public static OracleConnection getOracleConnection(Logger log, String id) throws Exception {
-        OracleConnectionPoolDataSource oracleDataSource = SecurityManager.getAccount(id).getConnectionPoolDataSource();
-        oracleDataSource.setLoginTimeout(Constants.DATABASE_LOGIN_TIMEOUT);
-        PooledConnection pooledConnection = oracleDataSource.getPooledConnection();
-        OracleConnection connection = (OracleConnection)pooledConnection.getConnection();
+        PinnedConnection pin = pinnedConnection.get();
+
+        if (pin != null && pin.connection != null && pin.id.equals(id)) {
+            log.debug("Using the connection pinned to this thread");
+            return (pin.connection);
+        }
+
+        Account account = SecurityManager.getAccount(id);
+        OracleConnectionPoolDataSource oracleDataSource = account.getConnectionPoolDataSource();
+
+        // Borrow a connection from the account's pool; closing it returns it to the pool
+        OracleConnection connection = (OracleConnection)account.getConnectionPool().getConnection();
+
+        // Enable the implicit statement cache once per physical connection; it is sized by the
+        // MaxStatementsLimit connection property and shared by all logical handles of that connection
+        int statementCacheSize = account.getConnectionPool().getStatementCacheSize();
+        if (statementCacheSize > 0 && !connection.getImplicitCachingEnabled()) {
+            connection.setStatementCacheSize(statementCacheSize);
+            connection.setImplicitCachingEnabled(true);
+        }
 
         if (log.isDebugEnabled()) {
             log.debug("Is the connection null? " + (connection == null));
@@ -109,7 +233,44 @@ public class ConnectionManager {
             }
         }
 
+        if (pin != null && pin.id.equals(id)) {
+            pin.connection = connection;
+        }
+
         return (connection);
     }
 
+    /**
+     * Prepare a call through the connection's statement cache and count whether it was served from
+     * the cache
+     *
+     * @param connection A connection obtained from getOracleConnection
+     * @param id The account id
+     * @param sql The call string
+     * @return The callable statement; closing it returns it to the statement cache
+     * @throws SQLException
+     */
+    public static OracleCallableStatement prepareCall(OracleConnection connection, String id,
+                                                      String sql) throws SQLException {
+        OracleCallableStatement callableStatement = (OracleCallableStatement)connection.prepareCall(sql);
+        ConnectionPool connectionPool = SecurityManager.getAccount(id).getConnectionPool();
+
+        if (connectionPool.getStatementCacheSize() > 0) {
+            connectionPool.recordStatementCacheLookup(callableStatement.creationState() != OracleStatement.NEW);
+        }
+
+        return (callableStatement);
+    }
+
+    /**
+     * A connection pinned to a thread, borrowed on first use
+     */
+    private static class PinnedConnection {
+        private String id;
+        private OracleConnection connection = null;
+
+        private PinnedConnection(String id) {
+            this.id = id;
+        }
+    }
 }
@@ -24,15 +24,18 @@
 
 package edu.stanford.ehs.jml.database.model.oracle;
 
+import edu.stanford.ehs.jml.database.model.ColumnFetcher;
+import edu.stanford.ehs.jml.database.model.ProcedureSignature;
+import edu.stanford.ehs.jml.database.model.ProcedureSignatureCache;
+import edu.stanford.ehs.jml.database.model.QueryOptions;
+import edu.stanford.ehs.jml.database.model.QueryResultCollector;
+import edu.stanford.ehs.jml.database.model.QueryResultHandler;
 import edu.stanford.ehs.jml.security.model.SecurityManager;
 
-import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLWarning;
 import java.sql.Statement;
-import java.sql.Types;
 import java.sql.SQLException;
 
 import java.util.Enumeration;
@@ -48,8 +51,6 @@ import oracle.jdbc.OracleTypes;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.sun.rowset.CachedRowSetImpl;
-
 
 /**
  * The Query model class contain all implementations of database operations
@@ -64,10 +65,6 @@ public class Query {
     private static int SP_MIN_COLUMN_NAME = 20; // EMAN parameters for the stored procedure
     private static int SP_MIN_OUTPUT_SIMPLE_VALUE = 20; // EMAN simple value in the stored procedure's parameters
     private static int SP_MIN_OUTPUT_CURSOR = 10; // EMAN output cursors in the stored procedure's parameters
-    private static int SP_MIN_RESULT_ROW = 10;
-    private static int SP_MIN_RESULT_ITEM = 10;
-    private static int SP_MIN_QUERY_RESULT_SIMPLE = 50; // EMAN returned rows of simple values, not counting cursors
-    private static int SP_MIN_QUERY_RESULT_CURSOR = 50; // EMAN returned rows in any returned cursor
     
     /**
      * Query all database accounts with the specified query
@@ -157,6 +154,27 @@ public class Query {
         return (doStoredProcedure(client, storedProcedureName, parameters));
     }
 
+    /**
+     * Execute a stored procedure with the specified parameter set including the specified client/account and user name
+     * as parameter 1 and 2, passing the results to the handler while they are fetched.
+     *
+     * @param client The account id
+     * @param userName The user id
+     * @param storedProcedureName The name of the stored procedure including the catalog name and package name, if needed
+     * @param parameters The parameters for the stored procedure.
+     * @param resultHandler The receiver of the results
+     * @throws Exception
+     * @see #doStoredProcedure(String, String, Vector, QueryResultHandler)
+     */
+    public static void doUserStoredProcedure(String client, String userName, String storedProcedureName,
+                                             Vector<String> parameters,
+                                             QueryResultHandler resultHandler) throws Exception {
+
+        parameters.insertElementAt(userName, 0);
+        parameters.insertElementAt(client, 0);
+        doStoredProcedure(client, storedProcedureName, parameters, resultHandler);
+    }
+
     /**
      * Execute a stored procedure with the specified parameter set
      *
@@ -168,22 +186,44 @@ public class Query {
      */
     public static Hashtable doStoredProcedure(String client, String storedProcedureName,
                                               Vector parameters) throws Exception {
+        QueryResultCollector resultCollector = new QueryResultCollector();
+
+        doStoredProcedure(client, storedProcedureName, parameters, resultCollector);
+
+        return (resultCollector.getQueryResult());
+    }
+
+    /**
+     * Execute a stored procedure with the specified parameter set and pass the output parameters to the
+     * handler. Cursor rows are handed over one at a time as they are fetched, so the handler decides
+     * whether the result is kept in memory. The start(), end() and error() methods of the handler are
+     * left to the caller.
+     *
+     * @param client The account id
+     * @param storedProcedureName The name of the stored procedure including the catalog name and package name, if needed
+     * @param parameters The parameters for the stored procedure.
+     * @param resultHandler The receiver of the results
+     * @throws Exception If the call failed; the handler may have received part of the result
+     */
+    public static void doStoredProcedure(String client, String storedProcedureName, Vector parameters,
+                                         QueryResultHandler resultHandler) throws Exception {
         OracleConnection connection = null;
         OracleCallableStatement callableStatement = null;
-        OracleDatabaseMetaData databaseMetaData = null;
         int thisColumnType;
         int thisDataType;
         String thisColumnName;
         StringBuffer sqlString = new StringBuffer();
-        ResultSet cursorResultSet = null;
-        ResultSetMetaData thisResultSetMetaData = null;
+        Vector<ResultSet> cursorResultSets = new Vector<ResultSet>(SP_MIN_OUTPUT_CURSOR);
         boolean logDBMSOutput = SecurityManager.getAccount(client).getLogDBMSOutput();
+        QueryOptions queryOptions = SecurityManager.getQueryOptions(client, storedProcedureName);
+        int defaultRowPrefetch = QueryOptions.NOT_SET;
+        boolean connectionBroken = false;
 
         Vector<String> columnNames = new Vector<String>(SP_MIN_COLUMN_NAME);
         Vector<String> outputSimpleValue = new Vector<String>(SP_MIN_OUTPUT_SIMPLE_VALUE);
         Vector<String> outputCursor = new Vector<String>(SP_MIN_OUTPUT_CURSOR);
 
-        Hashtable<String, Vector> queryResult = new Hashtable<String, Vector>(SP_MIN_QUERY_RESULT_SIMPLE);
+        resultHandler.setTypedValues(SecurityManager.getAccount(client).getTypedJSON());
 
         try {
 
@@ -193,100 +233,61 @@ public class Query {
             long timerEndGetConnection = System.currentTimeMillis();
             log.info("Time getting connection: " + (timerEndGetConnection - timerStartGetConnection) + " ms");
 
-            // Get the meta information about the stored procedure's columns in
-            // order to get the output columns as well as registering the input
-            // and output data
-            long timerStartGetMetaData= System.currentTimeMillis();
-            databaseMetaData = (OracleDatabaseMetaData)connection.getMetaData();
-            long timerEndGetMetaData= System.currentTimeMillis();
-            log.info("Time getting metadata: " + (timerEndGetMetaData - timerStartGetMetaData) + " ms");
-
-            // Derive the catalog and name pattern from the name of the
-            // stored procedure
-            String procedureCatalog = null;
-            String procedureNamePattern = storedProcedureName;
-            String procedureSchema = null;
-            int procedureProcedureSearchIndex = procedureNamePattern.lastIndexOf('.');
-
-            if (procedureProcedureSearchIndex != -1) {
-
-                int procedureSchemaSearchIndex = procedureNamePattern.indexOf('.');
-                //log.info(procedureNamePattern);
-
-                if (procedureSchemaSearchIndex == procedureProcedureSearchIndex) {
-                    procedureCatalog = storedProcedureName.substring(0, procedureProcedureSearchIndex);
-                    procedureNamePattern = storedProcedureName.substring(procedureProcedureSearchIndex + 1);
-                } else {
-                    procedureSchema = storedProcedureName.substring(0, procedureSchemaSearchIndex);
-                    procedureCatalog =
-                            storedProcedureName.substring(procedureSchemaSearchIndex + 1, procedureProcedureSearchIndex);
-                    procedureNamePattern = storedProcedureName.substring(procedureProcedureSearchIndex + 1);
-                }
-            }
-            if (procedureSchema == null) {
-                procedureSchema = databaseMetaData.getUserName();
+            // Look up the signature of the stored procedure. The data dictionary is only
+            // queried when the signature is not in the account's cache yet
+            ProcedureSignatureCache procedureCache = SecurityManager.getAccount(client).getProcedureCache();
+            ProcedureSignature signature = procedureCache.get(storedProcedureName);
+
+            if (signature == null) {
+                long timerStartGetMetaData = System.currentTimeMillis();
+                signature = getProcedureSignature(connection, storedProcedureName);
+                procedureCache.put(signature);
+                long timerEndGetMetaData = System.currentTimeMillis();
+                log.info("Time getting metadata: " + (timerEndGetMetaData - timerStartGetMetaData) + " ms");
+            } else {
+                log.debug("Using the cached signature for " + storedProcedureName);
             }
-           
-            /* 
-             * Translation of params used for `getColumnMetaData`:
-             * client = account name
-             * procedureSchema = schema name in the database (could be different from the account name)
-             * procedureCatalog = package name
-             * procedureNamePattern = procedure name
-             */
-            // Get the parameters of the stored procedure
-            long timerStartGetColumnMetaData= System.currentTimeMillis();
-            ResultSet metaDataResultSet = getColumnMetaData(client, procedureSchema, procedureCatalog, procedureNamePattern);
-            long timerEndGetColumnMetaData= System.currentTimeMillis();
-            log.debug("Time getting column metadata: " + (timerEndGetColumnMetaData - timerStartGetColumnMetaData) + " ms");
-
-            // Find the number of parameters for the stored procedure
-            log.debug("Calculating the exact number of parameters for the stored procedure");
-            int numberOfParameters = 0;
-            while (metaDataResultSet.next())
-                numberOfParameters++;
-
-            // Move cursor before first record
-            metaDataResultSet.beforeFirst();
-
-            // Build the SQL string
-            sqlString.append("BEGIN ");
-            sqlString.append(storedProcedureName);
-            sqlString.append("(");
-            for (int i = 0; i < numberOfParameters - 1; i++)
-                sqlString.append("?,");
-            if (parameters.size() > 0)
-                sqlString.append("?");
-            sqlString.append("); END;");
+
+            int numberOfParameters = signature.getNumberOfParameters();
+            sqlString.append(signature.getCallString());
 
             // Prepare the statement
-            callableStatement = (OracleCallableStatement)connection.prepareCall(sqlString.toString());
+            callableStatement = ConnectionManager.prepareCall(connection, client, sqlString.toString());
 
             // Set query timeout to two minutes which will prevent the server to freeze up
             // due to badly formatted queries
             callableStatement.setQueryTimeout(QUERY_TIME_OUT);
 
-            log.info("procedureSchema=" + procedureSchema);
-            log.info("procedureCatalog=" + procedureCatalog);
-            log.info("procedureNamePattern=" + procedureNamePattern);
+            // Apply the fetch settings. Cursors take their row prefetch from the connection, so its
+            // default is changed for this call and restored before the connection goes back to the pool
+            if (queryOptions.getFetchSize() != QueryOptions.NOT_SET) {
+                defaultRowPrefetch = connection.getDefaultRowPrefetch();
+                connection.setDefaultRowPrefetch(queryOptions.getFetchSize());
+                callableStatement.setFetchSize(queryOptions.getFetchSize());
+            }
+            if (queryOptions.getLobPrefetchSize() != QueryOptions.NOT_SET) {
+                callableStatement.setLobPrefetchSize(queryOptions.getLobPrefetchSize());
+            }
+
+            log.info("procedureSchema=" + signature.getProcedureSchema());
+            log.info("procedureCatalog=" + signature.getProcedureCatalog());
+            log.info("procedureNamePattern=" + signature.getProcedureNamePattern());
             log.info("Found " + numberOfParameters + " parameters.");
             log.debug("Time-out: " + callableStatement.getQueryTimeout() + " seconds");
+            log.debug("Fetch settings: " + queryOptions);
             log.info("SQL string: " + sqlString.toString());
 
-            boolean moreRecords = metaDataResultSet.next();
-            int columnCounter = 1;
-            while (moreRecords) {
+            for (int columnCounter = 1; columnCounter <= numberOfParameters; columnCounter++) {
 
                 // Get the column information
-                thisColumnType = metaDataResultSet.getInt("COLUMN_TYPE");
-                thisDataType = metaDataResultSet.getInt("DATA_TYPE");
-                thisColumnName = metaDataResultSet.getString("COLUMN_NAME");
+                thisColumnType = signature.getColumnType(columnCounter - 1);
+                thisDataType = signature.getDataType(columnCounter - 1);
+                thisColumnName = signature.getColumnName(columnCounter - 1);
                 log.info(thisColumnName + " = (" + thisColumnType + ", " + thisDataType + ")");
                 columnNames.add(thisColumnName);
 
                 // Set input parameters with values
-                if ((thisColumnType == ParameterMetaData.parameterModeInOut) ||
-                    (thisColumnType == ParameterMetaData.parameterModeIn)) {
+                if (signature.isInput(columnCounter - 1)) {
                     if (parameters.size() >= columnCounter) {
                         if (parameters.get(columnCounter - 1) != null) {
                             log.info("Set input parameter " + columnCounter + " with " +
@@ -297,25 +298,22 @@ public class Query {
                 }
 
                 // Register output parameters
-                if ((thisColumnType == ParameterMetaData.parameterModeInOut) ||
-                    (thisColumnType == ParameterMetaData.parameterModeOut)) {
+                if (signature.isOutput(columnCounter - 1)) {
 
                     // Deal with CURSOR return values
-                    if (thisDataType == Types.OTHER) {
+                    if (signature.isCursor(columnCounter - 1)) {
                         outputCursor.add(thisColumnName);
                         log.debug("Register out parameter " + columnCounter + " with CURSOR");
                         callableStatement.registerOutParameter(columnCounter, OracleTypes.CURSOR);
                     }
                     // Deal with other return values than CURSOR
                     else {
-                        log.debug("Register out parameter " + columnCounter + " with VARCHAR");
+                        int outParameterType = ColumnFetcher.getOutParameterType(thisDataType);
+                        log.debug("Register out parameter " + columnCounter + " with type " + outParameterType);
                         outputSimpleValue.add(thisColumnName);
-                        callableStatement.registerOutParameter(columnCounter, OracleTypes.VARCHAR);
+                        callableStatement.registerOutParameter(columnCounter, outParameterType);
                     }
                 }
-
-                moreRecords = metaDataResultSet.next();
-                columnCounter++;
             }
 
             // ----------------------------------------------
@@ -338,20 +336,18 @@ public class Query {
             // --------------------------------------------------
             log.debug("Step 2: Retrieve the simple value return values");
             String outputSimpleValueElement_Key = null;
-            String outputSimpleValueElement_Value = null;
+            Object outputSimpleValueElement_Value = null;
             Enumeration outputSimpleValueEnumerator = outputSimpleValue.elements();
             while (outputSimpleValueEnumerator.hasMoreElements()) {
                 outputSimpleValueElement_Key = (String)outputSimpleValueEnumerator.nextElement();
 
-                // Save the result
-                Vector<Hashtable> resultRow = new Vector<Hashtable>(SP_MIN_RESULT_ROW);
-                Hashtable<String, String> resultItem = new Hashtable<String, String>(SP_MIN_RESULT_ITEM);
+                // Pass the result to the handler
                 int indexOfValue = columnNames.indexOf(outputSimpleValueElement_Key) + 1;
                 try {
-                    outputSimpleValueElement_Value = callableStatement.getString(indexOfValue);
-                    resultItem.put(outputSimpleValueElement_Key, outputSimpleValueElement_Value);
-                    resultRow.add(resultItem);
-                    queryResult.put(outputSimpleValueElement_Key, resultRow);
+                    outputSimpleValueElement_Value =
+                            ColumnFetcher.getOutParameter(callableStatement, indexOfValue,
+                                                          signature.getDataType(indexOfValue - 1));
+                    resultHandler.simpleValue(outputSimpleValueElement_Key, outputSimpleValueElement_Value);
                 } catch (Exception e) {
                     log.error(e.toString() + " : Error in finding the right index for " +
                               outputSimpleValueElement_Key + ". The index returned was " + indexOfValue);
@@ -365,7 +361,8 @@ public class Query {
             String outputCursorElement_Key = null;
             int outputCursorElement_KeyIndex;
 
-            // Get all the cursors return values in the stored procedure
+            // Open the result sets of all the cursors returned by the stored procedure. Every one of them
+            // is kept in cursorResultSets, so they are all closed in the house cleaning
             Enumeration outputCursorValueEnumerator = outputCursor.elements();
             log.debug("Number of cursors registered: " + outputCursor.size());
             while (outputCursorValueEnumerator.hasMoreElements()) {
@@ -379,41 +376,18 @@ public class Query {
                 log.debug("outputCursorElement_KeyIndex=" + outputCursorElement_KeyIndex);
 
                 // Retrieve the result set for the cursor
-                cursorResultSet = callableStatement.getCursor(outputCursorElement_KeyIndex);
-
-                // Get the names of the columns in the result set of the cursor
-                thisResultSetMetaData = cursorResultSet.getMetaData();
-                int numberOfColums = thisResultSetMetaData.getColumnCount();
-                Vector<String> thisColumnNames = new Vector<String>(numberOfColums);
-                for (int i = 1; i <= numberOfColums; i++) {
-                    thisResultSetMetaData.getColumnName(i).toLowerCase();
-                    thisColumnNames.add(thisResultSetMetaData.getColumnName(i).toLowerCase());
-                }
-                
-                // Get a timestamp from before we start looping through the resultset
-                Date startDate = new Date();
-                
-                // Fetch row by row in the cursor's result set
-                Vector<Hashtable> resultSetVector = new Vector<Hashtable>(SP_MIN_QUERY_RESULT_CURSOR);
-                while (cursorResultSet.next()) {
-                    Hashtable<String, String> rowData = new Hashtable<String, String>(SP_MIN_QUERY_RESULT_CURSOR);
-                    for (int i = 1; i <= numberOfColums; i++) {
-                        try {
-                            rowData.put(thisColumnNames.get(i - 1), cursorResultSet.getString(i));
-                        } catch (Exception e) {
-                            rowData.put(thisColumnNames.get(i - 1), "");
-                        }
-                    }
-                    resultSetVector.add(rowData);
+                ResultSet cursorResultSet = callableStatement.getCursor(outputCursorElement_KeyIndex);
+                cursorResultSets.add(cursorResultSet);
+                if (queryOptions.getFetchSize() != QueryOptions.NOT_SET) {
+                    cursorResultSet.setFetchSize(queryOptions.getFetchSize());
                 }
-                
-                // We're done with the resultset, now get a timestamp from right now, then calculate how long it took
-                Date endDate = new Date();
-                log.debug("Time spent looping through resultset: " + (endDate.getTime() - startDate.getTime()) + " ms");
-                
-                queryResult.put(outputCursorElement_Key, resultSetVector);
             }
-            
+
+            for (int i = 0; i < cursorResultSets.size(); i++) {
+                fetchCursor(outputCursor.get(i), cursorResultSets.get(i), resultHandler);
+                closeCursor(cursorResultSets.get(i));
+            }
+
             // --------------------------------------------------
             // Step 4: Retrieve DBMS output (if it has been enabled for this account)
             // --------------------------------------------------
@@ -425,46 +399,116 @@ public class Query {
         } catch (Exception e) {
             log.error(e.toString());
 
-            SQLWarning sqlConnectionWarning = connection.getWarnings();
-            while (sqlConnectionWarning != null) {
-                log.error("SQLState: " + sqlConnectionWarning.getSQLState());
-                log.error("Message: " + sqlConnectionWarning.getMessage());
-                log.error("Vendor: " + sqlConnectionWarning.getErrorCode());
-                sqlConnectionWarning = sqlConnectionWarning.getNextWarning();
+            // The connection or the statement is null if the error occurred before it was obtained
+            try {
+                SQLWarning sqlConnectionWarning = (connection != null ? connection.getWarnings() : null);
+                while (sqlConnectionWarning != null) {
+                    log.error("SQLState: " + sqlConnectionWarning.getSQLState());
+                    log.error("Message: " + sqlConnectionWarning.getMessage());
+                    log.error("Vendor: " + sqlConnectionWarning.getErrorCode());
+                    sqlConnectionWarning = sqlConnectionWarning.getNextWarning();
+                }
+
+                SQLWarning sqlCallableStatementWarning =
+                    (callableStatement != null ? callableStatement.getWarnings() : null);
+                while (sqlCallableStatementWarning != null) {
+                    log.error("SQLState: " + sqlCallableStatementWarning.getSQLState());
+                    log.error("Message: " + sqlCallableStatementWarning.getMessage());
+                    log.error("Vendor: " + sqlCallableStatementWarning.getErrorCode());
+                    sqlCallableStatementWarning = sqlCallableStatementWarning.getNextWarning();
+                }
+            } catch (Exception warningException) {
+                log.warn("Was not able to read the warnings. " + warningException.toString());
             }
 
-            SQLWarning sqlCallableStatementWarning = callableStatement.getWarnings();
-            while (sqlCallableStatementWarning != null) {
-                log.error("SQLState: " + sqlCallableStatementWarning.getSQLState());
-                log.error("Message: " + sqlCallableStatementWarning.getMessage());
-                log.error("Vendor: " + sqlCallableStatementWarning.getErrorCode());
-                sqlCallableStatementWarning = sqlCallableStatementWarning.getNextWarning();
+            // A broken connection is removed from the pool, so neither the pool nor the next call of a
+            // batch on a pinned connection gets it again
+            connectionBroken = ConnectionManager.isConnectionFailure(e);
+
+            // Let the caller know that the result is incomplete
+            throw e;
+        } finally {
+
+            // House cleaning; the connection goes back to the pool last, whatever happened above
+            for (int i = 0; i < cursorResultSets.size(); i++) {
+                closeCursor(cursorResultSets.get(i));
+            }
+            if (callableStatement != null) {
+                try {
+                    callableStatement.close();
+                } catch (Exception e) {
+                    log.warn("Was not able to close callableStatement. " + e.toString());
+                }
+            }
+            if (connection != null && connectionBroken) {
+                ConnectionManager.discardConnection(log, client, connection);
+                connection = null;
+            } else if (connection != null) {
+                if (defaultRowPrefetch != QueryOptions.NOT_SET) {
+                    try {
+                        connection.setDefaultRowPrefetch(defaultRowPrefetch);
+                    } catch (Exception e) {
+                        log.warn("Was not able to restore the default row prefetch. " + e.toString());
+                    }
+                }
+                try {
+                    ConnectionManager.releaseConnection(connection);
+                    connection = null;
+                } catch (Exception e) {
+                    log.warn("Was not able to close connection. " + e.toString());
+                }
             }
         }
+        outputSimpleValue = null;
+        outputCursor = null;
+        columnNames = null;
+        sqlString = null;
+    }
 
-        // House cleaning
-        try {
-            connection.close();
-            connection = null;
-        } catch (Exception e) {
-            log.warn("Was not able to close connection. " + e.toString());
-        }
-        try {
-            callableStatement.close();
-        } catch (Exception e) {
-            log.warn("Was not able to close callableStatement. " + e.toString());
+    /**
+     * Fetch the rows of a cursor and hand them over to the handler.
+     *
+     * @param name The name of the cursor parameter
+     * @param cursorResultSet The result set of the cursor
+     * @param resultHandler The receiver of the rows
+     * @throws Exception
+     */
+    private static void fetchCursor(String name, ResultSet cursorResultSet,
+                                    QueryResultHandler resultHandler) throws Exception {
+
+        // Get the names and types of the columns in the result set of the cursor
+        ColumnFetcher columnFetcher = new ColumnFetcher(cursorResultSet.getMetaData());
+        String[] thisColumnNames = columnFetcher.getColumnNames();
+
+        // Get a timestamp from before we start looping through the resultset
+        Date startDate = new Date();
+
+        // Fetch row by row in the cursor's result set and hand each row over to the
+        // handler. The row array is reused, so only the current row is held here
+        resultHandler.startCursor(name, thisColumnNames);
+        Object[] rowData = new Object[thisColumnNames.length];
+        int rowCount = 0;
+        while (cursorResultSet.next()) {
+            columnFetcher.fetch(cursorResultSet, rowData);
+            resultHandler.cursorRow(rowData);
+            rowCount++;
         }
+        resultHandler.endCursor(name);
+
+        // We're done with the resultset, now get a timestamp from right now, then calculate how long it took
+        Date endDate = new Date();
+        log.debug("Time spent looping through resultset " + name + " (" + rowCount + " rows): " +
+                  (endDate.getTime() - startDate.getTime()) + " ms");
+    }
+
+    private static void closeCursor(ResultSet cursorResultSet) {
         try {
-            cursorResultSet.close();
+            if (!cursorResultSet.isClosed()) {
+                cursorResultSet.close();
+            }
         } catch (Exception e) {
             log.warn("Was not able to close cursorResultSet. " + e.toString());
         }
-        outputSimpleValue = null;
-        outputCursor = null;
-        columnNames = null;
-        sqlString = null;
-
-        return (queryResult);
     }
     
     /**
@@ -524,27 +568,51 @@ public class Query {
     }
     
     /**
-     * Query column metadata
+     * Resolve the signature of a stored procedure from the data dictionary.
      *
-     * @param account_name The account name
-     * @param schema Schema name in the database (could be different from the account name)
-     * @param package_name Package name
-     * @param proc_name Procedure name
+     * @param connection The connection to query the data dictionary on
+     * @param storedProcedureName The name of the stored procedure including the catalog name and package name, if needed
+     * @return The resolved signature
+     * @throws SQLException
      */
-    protected static ResultSet getColumnMetaData(String account_name, String schema, String package_name, String proc_name) {
+    protected static ProcedureSignature getProcedureSignature(OracleConnection connection,
+                                                              String storedProcedureName) throws SQLException {
         ResultSet resultSet = null;
-        OracleConnection connection = null;
-        CachedRowSetImpl rowset = null;
-
         PreparedStatement ps = null;
-        
+
+        // Derive the catalog and name pattern from the name of the
+        // stored procedure
+        String procedureCatalog = null;
+        String procedureNamePattern = storedProcedureName;
+        String procedureSchema = null;
+        int procedureProcedureSearchIndex = procedureNamePattern.lastIndexOf('.');
+
+        if (procedureProcedureSearchIndex != -1) {
+
+            int procedureSchemaSearchIndex = procedureNamePattern.indexOf('.');
+
+            if (procedureSchemaSearchIndex == procedureProcedureSearchIndex) {
+                procedureCatalog = storedProcedureName.substring(0, procedureProcedureSearchIndex);
+                procedureNamePattern = storedProcedureName.substring(procedureProcedureSearchIndex + 1);
+            } else {
+                procedureSchema = storedProcedureName.substring(0, procedureSchemaSearchIndex);
+                procedureCatalog =
+                        storedProcedureName.substring(procedureSchemaSearchIndex + 1, procedureProcedureSearchIndex);
+                procedureNamePattern = storedProcedureName.substring(procedureProcedureSearchIndex + 1);
+            }
+        }
+        if (procedureSchema == null) {
+            procedureSchema = ((OracleDatabaseMetaData)connection.getMetaData()).getUserName();
+        }
+
         String query = "SELECT argument_name AS column_name," + 
         "       DECODE(position, 0, 5," + 
         "                        DECODE(in_out, 'IN', 1," + 
         "                                       'OUT', 4," + 
         "                                       'IN/OUT', 2," + 
         "                                       0)) AS column_type," + 
-        "       DECODE (data_type, 'CHAR', 1," + 
+        "       DECODE (data_type, NULL, NULL," + 
+        "                          'CHAR', 1," + 
         "                          'VARCHAR2', 12," + 
         "                          'NUMBER', 3," + 
         "                          'LONG', -1," + 
@@ -560,48 +628,58 @@ public class Query {
         "      sequence" + 
         " FROM all_arguments" + 
         " WHERE owner = ? " +
-        "  AND package_name = ? " +
+        (procedureCatalog != null ? "  AND package_name = ? " : "  AND package_name IS NULL ") +
         "  AND object_name = ? " +
         " ORDER BY sequence";
 
+        /* 
+         * Translation of the query parameters:
+         * procedureSchema = schema name in the database (could be different from the account name)
+         * procedureCatalog = package name
+         * procedureNamePattern = procedure name
+         */
         try {
-            log.debug("Quering column metadata for " + account_name + ": Getting connection");
-            connection = ConnectionManager.getOracleConnection(log, account_name);
-            
-            ps = connection.prepareStatement(query, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-            ps.setString(1, schema);
-            ps.setString(2, package_name);
-            ps.setString(3, proc_name);
-            log.debug("Quering column metadata for " + schema + ": Execute query");
-            
+            ps = connection.prepareStatement(query);
+            int parameterIndex = 1;
+            ps.setString(parameterIndex++, procedureSchema);
+            if (procedureCatalog != null) {
+                ps.setString(parameterIndex++, procedureCatalog);
+            }
+            ps.setString(parameterIndex, procedureNamePattern);
+            log.debug("Quering column metadata for " + procedureSchema + ": Execute query");
+
             resultSet = ps.executeQuery();
-            log.debug("Quering column metadata for " + schema + ": Query completed");
+            log.debug("Quering column metadata for " + procedureSchema + ": Query completed");
 
-        } catch (Exception e) {
-            log.error(e.toString());
-        }
-        
-        // ----------------------------------------
-        // House cleaning
-        // ----------------------------------------
-        try {
-            rowset = new CachedRowSetImpl();
-            rowset.populate(resultSet);
-        } catch (SQLException e) {
-            log.warn("Was not able to cache resultset. " + e.toString());
-        }
-        try {
-            connection.close();
-            connection = null;
-        } catch (Exception e) {
-            log.warn("Was not able to close connection. " + e.toString());
-        }
-        try {
-            resultSet.close();
-        } catch (Exception e) {
-            log.warn("Was not able to close resultset. " + e.toString());
+            ProcedureSignature signature =
+                new ProcedureSignature(storedProcedureName, procedureSchema, procedureCatalog, procedureNamePattern,
+                                       resultSet);
+
+            // ALL_ARGUMENTS has a placeholder row even for a procedure without arguments, so no rows
+            // means that the name did not resolve. Such a signature must not be called or cached
+            if (!signature.isResolved()) {
+                throw new SQLException("Stored procedure " + storedProcedureName + " not found");
+            }
+
+            return (signature);
+        } finally {
+            // ----------------------------------------
+            // House cleaning
+            // ----------------------------------------
+            try {
+                if (resultSet != null) {
+                    resultSet.close();
+                }
+            } catch (Exception e) {
+                log.warn("Was not able to close resultset. " + e.toString());
+            }
+            try {
+                if (ps != null) {
+                    ps.close();
+                }
+            } catch (Exception e) {
+                log.warn("Was not able to close prepared statement. " + e.toString());
+            }
         }
-        
-        return rowset;
     }
 }
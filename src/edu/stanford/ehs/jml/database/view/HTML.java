@@ -25,85 +25,81 @@
 package edu.stanford.ehs.jml.database.view;
 
 import edu.stanford.ehs.jml.core.view.HTMLTemplate;
+import edu.stanford.ehs.jml.database.model.Batch;
 import edu.stanford.ehs.jml.database.model.Constants;
+import edu.stanford.ehs.jml.database.model.QueryResult;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Iterator;
-import java.util.Vector;
 
 /**
  * HTML view for database functions
  */
 public class HTML extends HTMLTemplate {
 
+    /**
+     * The doBatch model function is only formatted by the JSON and XML views
+     *
+     * @param batch The calls of the batch with their output
+     * @return HTML formatted error message
+     */
+    public static String doBatch(Batch batch) {
+        return (errorMessage("The doBatch function is only available in the JSON and XML views"));
+    }
+
     /**
      * HTML formatting for the doUserStoredProcedure model function
      *
-     * @param resultSet Hashtable containg the model output
+     * @param queryResult The model output
      * @return XML formatted doUserStoredProcedure Procedure
      * @throws java.sql.SQLException
      */
-    public static String doUserStoredProcedure(Hashtable resultSet) throws Exception {
-        return (doStoredProcedure(resultSet));
+    public static String doUserStoredProcedure(QueryResult queryResult) throws Exception {
+        return (doStoredProcedure(queryResult));
     }
 
     /**
      * HTML formatting for the doStoredProcedure model function
      *
-     * @param resultSet Hashtable containg the model output
+     * @param queryResult The model output
      * @return XML formatted doStoredProcedure Procedure
      * @throws java.sql.SQLException
      */
-    public static String doStoredProcedure(Hashtable resultSet) throws Exception {
+    public static String doStoredProcedure(QueryResult queryResult) throws Exception {
         StringBuffer outputView = new StringBuffer();
 
         addHeader(outputView);
 
         // Browse through the results
-        Enumeration resultSetDataEnumKeys = resultSet.keys();
-        while (resultSetDataEnumKeys.hasMoreElements()) {
-
-            String rowKey = (String)resultSetDataEnumKeys.nextElement(); // the the row name
-            Vector rowSet = (Vector)resultSet.get(rowKey); // get the set of rows
+        for (int t = 0; t < queryResult.size(); t++) {
+            QueryResult.Table table = queryResult.getTable(t);
+            int columnCount = table.getColumnCount();
+            int rowCount = table.getRowCount();
 
             outputView.append("\n\t<table border=\"1\">\n\t<h2>");
-            outputView.append(rowKey);
+            outputView.append(table.getName());
             outputView.append("</h2>");
 
-            Enumeration rows = rowSet.elements();
-
-            if (rows.hasMoreElements()) {
+            // Print the header
+            if (rowCount > 0) {
                 outputView.append("\n\t\t<tr>");
-                Hashtable rowAttributes = (Hashtable)rows.nextElement();
-                Enumeration rowAttributeEnumKeys = rowAttributes.keys();
-
-                while (rowAttributeEnumKeys.hasMoreElements()) {
 
+                for (int column = 0; column < columnCount; column++) {
                     outputView.append("\n\t\t\t<th align=\"left\">");
-                    outputView.append((String)rowAttributeEnumKeys.nextElement());
+                    outputView.append(table.getColumnName(column));
                     outputView.append("</th>");
                 }
 
                 outputView.append("\n\t\t</tr>");
-                rows = rowSet.elements(); // reset elements
             }
 
-            // Print the header
             outputView.append("\n\t\t<tr>");
 
-            while (rows.hasMoreElements()) {
-
-                Hashtable rowAttributes = (Hashtable)rows.nextElement();
-                Enumeration rowAttributeEnumKeys = rowAttributes.keys();
-
-                while (rowAttributeEnumKeys.hasMoreElements()) {
-                    String attributeName = (String)rowAttributeEnumKeys.nextElement();
-                    String attributeValue = (String)rowAttributes.get(attributeName);
+            for (int row = 0; row < rowCount; row++) {
+                for (int column = 0; column < columnCount; column++) {
                     outputView.append("\n\t\t\t<td align=\"left\">");
 
                     try {
-                        outputView.append(attributeValue.trim());
+                        outputView.append(table.getText(row, column).trim());
                     } catch (Exception e) {
                         outputView.append("&nbsp;");
                     }
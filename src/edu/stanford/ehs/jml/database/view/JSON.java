@@ -25,89 +25,142 @@
 package edu.stanford.ehs.jml.database.view;
 
 import edu.stanford.ehs.jml.core.view.JSONTemplate;
+import edu.stanford.ehs.jml.database.model.Batch;
 import edu.stanford.ehs.jml.database.model.Constants;
+import edu.stanford.ehs.jml.database.model.QueryResult;
+import edu.stanford.ehs.jml.database.model.QueryResultHandler;
 
 import edu.stanford.ehs.jml.util.JSONUtil;
 import edu.stanford.ehs.jml.util.XMLUtil;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.io.Writer;
+
 import java.util.Iterator;
-import java.util.Vector;
 
 /**
  * JSON view for database functions
  */
 public class JSON extends JSONTemplate {
 
+    /**
+     * JSON formatting for the doBatch model function. The output of each call is embedded as its
+     * result; a call that produced no output has a null result.
+     *
+     * @param batch The calls of the batch with their output
+     * @return JSON formatted doBatch
+     * @throws Exception
+     */
+    public static String doBatch(Batch batch) throws Exception {
+        StringBuffer outputView = new StringBuffer();
+        addHeader(outputView);
+
+        outputView.append("\"batch\":[");
+        for (int i = 0; i < batch.size(); i++) {
+            Batch.Call call = batch.getCall(i);
+            String callOutput = call.getOutput();
+
+            if (i > 0)
+                outputView.append(",");
+            outputView.append("{\"id\":");
+            JSONUtil.encodeValue(call.getId(), outputView);
+            outputView.append(",\"action\":");
+            JSONUtil.encodeValue(call.getAction(), outputView);
+            outputView.append(",\"proc\":");
+            JSONUtil.encodeValue(call.getStoredProcedureName(), outputView);
+            outputView.append(",\"result\":");
+            outputView.append(callOutput != null && callOutput.trim().length() > 0 ? callOutput : "null");
+            outputView.append("}");
+        }
+        outputView.append("]");
+
+        addFooter(outputView);
+
+        return (outputView.toString());
+    }
+
     /**
      * JSON formatting for the doUserStoredProcedure model function
      *
-     * @param resultSet Hashtable containg the model output
+     * @param queryResult The model output
      * @return JSON formatted doUserStoredProcedure
      * @throws java.sql.SQLException
      */
-    public static String doUserStoredProcedure(Hashtable resultSet) throws Exception {
-        return (doStoredProcedure(resultSet));
+    public static String doUserStoredProcedure(QueryResult queryResult) throws Exception {
+        return (doStoredProcedure(queryResult));
+    }
+
+    /**
+     * Streaming JSON formatting for the doUserStoredProcedure model function
+     *
+     * @param writer The response writer
+     * @return Handler writing the model output to the writer
+     */
+    public static QueryResultHandler doUserStoredProcedureStream(Writer writer) {
+        return (doStoredProcedureStream(writer));
+    }
+
+    /**
+     * Streaming JSON formatting for the doStoredProcedure model function
+     *
+     * @param writer The response writer
+     * @return Handler writing the model output to the writer
+     */
+    public static QueryResultHandler doStoredProcedureStream(Writer writer) {
+        StringBuffer header = new StringBuffer();
+        StringBuffer footer = new StringBuffer();
+
+        addHeader(header);
+        addFooter(footer);
+
+        return (new JSONStreamWriter(writer, header.toString(), footer.toString()));
     }
 
     /**
      * JSON formatting for the doStoredProcedure model function
      *
-     * @param resultSet Hashtable containg the model output
+     * @param queryResult The model output
      * @return JSON formatted doStoredProcedure
      * @throws java.sql.SQLException
      */
-    public static String doStoredProcedure(Hashtable resultSet) throws Exception {
+    public static String doStoredProcedure(QueryResult queryResult) throws Exception {
         StringBuffer outputView = new StringBuffer();
         addHeader(outputView);
         int totalRowCount = 0;
 
         // Browse through the results
-        Enumeration resultSetDataEnumKeys = resultSet.keys();
-        int elementCounter = 0;
-
-        while (resultSetDataEnumKeys.hasMoreElements()) {
-
-            String rowKey = (String)resultSetDataEnumKeys.nextElement(); // the the row name
-            Vector rowSet = (Vector)resultSet.get(rowKey); // get the set of rows
+        for (int t = 0; t < queryResult.size(); t++) {
+            QueryResult.Table table = queryResult.getTable(t);
+            String rowKey = table.getName(); // the the row name
+            int columnCount = table.getColumnCount();
 
-            if (elementCounter > 0)
+            if (t > 0)
                 outputView.append(",");
             outputView.append("\"");
             outputView.append(rowKey);
             outputView.append("-result\":{" + "\"" + rowKey + "\":[");
 
-            Enumeration rows = rowSet.elements();
-            int rowCounter = 0;
-            while (rows.hasMoreElements()) {
-                Hashtable rowAttributes = (Hashtable)rows.nextElement();
-                Enumeration rowAttributeEnumKeys = rowAttributes.keys();
-                if (rowCounter > 0)
+            int rowCount = table.getRowCount();
+            for (int row = 0; row < rowCount; row++) {
+                if (row > 0)
                     outputView.append(",");
                 outputView.append("{\"id\":\"");
-                outputView.append(rowCounter++);
+                outputView.append(row);
                 outputView.append("\"");
-                while (rowAttributeEnumKeys.hasMoreElements()) {
-                    String attributeName = (String)rowAttributeEnumKeys.nextElement();
-                    String attributeValue = (String)rowAttributes.get(attributeName);
-
+                for (int column = 0; column < columnCount; column++) {
                     outputView.append(",\"");
-                    outputView.append(attributeName);
-                    outputView.append("\":\"");
+                    outputView.append(table.getColumnName(column));
+                    outputView.append("\":");
                     try {
-                        outputView.append(JSONUtil.encode(attributeValue));
+                        JSONUtil.encodeValue(table.getValue(row, column), queryResult.isTypedValues(), outputView);
                     } catch (Exception e) {
-                        outputView.append("&nbsp;" + e.toString());
+                        outputView.append("\"&nbsp;" + e.toString() + "\"");
                     }
-                    outputView.append("\"");
                 }
 
                 outputView.append("}");
             }
-            totalRowCount += rowCounter;
+            totalRowCount += rowCount;
             outputView.append("]}");
-            elementCounter++;
         }
 
         addFooter(outputView);
@@ -120,60 +173,49 @@ public class JSON extends JSONTemplate {
     /**
      * JSON formatting for the doStoredProcedure model function
      *
-     * @param resultSet Hashtable containg the model output
+     * @param queryResult The model output
      * @return JSON formatted doStoredProcedure
      * @throws java.sql.SQLException
      */
-    public static String doStoredProcedure_formatted(Hashtable resultSet) throws Exception {
+    public static String doStoredProcedure_formatted(QueryResult queryResult) throws Exception {
         StringBuffer outputView = new StringBuffer();
         addHeader(outputView);
         int totalRowCount = 0;
 
         // Browse through the results
-        Enumeration resultSetDataEnumKeys = resultSet.keys();
-        int elementCounter = 0;
-
-        while (resultSetDataEnumKeys.hasMoreElements()) {
+        for (int t = 0; t < queryResult.size(); t++) {
+            QueryResult.Table table = queryResult.getTable(t);
+            String rowKey = table.getName(); // the the row name
+            int columnCount = table.getColumnCount();
 
-            String rowKey = (String)resultSetDataEnumKeys.nextElement(); // the the row name
-            Vector rowSet = (Vector)resultSet.get(rowKey); // get the set of rows
-
-            if (elementCounter > 0)
+            if (t > 0)
                 outputView.append(",");
             outputView.append("\"");
             outputView.append(rowKey);
             outputView.append("-result\":{" + "\"" + rowKey + "\": [");
 
-            Enumeration rows = rowSet.elements();
-            int rowCounter = 0;
-            while (rows.hasMoreElements()) {
-                Hashtable rowAttributes = (Hashtable)rows.nextElement();
-                Enumeration rowAttributeEnumKeys = rowAttributes.keys();
-                if (rowCounter > 0)
+            int rowCount = table.getRowCount();
+            for (int row = 0; row < rowCount; row++) {
+                if (row > 0)
                     outputView.append(",");
                 outputView.append("{\"id\":\"");
-                outputView.append(rowCounter++);
+                outputView.append(row);
                 outputView.append("\"");
-                while (rowAttributeEnumKeys.hasMoreElements()) {
-                    String attributeName = (String)rowAttributeEnumKeys.nextElement();
-                    String attributeValue = (String)rowAttributes.get(attributeName);
-
+                for (int column = 0; column < columnCount; column++) {
                     outputView.append(",\"");
-                    outputView.append(attributeName);
-                    outputView.append("\":\"");
+                    outputView.append(table.getColumnName(column));
+                    outputView.append("\":");
                     try {
-                        outputView.append(JSONUtil.encode(attributeValue));
+                        JSONUtil.encodeValue(table.getValue(row, column), queryResult.isTypedValues(), outputView);
                     } catch (Exception e) {
-                        outputView.append("&nbsp;" + e.toString());
+                        outputView.append("\"&nbsp;" + e.toString() + "\"");
                     }
-                    outputView.append("\"");
                 }
 
                 outputView.append(" }");
             }
-            totalRowCount += rowCounter;
+            totalRowCount += rowCount;
             outputView.append("] }");
-            elementCounter++;
         }
 
         addFooter(outputView);
@@ -0,0 +1,137 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.database.view;
+
+import edu.stanford.ehs.jml.util.JSONUtil;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streaming variant of JSON.doStoredProcedure. The output has the same shape as the buffered view;
+ * only the order of the results and columns may differ, which JSON objects do not define anyway.
+ *
+ * @see JSON#doStoredProcedure(edu.stanford.ehs.jml.database.model.QueryResult)
+ */
+public class JSONStreamWriter extends ResultStreamWriter {
+    private String[] columnNames = null;
+    private int elementCounter = 0;
+    private int rowCounter = 0;
+    private boolean resultOpen = false;
+
+    /**
+     * @param writer The response writer
+     * @param header The JSON header
+     * @param footer The JSON footer
+     */
+    public JSONStreamWriter(Writer writer, String header, String footer) {
+        super(writer, header, footer);
+    }
+
+    /**
+     * Write a simple value as a result with one row. Null values are left out, as in the buffered view.
+     */
+    public void simpleValue(String name, Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+
+        startResult(name);
+        writer.write("{\"id\":\"0\",\"");
+        writer.write(name);
+        writer.write("\":");
+        JSONUtil.encodeValue(value, typedValues, writer);
+        writer.write("}");
+        rowWritten(1);
+        endResult();
+    }
+
+    public void startCursor(String name, String[] columnNames) throws IOException {
+        startResult(name);
+        this.columnNames = columnNames;
+        rowCounter = 0;
+    }
+
+    public void cursorRow(Object[] values) throws IOException {
+        if (rowCounter > 0) {
+            writer.write(",");
+        }
+        writer.write("{\"id\":\"");
+        writer.write(String.valueOf(rowCounter++));
+        writer.write("\"");
+        for (int i = 0; i < columnNames.length; i++) {
+            writer.write(",\"");
+            writer.write(columnNames[i]);
+            writer.write("\":");
+            JSONUtil.encodeValue(values[i], typedValues, writer);
+        }
+        writer.write("}");
+        rowWritten(rowCounter);
+    }
+
+    public void endCursor(String name) throws IOException {
+        endResult();
+        columnNames = null;
+    }
+
+    protected void closeOpenResult() throws IOException {
+        if (resultOpen) {
+            endResult();
+        }
+        columnNames = null;
+    }
+
+    /**
+     * Write the error as a messages element, in the format of JSONTemplate.errorMessage.
+     */
+    protected void writeError(String message) throws IOException {
+        if (elementCounter > 0) {
+            writer.write(",");
+        }
+        writer.write("\"messages\":{\"msg\":{\"module\":\"JSON\", \"id\":\"1\", \"text\":\"Error: ");
+        JSONUtil.encode(message, writer);
+        writer.write("\" } }");
+        elementCounter++;
+    }
+
+    private void startResult(String name) throws IOException {
+        if (elementCounter > 0) {
+            writer.write(",");
+        }
+        resultOpen = true;
+        writer.write("\"");
+        writer.write(name);
+        writer.write("-result\":{\"");
+        writer.write(name);
+        writer.write("\":[");
+    }
+
+    private void endResult() throws IOException {
+        writer.write("]}");
+        resultOpen = false;
+        elementCounter++;
+    }
+}
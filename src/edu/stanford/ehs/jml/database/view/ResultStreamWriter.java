@@ -0,0 +1,146 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.database.view;
+
+import edu.stanford.ehs.jml.database.model.QueryResultHandler;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Base class of the streaming database views. The rows are written to the response writer as they are
+ * fetched from the cursor, so only the current row is held in memory. The writer is flushed after the
+ * first row, so the client gets the first bytes right away, and then in chunks of FLUSH_ROWS rows.
+ *
+ * @see edu.stanford.ehs.jml.database.model.oracle.Query#doStoredProcedure(String, String, java.util.Vector, QueryResultHandler)
+ */
+public abstract class ResultStreamWriter implements QueryResultHandler {
+    protected static Logger log = LogManager.getLogger(ResultStreamWriter.class.getName());
+
+    // Number of rows written between two flushes of the response
+    private static int FLUSH_ROWS = 500;
+
+    protected Writer writer;
+    protected boolean typedValues = false;
+    private String header;
+    private String footer;
+    private int totalRowCount = 0;
+    private boolean started = false;
+    private boolean ended = false;
+
+    /**
+     * @param writer The response writer
+     * @param header The header of the view, written by start()
+     * @param footer The footer of the view, written by end()
+     */
+    protected ResultStreamWriter(Writer writer, String header, String footer) {
+        this.writer = writer;
+        this.header = header;
+        this.footer = footer;
+    }
+
+    public void setTypedValues(boolean typedValues) {
+        this.typedValues = typedValues;
+    }
+
+    public void start() throws IOException {
+        started = true;
+        writer.write(header);
+    }
+
+    public void end() throws IOException {
+        ended = true;
+        writer.write(footer);
+        flush();
+
+        log.debug("Number of total rows streamed: " + totalRowCount);
+    }
+
+    /**
+     * Terminate the output of a failed call: close the result that was being written, add the error
+     * message and write the footer, so the client still gets a complete document.
+     */
+    public void error(String message) throws IOException {
+        if (ended) {
+            return;
+        }
+        if (!started) {
+            start();
+        }
+
+        closeOpenResult();
+        writeError(message);
+        end();
+    }
+
+    /**
+     * Close the result that was being written when the call failed, if any. Rows are written from
+     * values that have already been fetched, so only a write error, after which the client is gone,
+     * can interrupt a row.
+     *
+     * @throws IOException
+     */
+    protected abstract void closeOpenResult() throws IOException;
+
+    /**
+     * Write the error message of a failed call in the format of the view.
+     *
+     * @param message The error message
+     * @throws IOException
+     */
+    protected abstract void writeError(String message) throws IOException;
+
+    /**
+     * Count a written row and flush the writer when the row completes a chunk.
+     *
+     * @param rowCounter The number of rows written for the current result, including this one
+     * @throws IOException
+     */
+    protected void rowWritten(int rowCounter) throws IOException {
+        totalRowCount++;
+
+        if (rowCounter == 1 || rowCounter % FLUSH_ROWS == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Flush the writer. A PrintWriter does not throw on write errors, so check it explicitly to stop
+     * fetching rows when the client has gone away.
+     *
+     * @throws IOException
+     */
+    protected void flush() throws IOException {
+        writer.flush();
+        if (writer instanceof PrintWriter && ((PrintWriter)writer).checkError()) {
+            throw new IOException("The client closed the connection");
+        }
+    }
+}
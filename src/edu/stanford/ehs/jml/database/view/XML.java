@@ -25,39 +25,130 @@
 package edu.stanford.ehs.jml.database.view;
 
 import edu.stanford.ehs.jml.core.view.XMLTemplate;
+import edu.stanford.ehs.jml.database.model.Batch;
 import edu.stanford.ehs.jml.database.model.Constants;
+import edu.stanford.ehs.jml.database.model.QueryResult;
+import edu.stanford.ehs.jml.database.model.QueryResultHandler;
 
 import edu.stanford.ehs.jml.util.XMLUtil;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.io.Writer;
+
 import java.util.Iterator;
-import java.util.Vector;
 
 /**
  * XML view for database functions
  */
 public class XML extends XMLTemplate {
 
+    /**
+     * XML formatting for the doBatch model function. The output of each call is embedded in its call
+     * element without the XML declaration; a call that produced no output has an empty call element.
+     *
+     * @param batch The calls of the batch with their output
+     * @return XML formatted doBatch
+     * @throws Exception
+     */
+    public static String doBatch(Batch batch) throws Exception {
+        StringBuffer outputView = new StringBuffer();
+        addHeader(outputView);
+
+        outputView.append("\n<batch>");
+        for (int i = 0; i < batch.size(); i++) {
+            Batch.Call call = batch.getCall(i);
+            String callOutput = call.getOutput();
+
+            outputView.append("\n<call id=\"");
+            XMLUtil.encode(call.getId(), outputView);
+            outputView.append("\" action=\"");
+            XMLUtil.encode(call.getAction(), outputView);
+            outputView.append("\" proc=\"");
+            XMLUtil.encode(call.getStoredProcedureName(), outputView);
+            outputView.append("\">");
+            if (callOutput != null) {
+                outputView.append(callOutput, getBodyStart(callOutput), callOutput.length());
+            }
+            outputView.append("\n</call>");
+        }
+        outputView.append("\n</batch>");
+
+        addFooter(outputView);
+
+        return (outputView.toString());
+    }
+
+    /**
+     * @return The position after the XML declaration and the leading comments of a formatted output
+     */
+    private static int getBodyStart(String xml) {
+        int start = 0;
+
+        while (true) {
+            while (start < xml.length() && xml.charAt(start) <= ' ') {
+                start++;
+            }
+
+            int end = -1;
+            if (xml.startsWith("<?", start)) {
+                end = xml.indexOf("?>", start);
+                end = (end == -1 ? -1 : end + 2);
+            } else if (xml.startsWith("<!--", start)) {
+                end = xml.indexOf("-->", start);
+                end = (end == -1 ? -1 : end + 3);
+            }
+
+            if (end == -1) {
+                return (start);
+            }
+            start = end;
+        }
+    }
+
     /**
      * XML formatting for the doUserStoredProcedure model function
      *
-     * @param resultSet Hashtable containg the model output
+     * @param queryResult The model output
      * @return XML formatted doUserStoredProcedure
      * @throws java.sql.SQLException
      */
-    public static String doUserStoredProcedure(Hashtable resultSet) throws Exception {
-        return (doStoredProcedure(resultSet));
+    public static String doUserStoredProcedure(QueryResult queryResult) throws Exception {
+        return (doStoredProcedure(queryResult));
+    }
+
+    /**
+     * Streaming XML formatting for the doUserStoredProcedure model function
+     *
+     * @param writer The response writer
+     * @return Handler writing the model output to the writer
+     */
+    public static QueryResultHandler doUserStoredProcedureStream(Writer writer) {
+        return (doStoredProcedureStream(writer));
+    }
+
+    /**
+     * Streaming XML formatting for the doStoredProcedure model function
+     *
+     * @param writer The response writer
+     * @return Handler writing the model output to the writer
+     */
+    public static QueryResultHandler doStoredProcedureStream(Writer writer) {
+        StringBuffer header = new StringBuffer();
+        StringBuffer footer = new StringBuffer();
+
+        addHeader(header);
+        addFooter(footer);
+
+        return (new XMLStreamWriter(writer, header.toString(), footer.toString()));
     }
 
     /**
      * XML formatting for the doStoredProcedure model function
      *
-     * @param resultSet Hashtable containg the model output
+     * @param queryResult The model output
      * @return XML formatted doStoredProcedure
      * @throws java.sql.SQLException
      */
-    public static String doStoredProcedure(Hashtable resultSet) throws Exception {
+    public static String doStoredProcedure(QueryResult queryResult) throws Exception {
         StringBuffer outputView = new StringBuffer();
         addHeader(outputView);
         int totalRowCount = 0;
@@ -65,37 +156,30 @@ public class XML extends XMLTemplate {
         outputView.append("\n\t<multi-result-set>");
 
         // Browse through the results
-        Enumeration resultSetDataEnumKeys = resultSet.keys();
-
-        while (resultSetDataEnumKeys.hasMoreElements()) {
-
-            String rowKey = (String)resultSetDataEnumKeys.nextElement(); // the the row name
-            Vector rowSet = (Vector)resultSet.get(rowKey); // get the set of rows
+        for (int t = 0; t < queryResult.size(); t++) {
+            QueryResult.Table table = queryResult.getTable(t);
+            String rowKey = table.getName(); // the the row name
+            int columnCount = table.getColumnCount();
 
             outputView.append("\n\t<");
             outputView.append(rowKey);
             outputView.append("-result>");
 
-            Enumeration rows = rowSet.elements();
-            int rowCounter = 0;
-            while (rows.hasMoreElements()) {
-                Hashtable rowAttributes = (Hashtable)rows.nextElement();
-                Enumeration rowAttributeEnumKeys = rowAttributes.keys();
-
+            int rowCount = table.getRowCount();
+            for (int row = 0; row < rowCount; row++) {
                 outputView.append("\n\t\t<");
                 outputView.append(rowKey);
                 outputView.append(" id=\"");
-                outputView.append(rowCounter++);
+                outputView.append(row);
                 outputView.append("\">");
-                while (rowAttributeEnumKeys.hasMoreElements()) {
-                    String attributeName = (String)rowAttributeEnumKeys.nextElement();
-                    String attributeValue = (String)rowAttributes.get(attributeName);
+                for (int column = 0; column < columnCount; column++) {
+                    String attributeName = table.getColumnName(column);
 
                     outputView.append("\n\t\t\t<");
                     outputView.append(attributeName);
                     outputView.append(">");
                     try {
-                        outputView.append(XMLUtil.encode(attributeValue));
+                        XMLUtil.encode(table.getText(row, column), outputView);
                     } catch (Exception e) {
                         outputView.append("&nbsp;");
                     }
@@ -108,7 +192,7 @@ public class XML extends XMLTemplate {
                 outputView.append(rowKey);
                 outputView.append(">");
             }
-            totalRowCount += rowCounter;
+            totalRowCount += rowCount;
             outputView.append("\n\t</");
             outputView.append(rowKey);
             outputView.append("-result>");
@@ -0,0 +1,159 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.database.view;
+
+import edu.stanford.ehs.jml.database.model.ColumnFetcher;
+import edu.stanford.ehs.jml.util.XMLUtil;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streaming variant of XML.doStoredProcedure. The output has the same tab-indented
+ * &lt;multi-result-set&gt; format as the buffered view; only the order of the results and of the
+ * column elements within a row may differ.
+ *
+ * @see XML#doStoredProcedure(edu.stanford.ehs.jml.database.model.QueryResult)
+ */
+public class XMLStreamWriter extends ResultStreamWriter {
+    private String cursorName = null;
+    private String[] columnNames = null;
+    private int rowCounter = 0;
+    private String openResult = null;
+
+    /**
+     * @param writer The response writer
+     * @param header The XML header
+     * @param footer The XML footer
+     */
+    public XMLStreamWriter(Writer writer, String header, String footer) {
+        super(writer, header, footer);
+    }
+
+    public void start() throws IOException {
+        super.start();
+        writer.write("\n\t<multi-result-set>");
+    }
+
+    /**
+     * Write a simple value as a result with one row. Null values are left out, as in the buffered view.
+     */
+    public void simpleValue(String name, Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+
+        startResult(name);
+        startRow(name, 0);
+        writeColumn(name, ColumnFetcher.toText(value));
+        endRow(name);
+        rowWritten(1);
+        endResult(name);
+    }
+
+    public void startCursor(String name, String[] columnNames) throws IOException {
+        startResult(name);
+        cursorName = name;
+        this.columnNames = columnNames;
+        rowCounter = 0;
+    }
+
+    public void cursorRow(Object[] values) throws IOException {
+        startRow(cursorName, rowCounter++);
+        for (int i = 0; i < columnNames.length; i++) {
+            writeColumn(columnNames[i], ColumnFetcher.toText(values[i]));
+        }
+        endRow(cursorName);
+        rowWritten(rowCounter);
+    }
+
+    public void endCursor(String name) throws IOException {
+        endResult(name);
+        cursorName = null;
+        columnNames = null;
+    }
+
+    public void end() throws IOException {
+        writer.write("\n\t</multi-result-set>");
+        super.end();
+    }
+
+    protected void closeOpenResult() throws IOException {
+        if (openResult != null) {
+            endResult(openResult);
+        }
+        cursorName = null;
+        columnNames = null;
+    }
+
+    /**
+     * Write the error as a messages element inside the multi-result-set, in the format of
+     * XMLTemplate.errorMessage.
+     */
+    protected void writeError(String message) throws IOException {
+        writer.write("\n\t<messages><msg module='XML' id='1' text='Error: ");
+        XMLUtil.encode(message, writer);
+        writer.write("'/></messages>");
+    }
+
+    private void startResult(String name) throws IOException {
+        openResult = name;
+        writer.write("\n\t<");
+        writer.write(name);
+        writer.write("-result>");
+    }
+
+    private void endResult(String name) throws IOException {
+        writer.write("\n\t</");
+        writer.write(name);
+        writer.write("-result>");
+        openResult = null;
+    }
+
+    private void startRow(String name, int id) throws IOException {
+        writer.write("\n\t\t<");
+        writer.write(name);
+        writer.write(" id=\"");
+        writer.write(String.valueOf(id));
+        writer.write("\">");
+    }
+
+    private void endRow(String name) throws IOException {
+        writer.write("\n\t\t</");
+        writer.write(name);
+        writer.write(">");
+    }
+
+    private void writeColumn(String name, String value) throws IOException {
+        writer.write("\n\t\t\t<");
+        writer.write(name);
+        writer.write(">");
+        XMLUtil.encode(value, writer);
+        writer.write("</");
+        writer.write(name);
+        writer.write(">");
+    }
+}
@@ -42,7 +42,7 @@ import org.apache.logging.log4j.Logger;
  */
 public class Controller extends ControllerTemplate {
     protected static Logger log = LogManager.getLogger(Controller.class.getName());
-    protected static String VIEW_PACKAGE = "edu.stanford.ehs.jml.email.view.";
+    protected static String VIEW_PACKAGE = "edu.stanford.ehs.jml.messaging.email.view.";
 
     /**
      * Extract the email parameters, ensure proper security, send the email request off to the model and finally,
@@ -25,6 +25,10 @@
 package edu.stanford.ehs.jml.security.model;
 
 import edu.stanford.ehs.jml.messaging.email.model.SMTPSettings;
+import edu.stanford.ehs.jml.database.model.Bulkhead;
+import edu.stanford.ehs.jml.database.model.ConnectionPool;
+import edu.stanford.ehs.jml.database.model.ProcedureSignatureCache;
+import edu.stanford.ehs.jml.database.model.QueryOptions;
 import edu.stanford.ehs.jml.database.model.oracle.Query;
 import oracle.jdbc.pool.OracleConnectionPoolDataSource;
 
@@ -34,12 +38,17 @@ import oracle.jdbc.pool.OracleConnectionPoolDataSource;
 public class Account {
 
     private OracleConnectionPoolDataSource connectionPoolDataSource;
+    private ConnectionPool connectionPool;
+    private ProcedureSignatureCache procedureCache;
+    private Bulkhead bulkhead;
+    private QueryOptions queryOptions = QueryOptions.DEFAULT;
     private SMTPSettings smtpSettings;
     private String accountId;
     private String loginClassName;
     private long timeOut;
     private boolean useCSRFToken;
     private boolean logDBMSOutput = false;
+    private boolean typedJSON = false;
 
     /**
      * Set the connection pool data source (Oracle)
@@ -59,6 +68,78 @@ public class Account {
         return (connectionPoolDataSource);
     }
 
+    /**
+     * Set the pool of physical connections opened from the data source
+     *
+     * @param connectionPool
+     */
+    public void setConnectionPool(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Get the pool of physical connections opened from the data source
+     *
+     * @return ConnectionPool
+     */
+    public ConnectionPool getConnectionPool() {
+        return (connectionPool);
+    }
+
+    /**
+     * Set the cache of resolved stored procedure signatures
+     *
+     * @param procedureCache
+     */
+    public void setProcedureCache(ProcedureSignatureCache procedureCache) {
+        this.procedureCache = procedureCache;
+    }
+
+    /**
+     * Get the cache of resolved stored procedure signatures
+     *
+     * @return ProcedureSignatureCache
+     */
+    public ProcedureSignatureCache getProcedureCache() {
+        return (procedureCache);
+    }
+
+    /**
+     * Set the limit of the database requests in flight
+     *
+     * @param bulkhead
+     */
+    public void setBulkhead(Bulkhead bulkhead) {
+        this.bulkhead = bulkhead;
+    }
+
+    /**
+     * Get the limit of the database requests in flight
+     *
+     * @return Bulkhead
+     */
+    public Bulkhead getBulkhead() {
+        return (bulkhead);
+    }
+
+    /**
+     * Set the default fetch settings of the stored procedure calls
+     *
+     * @param queryOptions
+     */
+    public void setQueryOptions(QueryOptions queryOptions) {
+        this.queryOptions = queryOptions;
+    }
+
+    /**
+     * Get the default fetch settings of the stored procedure calls
+     *
+     * @return QueryOptions
+     */
+    public QueryOptions getQueryOptions() {
+        return (queryOptions);
+    }
+
     /**
      * Set the SMTP settings for the account.
      *
@@ -95,6 +176,15 @@ public class Account {
         return logDBMSOutput;
     }
 
+    /**
+     * Get the value of whether or not the JSON view writes the values of this account with their type
+     *
+     * @return True or false
+     */
+    public boolean getTypedJSON() {
+        return typedJSON;
+    }
+
     /**
      * Get the login class for the account.
      *
@@ -140,6 +230,15 @@ public class Account {
         logDBMSOutput = enable;
     }
 
+    /**
+     * Set whether the JSON view writes numbers as JSON numbers and timestamps as ISO-8601 strings.
+     *
+     * @param enable Boolean value of whether or not values are written with their type
+     */
+    public void setTypedJSON(Boolean enable) {
+        typedJSON = enable;
+    }
+
     /**
      * Set the login class name.
      *
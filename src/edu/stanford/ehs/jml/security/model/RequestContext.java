@@ -0,0 +1,111 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.security.model;
+
+import edu.stanford.ehs.jml.core.model.CoreConstants;
+
+import java.util.Hashtable;
+
+/**
+ * The security state of one request, resolved once by the core controller: the session, the login of
+ * the session (if any), the account and the user. It travels with the controller parameters, so the
+ * security checks of the model controllers do not have to look the session up again.
+ */
+public class RequestContext {
+    private String sessionId;
+    private String accountId;
+    private Login login;
+    private Account account;
+
+    /**
+     * @param sessionId The session id
+     * @param accountId The account of the login, or the account requested by the client
+     * @param login The login of the session, or null if the session is not logged in
+     * @param account The account, or null if it is not registered
+     */
+    public RequestContext(String sessionId, String accountId, Login login, Account account) {
+        this.sessionId = sessionId;
+        this.accountId = accountId;
+        this.login = login;
+        this.account = account;
+    }
+
+    /**
+     * Get the context stored in the controller parameters.
+     *
+     * @param parameters The controller parameters
+     * @param sessionId The session the context must belong to
+     * @return The context, or null if there is none for this session
+     */
+    public static RequestContext getRequestContext(Hashtable parameters, String sessionId) {
+        Object context = (parameters == null ? null : parameters.get(CoreConstants.GENERAL_ATTR_REQUEST_CONTEXT));
+
+        if (context instanceof RequestContext && sessionId != null && sessionId.equals(((RequestContext)context).sessionId)) {
+            return ((RequestContext)context);
+        }
+
+        return (null);
+    }
+
+    public String getSessionId() {
+        return (sessionId);
+    }
+
+    public String getAccountId() {
+        return (accountId);
+    }
+
+    /**
+     * @param accountId The account id
+     * @return The account if it is the account of this context, otherwise null
+     */
+    public Account getAccount(String accountId) {
+        return (this.accountId != null && this.accountId.equals(accountId) ? account : null);
+    }
+
+    /**
+     * @return The login of the session, or null if the session is not logged in
+     */
+    public Login getLogin() {
+        return (login);
+    }
+
+    /**
+     * Update the login after the session was logged in or out during the request
+     *
+     * @param login The new login, or null
+     */
+    public void setLogin(Login login) {
+        this.login = login;
+    }
+
+    /**
+     * @return The user id of the login, or null if the session is not logged in
+     */
+    public String getUserId() {
+        return (login == null ? null : login.getUserId());
+    }
+}
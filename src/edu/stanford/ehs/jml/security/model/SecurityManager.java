@@ -25,6 +25,7 @@
 package edu.stanford.ehs.jml.security.model;
 
 import edu.stanford.ehs.jml.core.model.CoreConstants;
+import edu.stanford.ehs.jml.database.model.QueryOptions;
 
 import edu.stanford.ehs.jml.util.CSRFToken;
 
@@ -35,8 +36,11 @@ import java.net.NetworkInterface;
 
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -48,6 +52,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
@@ -98,9 +103,14 @@ public class SecurityManager extends HttpServlet {
     private static Vector<String> uriExceptions = null;
     private static Vector<String> actionExceptions = null;
     private static ArrayList<String> storedProceduresWhitelist = new ArrayList<String>();
-
-    private static Hashtable<String, Login> activeUserLogins = null;
-    private static Hashtable<String, Account> accounts = null;
+    private static Hashtable<String, QueryOptions> storedProceduresQueryOptions = new Hashtable<String, QueryOptions>();
+    private static ArrayList<String> storedProceduresSingleFlight = new ArrayList<String>();
+    private static ArrayList<String> storedProceduresSingleFlightShared = new ArrayList<String>();
+
+    // Read on every request; lookups do not lock, and updates only lock a bin of the map
+    private static volatile ConcurrentHashMap<String, Login> activeUserLogins = null;
+    private static volatile ConcurrentHashMap<String, Account> accounts = null;
+    private static volatile SessionExpiryQueue sessionExpiryQueue = null;
     @SuppressWarnings("compatibility:-7274125903335147754")
     private static final long serialVersionUID = 1L;
 
@@ -162,6 +172,33 @@ public class SecurityManager extends HttpServlet {
 
         return (sessionId);
     }
+
+    /**
+     * Resolve the session, login and account of a request once and store the result in the parameters,
+     * where the security checks of the model controllers pick it up.
+     *
+     * @param parameters Parameters including the HttpServletRequest and the requested account
+     * @return The request context
+     */
+    public static RequestContext createRequestContext(Hashtable parameters) {
+        String sessionId = getSessionId(parameters);
+        Login login = activeUserLogins.get(sessionId);
+        String accountId = null;
+
+        // The account of the login, or, if the user is logging in seamlessly, the requested account
+        if (login != null) {
+            accountId = login.getAccount();
+        } else {
+            accountId = (String)parameters.get(CoreConstants.GENERAL_ATTR_ACCOUNT_ID);
+            log.debug("Retrieving account name from parameter: " + accountId);
+        }
+
+        RequestContext context =
+            new RequestContext(sessionId, accountId, login, (accountId == null ? null : accounts.get(accountId)));
+        parameters.put(CoreConstants.GENERAL_ATTR_REQUEST_CONTEXT, context);
+
+        return (context);
+    }
     
     /**
      * The user is trying to execute a stored procudure, is it in the whitelist?
@@ -172,6 +209,40 @@ public class SecurityManager extends HttpServlet {
         return storedProceduresWhitelist.contains(name.toUpperCase());
     }
 
+    /**
+     * Are identical concurrent calls of the stored procedure coalesced into one call?
+     * @param name The name of the stored procedure
+     * @return True if the procedure is marked single-flight="true" in the whitelist
+     */
+    public static boolean isStoredProcedureSingleFlight(String name) {
+        return storedProceduresSingleFlight.contains(name.toUpperCase());
+    }
+
+    /**
+     * Are the coalesced calls of the stored procedure kept apart per user?
+     * @param name The name of the stored procedure
+     * @return False if the procedure is marked single-flight-per-user="false" in the whitelist
+     */
+    public static boolean isStoredProcedureSingleFlightPerUser(String name) {
+        return !storedProceduresSingleFlightShared.contains(name.toUpperCase());
+    }
+
+    /**
+     * Get the fetch settings of a stored procedure call: the fetch-size and lob-prefetch-size of the
+     * procedure in the whitelist, if set, otherwise those of the account.
+     *
+     * @param accountId The account id
+     * @param name The name of the stored procedure
+     * @return The fetch settings
+     */
+    public static QueryOptions getQueryOptions(String accountId, String name) {
+        Account account = getAccount(accountId);
+        QueryOptions accountOptions = account != null ? account.getQueryOptions() : QueryOptions.DEFAULT;
+        QueryOptions procedureOptions = storedProceduresQueryOptions.get(name.toUpperCase());
+
+        return (procedureOptions != null ? procedureOptions.merge(accountOptions) : accountOptions);
+    }
+
     /**
      * The security checkpoint is called by the controller for every request coming in. This is the basic implementation
      * of the three security modes
@@ -238,9 +309,10 @@ public class SecurityManager extends HttpServlet {
             }
 
             // Get the login class, timeout, and if we should check for DBMS output
-            loginClassName = accounts.get(accountId).getLoginClassName();
-            timeout = accounts.get(accountId).getTimeOut();
-            logDBMSOutput = accounts.get(accountId).getLogDBMSOutput();
+            Account account = accounts.get(accountId);
+            loginClassName = account.getLoginClassName();
+            timeout = account.getTimeOut();
+            logDBMSOutput = account.getLogDBMSOutput();
             
             log.debug(" --> logDBMSOutput=" + logDBMSOutput);
             log.debug("Attempting to log in to the class " + loginClassName);
@@ -267,19 +339,19 @@ public class SecurityManager extends HttpServlet {
             CSRFToken token = new CSRFToken(120);
             loginInstance.setCSRFToken(token);
             activeUserLogins.put(sessionId, loginInstance);
+            sessionExpiryQueue.add(sessionId, loginInstance);
             authResponse.setCSRFToken(token);
         }
 
         if (log.isDebugEnabled()) {
             log.debug(" -- --> current users logged in:");
 
-            Enumeration userLogins = activeUserLogins.keys();
+            Iterator<Map.Entry<String, Login>> userLogins = activeUserLogins.entrySet().iterator();
 
-            while (userLogins.hasMoreElements()) {
-                String thisKey = (String)userLogins.nextElement();
-                Login thisLogin = activeUserLogins.get(thisKey);
+            while (userLogins.hasNext()) {
+                Map.Entry<String, Login> userLogin = userLogins.next();
 
-                log.debug(" -- --> " + thisKey + ":" + thisLogin.getUserId());
+                log.debug(" -- --> " + userLogin.getKey() + ":" + userLogin.getValue().getUserId());
             }
         }
         
@@ -301,14 +373,11 @@ public class SecurityManager extends HttpServlet {
      */
     public static void logout(String sessionId) {
 
-        // log out using the Login logout method
-        Login loginInstance = activeUserLogins.get(sessionId);
+        // remove the Login from the active user logins table; only the caller that removed it logs it out
+        Login loginInstance = activeUserLogins.remove(sessionId);
 
         if (loginInstance != null) {
             loginInstance.logout();
-
-            // remove the Login from the active user logins table
-            activeUserLogins.remove(sessionId);
         }
     }
 
@@ -355,19 +424,9 @@ public class SecurityManager extends HttpServlet {
      * Log out timed-out sessions.
      */
     protected static void deleteTimedOutSessions() {
-        Enumeration userLogins = activeUserLogins.keys();
+        int expired = sessionExpiryQueue.expire(activeUserLogins, System.currentTimeMillis());
 
-        while (userLogins.hasMoreElements()) {
-            long now = System.currentTimeMillis();
-            String thisKey = (String)userLogins.nextElement();
-            Login thisLogin = activeUserLogins.get(thisKey);
-            if ((thisLogin.getTimeout() > 0) &&
-                (now > (thisLogin.getLastAccessed().getTime() + thisLogin.getTimeout()))) {
-                log.debug("Logging " + thisLogin.getUserId() + " out");
-                logout(thisKey);
-
-            }
-        }
+        log.debug("Logged out " + expired + " timed-out session(s), " + activeUserLogins.size() + " active");
     }
 
     /**
@@ -393,7 +452,8 @@ public class SecurityManager extends HttpServlet {
             Login existingLogin = activeUserLogins.get(sessionId);
 
             if (!existingLogin.touch()) {
-                activeUserLogins.remove(sessionId);
+                // Only remove the timed-out login, not a new login of the same session
+                activeUserLogins.remove(sessionId, existingLogin);
                 authResponse.setSuccess(false);
                 authResponse.setMessage("The user session timed out. Please login again");
             }
@@ -410,12 +470,12 @@ public class SecurityManager extends HttpServlet {
     }
 
     /**
-     * Get all active user logins in a hashtable.
+     * Get a copy of all active user logins in a hashtable.
      *
      * @return Active user logins
      */
     public static Hashtable getActiveUserLogins() {
-        return (activeUserLogins);
+        return (new Hashtable<String, Login>(activeUserLogins));
     }
 
     /**
@@ -425,15 +485,9 @@ public class SecurityManager extends HttpServlet {
      * @return User id
      */
     public static String getUserId(String sessionId) {
-        String userId = null;
+        Login login = (sessionId == null ? null : activeUserLogins.get(sessionId));
 
-        try {
-            userId = activeUserLogins.get(sessionId).getUserId();
-        } catch (Exception e) {
-            log.error("Could not get the user id from the session " + sessionId);
-        }
-
-        return (userId);
+        return (login == null ? null : login.getUserId());
     }
 
     /**
@@ -443,15 +497,9 @@ public class SecurityManager extends HttpServlet {
      * @return Account name
      */
     public static String getAccountName(String sessionId) {
-        String accountName = null;
-
-        try {
-            accountName = activeUserLogins.get(sessionId).getAccount();
-        } catch (Exception e) {
-            log.error("Could not get the account name from the session " + sessionId);
-        }
+        Login login = (sessionId == null ? null : activeUserLogins.get(sessionId));
 
-        return (accountName);
+        return (login == null ? null : login.getAccount());
     }
 
 
@@ -462,13 +510,7 @@ public class SecurityManager extends HttpServlet {
      * @return true if the session id is registered in the active user logins; otherwise, return false
      */
     public static boolean isAuthenticated(String sessionId) {
-        boolean authenticationResult = false;
-
-        if (activeUserLogins.get(sessionId) != null) {
-            authenticationResult = true;
-        }
-
-        return (authenticationResult);
+        return (activeUserLogins.containsKey(sessionId));
     }
 
     /**
@@ -483,11 +525,13 @@ public class SecurityManager extends HttpServlet {
     public static boolean isAuthorized(Hashtable controllerParameters, String accountId, String sessionId,
                                        String action) {
 
-        Login loginInstance = activeUserLogins.get(sessionId);
+        // Use the login resolved for this request, if the core controller resolved one
+        RequestContext context = RequestContext.getRequestContext(controllerParameters, sessionId);
+        Login loginInstance = (context != null ? context.getLogin() : activeUserLogins.get(sessionId));
         boolean authorizationResult = false;
         boolean useCSRFToken = true;
 
-        if (activeUserLogins.get(sessionId) != null) {
+        if (loginInstance != null) {
             log.debug("ACCOUNTID=" + accountId);
             log.debug("CSRFTOKEN=" + (String)controllerParameters.get(CoreConstants.GENERAL_ATTR_CSRF_TOKEN));
 
@@ -500,7 +544,11 @@ public class SecurityManager extends HttpServlet {
                 log.debug("The user was logged in - but not to the specified account");
             }
             
-            useCSRFToken = accounts.get(accountId).getUseCSRFToken();
+            Account account = (context != null ? context.getAccount(accountId) : null);
+            if (account == null) {
+                account = accounts.get(accountId);
+            }
+            useCSRFToken = account.getUseCSRFToken();
             
             // Check the CSRF token, but only if this account is using one (which it SHOULD!!)
             if (useCSRFToken) {
@@ -521,10 +569,13 @@ public class SecurityManager extends HttpServlet {
             AuthResponse authResponse = login(controllerParameters, accountId, sessionId);
 
             if (authResponse.isSuccess()) {
-                if (activeUserLogins.get(sessionId) != null) {
-                    loginInstance = (activeUserLogins.get(sessionId));
+                loginInstance = activeUserLogins.get(sessionId);
+                if (loginInstance != null) {
                     authorizationResult = loginInstance.isAuthorized(action);
                 }
+                if (context != null) {
+                    context.setLogin(loginInstance);
+                }
             }
         }
 
@@ -551,8 +602,12 @@ public class SecurityManager extends HttpServlet {
         uriExceptions = new Vector<String>();
         actionExceptions = new Vector<String>();
         storedProceduresWhitelist = new ArrayList<String>();
-        activeUserLogins = new Hashtable<String, Login>();
-        accounts = new Hashtable<String, Account>();
+        storedProceduresQueryOptions = new Hashtable<String, QueryOptions>();
+        storedProceduresSingleFlight = new ArrayList<String>();
+        storedProceduresSingleFlightShared = new ArrayList<String>();
+        activeUserLogins = new ConcurrentHashMap<String, Login>();
+        accounts = new ConcurrentHashMap<String, Account>();
+        sessionExpiryQueue = new SessionExpiryQueue();
 
 
         // Get local IP address
@@ -617,6 +672,29 @@ public class SecurityManager extends HttpServlet {
                     if ("name".equals(childNode.getNodeName())) {
                         storedProceduresWhitelist.add(childList.item(j).getTextContent().trim().toUpperCase());
                         log.debug("Stored procedure whitelisted: " + childList.item(j).getTextContent().trim().toUpperCase());
+
+                        // Optional fetch settings overriding those of the account
+                        Element nameElement = (Element)childNode;
+                        if (nameElement.hasAttribute("fetch-size") || nameElement.hasAttribute("lob-prefetch-size")) {
+                            QueryOptions queryOptions =
+                                new QueryOptions(getIntegerAttribute(nameElement, "fetch-size"),
+                                                 getIntegerAttribute(nameElement, "lob-prefetch-size"));
+                            storedProceduresQueryOptions.put(nameElement.getTextContent().trim().toUpperCase(),
+                                                             queryOptions);
+                            log.debug("Stored procedure " + nameElement.getTextContent().trim().toUpperCase() + ": " +
+                                      queryOptions);
+                        }
+
+                        // Optional coalescing of identical concurrent calls
+                        if ("true".equalsIgnoreCase(nameElement.getAttribute("single-flight").trim())) {
+                            storedProceduresSingleFlight.add(nameElement.getTextContent().trim().toUpperCase());
+                            log.debug("Stored procedure single-flight: " + nameElement.getTextContent().trim().toUpperCase());
+                        }
+                        if ("false".equalsIgnoreCase(nameElement.getAttribute("single-flight-per-user").trim())) {
+                            storedProceduresSingleFlightShared.add(nameElement.getTextContent().trim().toUpperCase());
+                            log.debug("Stored procedure single-flight shared by all users: " +
+                                      nameElement.getTextContent().trim().toUpperCase());
+                        }
                     }
                 }
             }
@@ -629,12 +707,48 @@ public class SecurityManager extends HttpServlet {
 
     }
     
+    /**
+     * Read a numeric attribute of the configuration file.
+     *
+     * @param element The element
+     * @param attributeName The name of the attribute
+     * @return The value, or QueryOptions.NOT_SET if the attribute is missing or not a number
+     */
+    private static int getIntegerAttribute(Element element, String attributeName) {
+        try {
+            return (Integer.parseInt(element.getAttribute(attributeName).trim()));
+        } catch (NumberFormatException e) {
+            return (QueryOptions.NOT_SET);
+        }
+    }
+
     /**
      * Re-initialize the security manager
      * Used by Server.java when it detects that the accounts file has changed
      */
     public static void reInitialize() {
-        accounts = new Hashtable<String, Account>();
+        closeConnectionPools();
+        accounts = new ConcurrentHashMap<String, Account>();
+    }
+
+    /**
+     * Close the connection pools of all registered accounts. Connections that are in use are closed
+     * when they are returned.
+     */
+    public static void closeConnectionPools() {
+        if (accounts == null) {
+            return;
+        }
+
+        Enumeration<Account> accountList = accounts.elements();
+
+        while (accountList.hasMoreElements()) {
+            Account account = accountList.nextElement();
+
+            if (account.getConnectionPool() != null) {
+                account.getConnectionPool().close();
+            }
+        }
     }
 
     /**
@@ -24,8 +24,10 @@
 
 package edu.stanford.ehs.jml.security.model;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServlet;
 
@@ -33,18 +35,21 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * Servlet to clean up sessions that are timed out.
+ * Servlet to clean up sessions that are timed out. The clean up runs on a single scheduled thread
+ * and only visits the sessions that are due to expire.
+ *
+ * @see SessionExpiryQueue
  */
 public class SecurityManagerGC extends HttpServlet {
     protected static Logger log = LogManager.getLogger(SecurityManagerGC.class.getName());
     @SuppressWarnings("compatibility:-380743349244498859")
     private static final long serialVersionUID = 1L;
-    protected transient Timer gcTimer;
-    protected long delay;
+    protected transient ScheduledExecutorService gcScheduler;
+    protected long delay = Constants.SECURITY_DEFAULT_FREQUENCY * 60 * 1000;
 
     /**
      * Initialize the servlet by reading the timer delay in the servlet parameters and then schedule
-     * the next clean up.
+     * the clean up.
      */
     public void init() {
         log.debug("Initializing session garbage collector");
@@ -59,22 +64,28 @@ public class SecurityManagerGC extends HttpServlet {
         } catch (Exception e) {
             log.error("Could not set the frequency in minutes. The value in web.xml is " + getInitParameter("delay") +
                       ". Setting the default frequency: " + Constants.SECURITY_DEFAULT_FREQUENCY + " minutes");
+            delay = Constants.SECURITY_DEFAULT_FREQUENCY * 60 * 1000;
         }
 
-        scheduleNextRun();
+        scheduleRuns();
 
     }
 
     /**
-     * Schedule the next clean up by creating a new TimerTask.
+     * Schedule the clean up every delay milliseconds on one daemon thread.
      */
-    private void scheduleNextRun() {
+    private void scheduleRuns() {
 
         try {
-            // Set up the timer
-            TimerTask sessionManagerGCTask = new SessionManagerGCTask();
-            gcTimer = new Timer();
-            gcTimer.schedule(sessionManagerGCTask, delay);
+            // Set up the scheduler
+            gcScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task, "jml-session-gc");
+                        thread.setDaemon(true);
+                        return (thread);
+                    }
+                });
+            gcScheduler.scheduleWithFixedDelay(new SessionManagerGCTask(), delay, delay, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
             log.error("Error in initializing the timer: " + e.toString());
         }
@@ -85,7 +96,9 @@ public class SecurityManagerGC extends HttpServlet {
      * Finalize the servlet.
      */
     public void destroy() {
-        gcTimer.cancel();
+        if (gcScheduler != null) {
+            gcScheduler.shutdownNow();
+        }
         super.destroy();
     }
 
@@ -93,12 +106,15 @@ public class SecurityManagerGC extends HttpServlet {
      * Private class containing the timed task that calls the security manager for deleting
      * time out sessions.
      */
-    public class SessionManagerGCTask extends TimerTask {
+    public class SessionManagerGCTask implements Runnable {
         public void run() {
             log.info("Garbage-collecting expired sessions");
-            SecurityManager.deleteTimedOutSessions();
-
-            scheduleNextRun();
+            try {
+                SecurityManager.deleteTimedOutSessions();
+            } catch (Exception e) {
+                // An exception would cancel the schedule
+                log.error("Error in garbage-collecting expired sessions: " + e.toString());
+            }
         }
     } // end class AccountManagerGCTask
 
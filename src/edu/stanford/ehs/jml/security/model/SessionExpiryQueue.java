@@ -0,0 +1,116 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package edu.stanford.ehs.jml.security.model;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * Deadline queue of the logged in sessions, ordered by the time they expire if they are not touched
+ * again. Touching a session does not update the queue; when an entry falls due the session's actual
+ * last access is checked and the entry is put back with the new deadline if the session was used in
+ * the meantime. Expiring sessions thus only visits the entries that are due instead of every session,
+ * and a touch costs nothing beyond updating the login.
+ */
+public class SessionExpiryQueue {
+
+    private PriorityBlockingQueue<Entry> deadlines = new PriorityBlockingQueue<Entry>();
+
+    /**
+     * Add a new login. Logins without a timeout never expire and are not queued.
+     *
+     * @param sessionId The session id
+     * @param login The login stored for the session
+     */
+    public void add(String sessionId, Login login) {
+        if (login.getTimeout() > 0) {
+            deadlines.add(new Entry(getDeadline(login), sessionId, login));
+        }
+    }
+
+    /**
+     * Log out the sessions that have timed out. Entries of sessions that were logged out or logged in
+     * again are dropped; entries of sessions that were touched are put back with their new deadline.
+     *
+     * @param activeUserLogins The active logins by session id
+     * @param now The current time in milliseconds
+     * @return The number of sessions logged out
+     */
+    public int expire(ConcurrentMap<String, Login> activeUserLogins, long now) {
+        int expired = 0;
+        Entry entry;
+
+        while ((entry = deadlines.peek()) != null && entry.deadline <= now) {
+            entry = deadlines.poll();
+
+            if (activeUserLogins.get(entry.sessionId) != entry.login) {
+                continue;
+            }
+
+            long deadline = getDeadline(entry.login);
+
+            if (deadline > now) {
+                entry.deadline = deadline;
+                deadlines.add(entry);
+            } else if (activeUserLogins.remove(entry.sessionId, entry.login)) {
+                entry.login.logout();
+                expired++;
+            }
+        }
+
+        return (expired);
+    }
+
+    /**
+     * @return The number of queued entries, including entries of sessions that already ended
+     */
+    public int size() {
+        return (deadlines.size());
+    }
+
+    private static long getDeadline(Login login) {
+        return (login.getLastAccessed().getTime() + login.getTimeout());
+    }
+
+    /**
+     * A session and the time it expires unless it is touched
+     */
+    private static class Entry implements Comparable<Entry> {
+        long deadline;
+        String sessionId;
+        Login login;
+
+        Entry(long deadline, String sessionId, Login login) {
+            this.deadline = deadline;
+            this.sessionId = sessionId;
+            this.login = login;
+        }
+
+        public int compareTo(Entry other) {
+            return (deadline < other.deadline ? -1 : (deadline == other.deadline ? 0 : 1));
+        }
+    }
+}
@@ -61,7 +61,7 @@ public class GenericApplication implements Login {
     private static int QUERY_TIME_OUT = 120; // In seconds
 
     private AuthResponse authResponse = new AuthResponse();
-    private long lastAccessed = 0;
+    private volatile long lastAccessed = 0;
     private long timeout = 0;
     private String account;
     private String username;
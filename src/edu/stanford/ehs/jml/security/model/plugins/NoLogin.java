@@ -39,7 +39,7 @@ import java.util.Hashtable;
 public class NoLogin implements Login {
 
     private AuthResponse authResponse = new AuthResponse();
-    private long lastAccessed = 0;
+    private volatile long lastAccessed = 0;
     private long timeout = 0;
     private String account;
     private String username;
@@ -166,6 +166,7 @@ public class NoLogin implements Login {
     public boolean isAuthorized(String action) {
         if (action.equals(CoreConstants.RUNTIME_CMND_SESSINFO) ||
             action.equals(CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE) ||
+            action.equals(CoreConstants.DATABASE_CMND_BATCH) ||
             action.equals(CoreConstants.EMAIL_CMND_EMAIL_EMAIL)) {
             return (true);
         } else {
@@ -47,7 +47,7 @@ public class Shibboleth implements Login {
     private static String SHIBBOLETH_USER = "UID";
 
     private AuthResponse authResponse = new AuthResponse();
-    private long lastAccessed = 0;
+    private volatile long lastAccessed = 0;
     private long timeout = 0;
     private String account;
     private String username;
@@ -40,7 +40,7 @@ import java.util.Hashtable;
 public class SimpleLogin implements Login {
 
     private AuthResponse authResponse = new AuthResponse();
-    private long lastAccessed = 0;
+    private volatile long lastAccessed = 0;
     private long timeout = 0;
     private String account;
     private String username;
@@ -192,6 +192,7 @@ public class SimpleLogin implements Login {
     public boolean isAuthorized(String action) {
         if (action.equals(CoreConstants.RUNTIME_CMND_SESSINFO) ||
             action.equals(CoreConstants.DATABASE_CMND_USERSTOREDPROCEDURE) ||
+            action.equals(CoreConstants.DATABASE_CMND_BATCH) ||
             action.equals(CoreConstants.EMAIL_CMND_EMAIL_EMAIL)) {
             return (true);
         } else {
@@ -52,7 +52,7 @@ public class WebAuth implements Login {
     private static String WEBAUTH_AUTH_UNSET = "<UNSET>";
 
     private AuthResponse authResponse = new AuthResponse();
-    private long lastAccessed = 0;
+    private volatile long lastAccessed = 0;
     private long timeout = 0;
     private String account;
     private String username;
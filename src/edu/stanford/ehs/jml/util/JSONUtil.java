@@ -24,8 +24,19 @@
 
 package edu.stanford.ehs.jml.util;
 
+import edu.stanford.ehs.jml.database.model.ColumnFetcher;
 import edu.stanford.ehs.jml.database.model.oracle.Query;
 
+import java.io.IOException;
+
+import java.math.BigDecimal;
+
+import java.sql.Timestamp;
+
+import java.time.LocalDateTime;
+
+import java.util.Base64;
+
 /**
  * JSON utilities
  */
@@ -36,9 +47,6 @@ public class JSONUtil {
     private static String JSON_CHAR_QUOTATION = "\"";
     private static String JSON_CHAR_NEWLINE = "\n";
     private static String JSON_CHAR_CARRIAGERETURN = "\r";
-    private static String JSON_CHAR_NEWLINE_ESCAPE = "\\\\n";
-    private static String JSON_CHAR_CARRIAGERETURN_ESCAPE = "\\\\r";
-    private static String JSON_CHAR_INVISIBLE_CONTROL_CHARS = "\\p{C}";
 
     /**
      * Decode an JSON string
@@ -63,18 +71,210 @@ public class JSONUtil {
      *
      * @param json String to be encoded
      * @return Encoded JSON string
+     * @see #encode(String, Appendable)
      */
     public static String encode(String json) throws Exception {
-        if (json != null) {
-            json = json.replaceAll(JSON_CHAR_REVERSE_SOLIDUS, JSON_CHAR_ESCAPE + JSON_CHAR_REVERSE_SOLIDUS);
-            json = json.replaceAll(JSON_CHAR_QUOTATION, JSON_CHAR_ESCAPE + JSON_CHAR_QUOTATION);
-            json = json.replaceAll(JSON_CHAR_NEWLINE, JSON_CHAR_NEWLINE_ESCAPE);
-            json = json.replaceAll(JSON_CHAR_CARRIAGERETURN, JSON_CHAR_CARRIAGERETURN_ESCAPE);
-            json = json.replaceAll(JSON_CHAR_INVISIBLE_CONTROL_CHARS, "");
-            return (json.trim());
-        } else {
+        if (json == null) {
             return ("");
         }
+        if (isClean(json)) {
+            return (json);
+        }
+
+        StringBuilder output = new StringBuilder(json.length() + 16);
+        encodeTo(json, output);
+
+        return (output.toString());
+    }
+
+    /**
+     * Encode an JSON string into the output buffer or writer in a single pass. Backslashes and
+     * quotation marks are escaped, newlines and carriage returns are written as \n and \r, all other
+     * invisible and control characters (Unicode category C) are dropped and leading and trailing
+     * spaces are trimmed. Strings that need none of this are appended unchanged. A null string
+     * appends nothing.
+     *
+     * @param json String to be encoded
+     * @param output The buffer or writer receiving the encoded string
+     * @throws IOException
+     */
+    public static void encode(String json, Appendable output) throws IOException {
+        if (json == null) {
+            return;
+        }
+        if (isClean(json)) {
+            output.append(json);
+        } else {
+            encodeTo(json, output);
+        }
+    }
+
+    /**
+     * Write a fetched database value as a quoted JSON string with the text of the value, as formatted
+     * by ColumnFetcher.toText. Null is written as "".
+     *
+     * @param value The value, as produced by ColumnFetcher
+     * @param output The buffer or writer receiving the value
+     * @throws IOException
+     * @see #encodeValue(Object, boolean, Appendable)
+     */
+    public static void encodeValue(Object value, Appendable output) throws IOException {
+        output.append('"');
+        encode(ColumnFetcher.toText(value), output);
+        output.append('"');
+    }
+
+    /**
+     * Write a fetched database value as a complete JSON value. Unless typed is set, the value is
+     * written as text, as by encodeValue(Object, Appendable). With typed set, numbers are written as
+     * JSON numbers, timestamps as quoted ISO-8601 local date-times (yyyy-MM-ddTHH:mm:ss with the
+     * fraction of the second if it is not zero), raw values as quoted Base64 and strings encoded and
+     * quoted; null and values that are not finite numbers are written as "".
+     *
+     * @param value The value, as produced by ColumnFetcher
+     * @param typed True to write the value with its type
+     * @param output The buffer or writer receiving the value
+     * @throws IOException
+     * @see edu.stanford.ehs.jml.database.model.ColumnFetcher
+     */
+    public static void encodeValue(Object value, boolean typed, Appendable output) throws IOException {
+        if (!typed) {
+            encodeValue(value, output);
+        } else if (value instanceof Long || value instanceof BigDecimal) {
+            output.append(value instanceof BigDecimal ? ((BigDecimal)value).toPlainString() : value.toString());
+        } else if (value instanceof Double && !((Double)value).isNaN() && !((Double)value).isInfinite()) {
+            output.append(value.toString());
+        } else if (value instanceof Timestamp) {
+            output.append('"');
+            appendDateTime(((Timestamp)value).toLocalDateTime(), output);
+            output.append('"');
+        } else if (value instanceof byte[]) {
+            output.append('"');
+            output.append(Base64.getEncoder().encodeToString((byte[])value));
+            output.append('"');
+        } else {
+            output.append('"');
+            if (value instanceof String) {
+                encode((String)value, output);
+            }
+            output.append('"');
+        }
+    }
+
+    private static void appendDateTime(LocalDateTime dateTime, Appendable output) throws IOException {
+        appendDigits(dateTime.getYear(), 4, output);
+        output.append('-');
+        appendDigits(dateTime.getMonthValue(), 2, output);
+        output.append('-');
+        appendDigits(dateTime.getDayOfMonth(), 2, output);
+        output.append('T');
+        appendDigits(dateTime.getHour(), 2, output);
+        output.append(':');
+        appendDigits(dateTime.getMinute(), 2, output);
+        output.append(':');
+        appendDigits(dateTime.getSecond(), 2, output);
+
+        int nanos = dateTime.getNano();
+        if (nanos != 0) {
+            int digits = 9;
+
+            while (nanos % 10 == 0) {
+                nanos /= 10;
+                digits--;
+            }
+            output.append('.');
+            appendDigits(nanos, digits, output);
+        }
+    }
+
+    /**
+     * Append a non-negative number with leading zeros up to the width
+     */
+    private static void appendDigits(int value, int width, Appendable output) throws IOException {
+        for (int divisor = (int)Math.pow(10, width - 1); divisor > 0; divisor /= 10) {
+            output.append((char)('0' + (value / divisor) % 10));
+        }
+    }
+
+    /**
+     * @return true if the string can be used as is: no leading or trailing spaces and no characters
+     *         that are escaped or dropped by the encoder
+     */
+    private static boolean isClean(String json) {
+        int length = json.length();
+
+        if (length > 0 && (json.charAt(0) == ' ' || json.charAt(length - 1) == ' ')) {
+            return (false);
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = json.charAt(i);
+
+            if (c < 0x20 || c == '"' || c == '\\') {
+                return (false);
+            }
+            if (c >= 0x7f && (Character.isSurrogate(c) || isInvisible(c))) {
+                return (false);
+            }
+        }
+
+        return (true);
+    }
+
+    private static void encodeTo(String json, Appendable output) throws IOException {
+        int length = json.length();
+        int pendingSpaces = 0; // Spaces are held back until it is known that they are not trailing
+        boolean started = false; // Leading spaces are dropped
+
+        for (int i = 0; i < length; ) {
+            int codePoint = json.codePointAt(i);
+            int charCount = Character.charCount(codePoint);
+
+            if (codePoint == ' ') {
+                if (started) {
+                    pendingSpaces++;
+                }
+            } else if (codePoint == '\n' || codePoint == '\r' || !isInvisible(codePoint)) {
+                for (; pendingSpaces > 0; pendingSpaces--) {
+                    output.append(' ');
+                }
+                started = true;
+
+                switch (codePoint) {
+                case '\\':
+                    output.append("\\\\");
+                    break;
+                case '"':
+                    output.append("\\\"");
+                    break;
+                case '\n':
+                    output.append("\\n");
+                    break;
+                case '\r':
+                    output.append("\\r");
+                    break;
+                default:
+                    output.append(json, i, i + charCount);
+                }
+            }
+            i += charCount;
+        }
+    }
+
+    /**
+     * @return true for control, format, private use, surrogate and unassigned characters
+     */
+    private static boolean isInvisible(int codePoint) {
+        switch (Character.getType(codePoint)) {
+        case Character.CONTROL:
+        case Character.FORMAT:
+        case Character.PRIVATE_USE:
+        case Character.SURROGATE:
+        case Character.UNASSIGNED:
+            return (true);
+        default:
+            return (false);
+        }
     }
 
 }
@@ -0,0 +1,113 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 The Board of Trustees of the Leland Stanford Junior University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.stanford.ehs.jml.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed decimal buckets from 10 microseconds to 10 seconds.
+ * Used for reporting timings through the getStatistics action.
+ */
+public class LatencyHistogram {
+    private static final long[] BUCKET_LIMITS_NANOS =
+    { 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L, 10000000000L };
+    private static final String[] BUCKET_NAMES =
+    { "<=10us", "<=100us", "<=1ms", "<=10ms", "<=100ms", "<=1s", "<=10s", ">10s" };
+
+    private AtomicLongArray buckets = new AtomicLongArray(BUCKET_LIMITS_NANOS.length + 1);
+    private AtomicLong count = new AtomicLong();
+    private AtomicLong totalNanos = new AtomicLong();
+    private AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record one measurement.
+     *
+     * @param nanos The measured duration in nanoseconds
+     */
+    public void record(long nanos) {
+        int bucket = 0;
+
+        while (bucket < BUCKET_LIMITS_NANOS.length && nanos > BUCKET_LIMITS_NANOS[bucket]) {
+            bucket++;
+        }
+
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return The number of measurements
+     */
+    public long getCount() {
+        return (count.get());
+    }
+
+    /**
+     * @return The mean duration in microseconds
+     */
+    public long getMeanMicros() {
+        long n = count.get();
+
+        return (n == 0 ? 0 : totalNanos.get() / n / 1000);
+    }
+
+    /**
+     * @return The longest duration in microseconds
+     */
+    public long getMaxMicros() {
+        return (maxNanos.get() / 1000);
+    }
+
+    /**
+     * Render the bucket counts as "&lt;=10us:n &lt;=100us:n ...", leaving out empty buckets.
+     *
+     * @return The bucket counts
+     */
+    public String toString() {
+        StringBuffer output = new StringBuffer();
+
+        for (int i = 0; i < buckets.length(); i++) {
+            long bucketCount = buckets.get(i);
+
+            if (bucketCount > 0) {
+                if (output.length() > 0) {
+                    output.append(' ');
+                }
+                output.append(BUCKET_NAMES[i]);
+                output.append(':');
+                output.append(bucketCount);
+            }
+        }
+
+        return (output.toString());
+    }
+}
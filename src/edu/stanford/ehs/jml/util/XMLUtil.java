@@ -24,6 +24,8 @@
 
 package edu.stanford.ehs.jml.util;
 
+import java.io.IOException;
+
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
@@ -40,22 +42,111 @@ public class XMLUtil {
     private static int XML_TRANSLATION_SYMBOL = 0; // Array parameter index of symbol
     private static int XML_TRANSLATION_CODE = 1; // Array parameter index of code
 
+    // Lookup table of the codes by symbol, built from the translation table
+    private static String[] XML_ENCODE_TABLE = new String[128];
+
+    static {
+        for (int i = 0; i < XML_TRANSLATION_LENGTH; i++) {
+            XML_ENCODE_TABLE[XML_TRANSLATION[i][XML_TRANSLATION_SYMBOL].charAt(0)] =
+                XML_TRANSLATION[i][XML_TRANSLATION_CODE];
+        }
+    }
+
     /**
      * Decode an XML string
      *
      * @param xml String to be decoded
      * @return Decoded XML string
+     * @see #decode(String, Appendable)
      */
     public static String decode(String xml) {
-        if (xml != null) {
-            for (int i = 0; i < XML_TRANSLATION.length; i++) {
-                xml =
-xml.replaceAll(XML_TRANSLATION[i][XML_TRANSLATION_CODE], XML_TRANSLATION[i][XML_TRANSLATION_SYMBOL]);
-            }
+        if (xml == null) {
+            return ("");
+        }
+        if (xml.indexOf('&') == -1) {
             return (xml);
+        }
+
+        StringBuilder output = new StringBuilder(xml.length());
+        try {
+            decodeTo(xml, output);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder
+        }
+
+        return (output.toString());
+    }
+
+    /**
+     * Decode an XML string into the output buffer or writer in a single pass. The codes of the
+     * translation table are replaced by their symbols. As with the former replace-per-code
+     * implementation, &amp;amp; is decoded first, so "&amp;amp;lt;" becomes "&lt;". A null string
+     * appends nothing.
+     *
+     * @param xml String to be decoded
+     * @param output The buffer or writer receiving the decoded string
+     * @throws IOException
+     */
+    public static void decode(String xml, Appendable output) throws IOException {
+        if (xml == null) {
+            return;
+        }
+        if (xml.indexOf('&') == -1) {
+            output.append(xml);
         } else {
-            return ("");
+            decodeTo(xml, output);
+        }
+    }
+
+    private static void decodeTo(String xml, Appendable output) throws IOException {
+        int length = xml.length();
+        int start = 0; // Start of the pending run of characters that are copied unchanged
+
+        for (int i = xml.indexOf('&'); i != -1 && i < length; i = xml.indexOf('&', i)) {
+            output.append(xml, start, i);
+
+            int codeIndex = findCode(xml, i);
+            int next = i + 1;
+
+            if (codeIndex == 0) {
+                // &amp; is decoded before the other codes, so it may form a new code with the text after it
+                next = i + XML_TRANSLATION[0][XML_TRANSLATION_CODE].length();
+                int followingIndex = findCode(xml, next - 1);
+
+                if (followingIndex > 0) {
+                    output.append(XML_TRANSLATION[followingIndex][XML_TRANSLATION_SYMBOL]);
+                    next += XML_TRANSLATION[followingIndex][XML_TRANSLATION_CODE].length() - 1;
+                } else {
+                    output.append('&');
+                }
+            } else if (codeIndex > 0) {
+                output.append(XML_TRANSLATION[codeIndex][XML_TRANSLATION_SYMBOL]);
+                next = i + XML_TRANSLATION[codeIndex][XML_TRANSLATION_CODE].length();
+            } else {
+                output.append('&');
+            }
+            start = next;
+            i = next;
+        }
+        output.append(xml, start, length);
+    }
+
+    /**
+     * Find the code starting at the position. The code at a position following &amp;amp; starts with
+     * the ';' of the decoded "&amp;amp;", so the leading '&' is not compared.
+     *
+     * @return The index in the translation table, or -1 if no code starts at the position
+     */
+    private static int findCode(String xml, int position) {
+        for (int i = 0; i < XML_TRANSLATION_LENGTH; i++) {
+            String code = XML_TRANSLATION[i][XML_TRANSLATION_CODE];
+
+            if (xml.regionMatches(position + 1, code, 1, code.length() - 1)) {
+                return (i);
+            }
         }
+
+        return (-1);
     }
 
     /**
@@ -63,17 +154,100 @@ xml.replaceAll(XML_TRANSLATION[i][XML_TRANSLATION_CODE], XML_TRANSLATION[i][XML_
      *
      * @param xml String to be encoded
      * @return Encoded XML string
+     * @see #encode(String, Appendable)
      */
     public static String encode(String xml) throws Exception {
-        if (xml != null) {
-            for (int i = 0; i < XML_TRANSLATION_LENGTH; i++) {
-                xml =
-xml.replaceAll(XML_TRANSLATION[i][XML_TRANSLATION_SYMBOL], XML_TRANSLATION[i][XML_TRANSLATION_CODE]);
-            }
-            return (xml.trim());
-        } else {
+        if (xml == null) {
             return ("");
         }
+
+        int start = trimStart(xml);
+        int end = trimEnd(xml, start);
+        int first = findSymbol(xml, start, end);
+
+        if (first == end) {
+            return (start == 0 && end == xml.length() ? xml : xml.substring(start, end));
+        }
+
+        StringBuilder output = new StringBuilder(end - start + 16);
+        encodeTo(xml, first, end, output.append(xml, start, first));
+
+        return (output.toString());
+    }
+
+    /**
+     * Encode an XML string into the output buffer or writer in a single pass, using the translation
+     * table as lookup table. Leading and trailing white space and control characters are trimmed, as
+     * String.trim() does. A null string appends nothing.
+     *
+     * @param xml String to be encoded
+     * @param output The buffer or writer receiving the encoded string
+     * @throws IOException
+     */
+    public static void encode(String xml, Appendable output) throws IOException {
+        if (xml == null) {
+            return;
+        }
+
+        int start = trimStart(xml);
+        int end = trimEnd(xml, start);
+        int first = findSymbol(xml, start, end);
+
+        output.append(xml, start, first);
+        if (first < end) {
+            encodeTo(xml, first, end, output);
+        }
+    }
+
+    private static void encodeTo(String xml, int start, int end, Appendable output) throws IOException {
+        int run = start; // Start of the pending run of characters that are copied unchanged
+
+        for (int i = start; i < end; i++) {
+            char c = xml.charAt(i);
+            String code = c < XML_ENCODE_TABLE.length ? XML_ENCODE_TABLE[c] : null;
+
+            if (code != null) {
+                output.append(xml, run, i);
+                output.append(code);
+                run = i + 1;
+            }
+        }
+        output.append(xml, run, end);
+    }
+
+    /**
+     * @return The position of the first character that has to be encoded, or end if there is none
+     */
+    private static int findSymbol(String xml, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = xml.charAt(i);
+
+            if (c < XML_ENCODE_TABLE.length && XML_ENCODE_TABLE[c] != null) {
+                return (i);
+            }
+        }
+
+        return (end);
+    }
+
+    private static int trimStart(String xml) {
+        int start = 0;
+
+        while (start < xml.length() && xml.charAt(start) <= ' ') {
+            start++;
+        }
+
+        return (start);
+    }
+
+    private static int trimEnd(String xml, int start) {
+        int end = xml.length();
+
+        while (end > start && xml.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        return (end);
     }
 
     public static int translations() {